@@ -2,8 +2,14 @@ package com.darylteo.nio;
 
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -27,7 +33,35 @@ import java.util.List;
  */
 public abstract class AbstractDirectoryWatchService implements AutoCloseable, DirectoryWatchService {
   private final WatchService watchService = FileSystems.getDefault().newWatchService();
-  private List<DirectoryWatcher> watchers = new LinkedList<>();
+  private List<DirectoryWatcher> watchers = new CopyOnWriteArrayList<>();
+
+  /* Watch budget */
+  private int watchLimit = Integer.MAX_VALUE;
+  private int watchCount = 0;
+  private WatchPriority watchPriority = WatchPriority.SHALLOWEST_FIRST;
+  private long degradedScanInterval = TimeUnit.SECONDS.toNanos(5);
+
+  /* Keys are shared by all watchers of a directory, so count the watchers holding each */
+  private final Map<WatchKey, Integer> keyHolders = new HashMap<>();
+
+  /* Filters of all watchers, compiled together */
+  private volatile SharedFilterMatcher sharedFilters;
+
+  /* Paths and directories producing the most events */
+  private volatile HeavyHitters hotPaths;
+  private volatile HeavyHitters hotDirectories;
+  private int hotCapacity = 0;
+  private long hotHalfLife;
+
+  /* Diagnostics */
+  private volatile WatchServiceMonitor monitor;
+  private volatile long slowSubscriberThreshold = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /* Raw events written to a trace file */
+  private volatile TraceRecorder recorder;
+
+  /* Large batches of events handled on several threads */
+  private volatile ParallelBatches batches;
 
   public AbstractDirectoryWatchService() throws IOException {
   }
@@ -91,14 +125,485 @@ public abstract class AbstractDirectoryWatchService implements AutoCloseable, Di
    * @throws IOException
    */
   public DirectoryWatcher newWatcher(Path dir, String separator) throws IOException {
-    DirectoryWatcher watcher = new DirectoryWatcher(this.watchService, dir, separator);
+    return newWatcher(dir, separator, Integer.MAX_VALUE);
+  }
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for the path given, watching only
+   * directories up to maxDepth levels below it. A maxDepth of 0 watches only
+   * the entries directly within dir.
+   * </p>
+   *
+   * @param dir      the path to watch for events.
+   * @param maxDepth the number of directory levels below dir to watch
+   * @return a DirectoryWatcher for this path (and child paths up to maxDepth)
+   * @throws IOException
+   */
+  public DirectoryWatcher newWatcher(Path dir, int maxDepth) throws IOException {
+    return newWatcher(dir, null, maxDepth);
+  }
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for the path given, watching only
+   * directories up to maxDepth levels below it. A maxDepth of 0 watches only
+   * the entries directly within dir.
+   * </p>
+   *
+   * @param dir       the path to watch for events.
+   * @param separator the file path separator for this watcher
+   * @param maxDepth  the number of directory levels below dir to watch
+   * @return a DirectoryWatcher for this path (and child paths up to maxDepth)
+   * @throws IOException
+   */
+  public DirectoryWatcher newWatcher(Path dir, String separator, int maxDepth) throws IOException {
+    DirectoryWatcher watcher = new DirectoryWatcher(this, dir, new WatcherOptions().separator(separator).maxDepth(maxDepth));
+    addWatcher(watcher);
+
+    return watcher;
+  }
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for the path given, which optionally
+   * reports every entry that already exists as an initial event.
+   * </p>
+   * <p>
+   * With initial events, nothing is watched or delivered until
+   * {@link DirectoryWatcher#start} is called, so that subscribers can be
+   * attached first. The tree is then walked once, both to register its
+   * directories and to report its entries, followed by any live events
+   * received during the walk.
+   * </p>
+   *
+   * @param dir           the path to watch for events.
+   * @param initialEvents whether to report existing entries on start
+   * @return a DirectoryWatcher for this path (and all child paths)
+   * @throws IOException
+   * @see ChangeEvent#isInitial
+   */
+  public DirectoryWatcher newWatcher(Path dir, boolean initialEvents) throws IOException {
+    return newWatcher(dir, null, Integer.MAX_VALUE, initialEvents);
+  }
+
+  /**
+   * <p>
+   * Same as {@link #newWatcher(Path, boolean)}, watching only directories up
+   * to maxDepth levels below dir.
+   * </p>
+   *
+   * @param dir           the path to watch for events.
+   * @param separator     the file path separator for this watcher
+   * @param maxDepth      the number of directory levels below dir to watch
+   * @param initialEvents whether to report existing entries on start
+   * @return a DirectoryWatcher for this path (and child paths up to maxDepth)
+   * @throws IOException
+   */
+  public DirectoryWatcher newWatcher(Path dir, String separator, int maxDepth, boolean initialEvents) throws IOException {
+    DirectoryWatcher watcher = new DirectoryWatcher(this, dir, new WatcherOptions().separator(separator).maxDepth(maxDepth).initialEvents(initialEvents));
+    addWatcher(watcher);
+
+    return watcher;
+  }
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for the path given, which reports the
+   * changes made since it was last run.
+   * </p>
+   * <p>
+   * The state of the tree is loaded from the snapshot file if it exists, and
+   * compared against the tree on disk. The differences are delivered as
+   * ordinary events, ahead of any live events. No events are delivered until
+   * {@link DirectoryWatcher#start} is called, so that subscribers can be
+   * attached first. The snapshot is written back when this service is closed.
+   * </p>
+   *
+   * @param dir          the path to watch for events.
+   * @param snapshotFile the file to load the previous state from and save the
+   *                     current state to.
+   * @return a DirectoryWatcher for this path (and all child paths)
+   * @throws IOException
+   */
+  public DirectoryWatcher newSnapshotWatcher(Path dir, Path snapshotFile) throws IOException {
+    DirectoryWatcher watcher = new DirectoryWatcher(this, dir, new WatcherOptions().snapshotFile(snapshotFile));
+    addWatcher(watcher);
+
+    return watcher;
+  }
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for a single file.
+   * </p>
+   *
+   * @param file the file to watch for events.
+   * @return a DirectoryWatcher for this file
+   * @throws IOException
+   */
+  public DirectoryWatcher newFileWatcher(String file) throws IOException {
+    return newFileWatcher(Paths.get(file));
+  }
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for a single file. Only the parent
+   * directory of the file is watched, and events for any other entries are
+   * discarded without going through the include and exclude filters.
+   * </p>
+   * <p>
+   * Paths reported by the watcher are relative to the parent directory, i.e.
+   * the file name.
+   * </p>
+   *
+   * @param file the file to watch for events.
+   * @return a DirectoryWatcher for this file
+   * @throws IOException
+   */
+  public DirectoryWatcher newFileWatcher(Path file) throws IOException {
+    file = file.toAbsolutePath();
+
+    DirectoryWatcher watcher = new DirectoryWatcher(this, file.getParent(), new WatcherOptions().maxDepth(0).fileName(file.getFileName()));
     addWatcher(watcher);
 
     return watcher;
   }
 
   private void addWatcher(DirectoryWatcher watcher) {
+    synchronized (this) {
+      watcher.trackHotPaths(hotCapacity, hotHalfLife);
+    }
+
     this.watchers.add(watcher);
+    filtersChanged();
+  }
+
+  /* Filters */
+
+  /**
+   * <p>
+   * Compiles the path filters of all DirectoryWatchers of this service into a
+   * single matcher, so that each event is matched once rather than once per
+   * watcher. This is worthwhile with many watchers, particularly where their
+   * directories overlap or their filters are alike. Watchers whose filters
+   * cannot be shared continue to match on their own.
+   * </p>
+   *
+   * @param enabled whether filters are shared
+   */
+  public synchronized void setSharedFilterMatching(boolean enabled) {
+    if (enabled == (sharedFilters != null)) {
+      return;
+    }
+
+    if (enabled) {
+      SharedFilterMatcher matcher = new SharedFilterMatcher();
+      matcher.rebuild(watchers);
+      sharedFilters = matcher;
+    } else {
+      sharedFilters = null;
+    }
+  }
+
+  public boolean isSharedFilterMatching() {
+    return sharedFilters != null;
+  }
+
+  SharedFilterMatcher getSharedFilters() {
+    return sharedFilters;
+  }
+
+  synchronized void filtersChanged() {
+    if (sharedFilters != null) {
+      sharedFilters.rebuild(watchers);
+    }
+  }
+
+  /* Hot Paths */
+
+  /**
+   * <p>
+   * Keeps track of the paths and directories that produce the most events,
+   * both across this service and for each of its DirectoryWatchers. Each
+   * keeps counters for a bounded number of paths, so the counts are
+   * estimates: a path may be credited with some of the events of paths that
+   * were evicted before it. Older events count for less, halving with every
+   * half life, so the results reflect recent activity.
+   * </p>
+   * <p>
+   * Every event received from the WatchService is counted, including those
+   * for entries that are filtered out or absorbed by event storms, as these
+   * still take up time. The results can be used to find noisy subtrees that
+   * are worth excluding.
+   * </p>
+   *
+   * @param capacity the number of paths to keep counts for, or 0 to stop
+   *                 tracking
+   * @param halfLife the time after which an event counts for half
+   * @param unit     the unit of halfLife
+   */
+  public synchronized void setHotPathTracking(int capacity, long halfLife, TimeUnit unit) {
+    if (capacity <= 0) {
+      this.hotCapacity = 0;
+      this.hotPaths = null;
+      this.hotDirectories = null;
+    } else {
+      long now = System.nanoTime();
+
+      this.hotCapacity = capacity;
+      this.hotHalfLife = unit.toNanos(halfLife);
+      this.hotPaths = new HeavyHitters(capacity, hotHalfLife, now);
+      this.hotDirectories = new HeavyHitters(capacity, hotHalfLife, now);
+    }
+
+    for (DirectoryWatcher watcher : getWatchers()) {
+      watcher.trackHotPaths(hotCapacity, hotHalfLife);
+    }
+  }
+
+  /**
+   * @param n the maximum number of paths to return
+   * @return the entries that have produced the most events across all
+   * watchers, most active first, or an empty list if tracking is not enabled.
+   */
+  public List<HotPath> getHottestPaths(int n) {
+    HeavyHitters hotPaths = this.hotPaths;
+    return hotPaths == null ? Collections.<HotPath>emptyList() : hotPaths.top(n, System.nanoTime());
+  }
+
+  /**
+   * @param n the maximum number of directories to return
+   * @return the directories whose entries have produced the most events
+   * across all watchers, most active first, or an empty list if tracking is
+   * not enabled.
+   */
+  public List<HotPath> getHottestDirectories(int n) {
+    HeavyHitters hotDirectories = this.hotDirectories;
+    return hotDirectories == null ? Collections.<HotPath>emptyList() : hotDirectories.top(n, System.nanoTime());
+  }
+
+  private void recordHit(WatchKey key, Path context) {
+    HeavyHitters hotPaths = this.hotPaths;
+    HeavyHitters hotDirectories = this.hotDirectories;
+    if (hotPaths == null || hotDirectories == null) {
+      return;
+    }
+
+    long now = System.nanoTime();
+    Path dir = (Path) key.watchable();
+
+    hotDirectories.hit(dir, now);
+    hotPaths.hit(context == null ? dir : dir.resolve(context), now);
+  }
+
+  /* Diagnostics */
+
+  /**
+   * <p>
+   * Reports the handling of WatchKeys, registration walks, overflows and
+   * slow subscribers to the given monitor. Nothing is measured while no
+   * monitor is set.
+   * </p>
+   *
+   * @param monitor the monitor, or null to stop monitoring
+   */
+  public void setMonitor(WatchServiceMonitor monitor) {
+    this.monitor = monitor;
+  }
+
+  public WatchServiceMonitor getMonitor() {
+    return this.monitor;
+  }
+
+  /**
+   * Sets how long a subscriber may take to handle an event before it is
+   * reported to the monitor as slow. The default is 100ms.
+   *
+   * @param threshold the time a subscriber may take
+   * @param unit      the unit of threshold
+   */
+  public void setSlowSubscriberThreshold(long threshold, TimeUnit unit) {
+    this.slowSubscriberThreshold = unit.toNanos(threshold);
+  }
+
+  long getSlowSubscriberThreshold() {
+    return this.slowSubscriberThreshold;
+  }
+
+  /* Recording */
+
+  /**
+   * <p>
+   * Starts writing every event taken from the WatchService to a trace file,
+   * before any filtering, so that it can be replayed with a
+   * {@link TraceReplayer}. The file is replaced if it exists.
+   * </p>
+   *
+   * @param trace the file to write to
+   * @throws IOException if the file cannot be created
+   */
+  public synchronized void startRecording(Path trace) throws IOException {
+    if (recorder != null) {
+      throw new IllegalStateException("Already recording");
+    }
+
+    recorder = new TraceRecorder(trace, System.nanoTime());
+  }
+
+  /**
+   * Stops recording and closes the trace file. This is done automatically
+   * when the DirectoryWatchService is closed.
+   *
+   * @throws IOException if the trace could not be written
+   */
+  public synchronized void stopRecording() throws IOException {
+    TraceRecorder recorder = this.recorder;
+    if (recorder == null) {
+      return;
+    }
+
+    this.recorder = null;
+    recorder.close();
+  }
+
+  /* Batches */
+
+  /**
+   * <p>
+   * Handles the events of a WatchKey on several threads when there are at
+   * least threshold of them, such as when a busy directory returns hundreds
+   * of events at once. Events are split up by the name of their entry, so
+   * that those for the same entry are still handled in order. Smaller
+   * batches are handled on the calling thread as before.
+   * </p>
+   * <p>
+   * Events for different entries of the directory may then reach
+   * subscribers in a different order than they happened.
+   * </p>
+   *
+   * @param parallelism the number of threads to use, including the thread
+   *                    taking keys from the WatchService, or 1 or less to
+   *                    handle every batch serially
+   * @param threshold   the number of events from which a batch is split up
+   * @throws IllegalStateException if the service already dispatches events
+   *                               on several threads of its own
+   */
+  public synchronized void setParallelBatches(int parallelism, int threshold) {
+    ParallelBatches previous = this.batches;
+
+    this.batches = parallelism > 1 ? new ParallelBatches(this, parallelism, threshold) : null;
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  /* Watch Budget */
+
+  /**
+   * <p>
+   * Limits the number of directories that are given a native watch across all
+   * DirectoryWatchers of this service. Directories over the limit are scanned
+   * for changes periodically instead. Which directories are watched is decided
+   * by the {@link WatchPriority}.
+   * </p>
+   * <p>
+   * The limit is lowered automatically if the operating system refuses to
+   * create any more watches.
+   * </p>
+   *
+   * @param limit the maximum number of native watches
+   */
+  public synchronized void setWatchLimit(int limit) {
+    this.watchLimit = limit;
+  }
+
+  public synchronized int getWatchLimit() {
+    return this.watchLimit;
+  }
+
+  /**
+   * @return the number of native watches currently in use.
+   */
+  public synchronized int getWatchCount() {
+    return this.watchCount;
+  }
+
+  public synchronized void setWatchPriority(WatchPriority priority) {
+    this.watchPriority = priority;
+  }
+
+  public synchronized WatchPriority getWatchPriority() {
+    return this.watchPriority;
+  }
+
+  /**
+   * Sets how often directories over the watch limit are scanned for changes.
+   *
+   * @param interval the time between scans
+   * @param unit     the unit of interval
+   */
+  public synchronized void setDegradedScanInterval(long interval, TimeUnit unit) {
+    this.degradedScanInterval = unit.toNanos(interval);
+  }
+
+  synchronized long getDegradedScanInterval() {
+    return this.degradedScanInterval;
+  }
+
+  /**
+   * @return the directories of all DirectoryWatchers that are scanned
+   * periodically rather than watched natively.
+   */
+  public Set<Path> getDegradedPaths() {
+    Set<Path> paths = new HashSet<>();
+
+    for (DirectoryWatcher watcher : getWatchers()) {
+      paths.addAll(watcher.getDegradedPaths());
+    }
+
+    return paths;
+  }
+
+  synchronized boolean acquireWatch() {
+    if (watchCount >= watchLimit) {
+      return false;
+    }
+
+    watchCount++;
+    return true;
+  }
+
+  synchronized void releaseWatch() {
+    watchCount--;
+  }
+
+  synchronized void keyAcquired(WatchKey key) {
+    Integer holders = keyHolders.get(key);
+    keyHolders.put(key, holders == null ? 1 : holders + 1);
+  }
+
+  /**
+   * @return true if no other watcher holds the key, so that it may be
+   * cancelled
+   */
+  synchronized boolean keyReleased(WatchKey key) {
+    Integer holders = keyHolders.get(key);
+    if (holders == null || holders <= 1) {
+      keyHolders.remove(key);
+      return true;
+    }
+
+    keyHolders.put(key, holders - 1);
+    return false;
+  }
+
+  synchronized boolean hasWatchCapacity() {
+    return watchCount < watchLimit;
+  }
+
+  synchronized void watchLimitReached() {
+    watchLimit = Math.min(watchLimit, watchCount);
   }
 
   protected void handleWatchKey(WatchKey key) {
@@ -106,46 +611,133 @@ public abstract class AbstractDirectoryWatchService implements AutoCloseable, Di
       return;
     }
 
-    /* Poll the events and handle */
-    for (WatchEvent<?> event : key.pollEvents()) {
-      WatchEvent.Kind<?> kind = event.kind();
+    WatchServiceMonitor monitor = this.monitor;
+    long start = System.nanoTime();
 
-      if (kind == StandardWatchEventKinds.OVERFLOW) {
-        continue;
+    /* Poll the events and handle, splitting up large batches */
+    List<WatchEvent<?>> events = key.pollEvents();
+
+    // recorded before any splitting, so the trace keeps the order received
+    TraceRecorder recorder = this.recorder;
+    if (recorder != null) {
+      for (WatchEvent<?> event : events) {
+        recorder.record((Path) key.watchable(), event.kind(), (Path) event.context(), start);
       }
+    }
 
-      if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-        for (DirectoryWatcher watcher : getWatchers()) {
-          watcher.handleModifyEvent(key, (Path) event.context());
-        }
+    ParallelBatches batches = this.batches;
+    int count = batches != null && batches.accepts(events.size())
+        ? batches.handle(key, events, start)
+        : handleEvents(key, events, start);
 
-        continue;
-      }
+    /* Reset the Key to get more events later */
+    if (!key.reset()) {
+      handleKeyInvalid(key);
+    }
 
-      if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-        for (DirectoryWatcher watcher : getWatchers()) {
-          watcher.handleCreateEvent(key, (Path) event.context());
-        }
+    if (monitor != null) {
+      monitor.keyProcessed((Path) key.watchable(), count, System.nanoTime() - start);
+    }
+  }
 
+  /**
+   * @return the number of events handled, not counting overflows
+   */
+  int handleEvents(WatchKey key, List<WatchEvent<?>> events, long start) {
+    WatchServiceMonitor monitor = this.monitor;
+    int count = 0;
+
+    for (WatchEvent<?> event : events) {
+      WatchEvent.Kind<?> kind = event.kind();
+
+      if (kind == StandardWatchEventKinds.OVERFLOW) {
+        if (monitor != null) {
+          monitor.overflow((Path) key.watchable());
+        }
         continue;
       }
 
-      for (DirectoryWatcher watcher : getWatchers()) {
-        watcher.handleDeleteEvent(key, (Path) event.context());
+      recordHit(key, (Path) event.context());
+      try {
+        handleEvent(key, kind, (Path) event.context(), start);
+      } catch (RuntimeException e) {
+        // the key must still be reset, or the directory is no longer watched
+        eventFailed(key, (Path) event.context(), e);
       }
+      count++;
     }
 
-    /* Reset the Key to get more events later */
-    if (!key.reset()) {
-      for (DirectoryWatcher watcher : getWatchers()) {
-        watcher.handleKeyInvalid(key);
-      }
+    return count;
+  }
+
+  void eventFailed(WatchKey key, Path context, RuntimeException exception) {
+    WatchServiceMonitor monitor = this.monitor;
+    if (monitor != null) {
+      monitor.eventFailed((Path) key.watchable(), context, exception);
+    }
+  }
+
+  /**
+   * Passes a single event on to all watchers.
+   *
+   * @param key      the key the event was received from
+   * @param kind     the kind of event
+   * @param context  the name of the entry, relative to the directory of the key
+   * @param received when the key was taken, from {@link System#nanoTime()}
+   */
+  protected void handleEvent(WatchKey key, WatchEvent.Kind<?> kind, Path context, long received) {
+    for (DirectoryWatcher watcher : getWatchers()) {
+      handleEvent(watcher, key, kind, context, received);
+    }
+  }
+
+  void handleEvent(DirectoryWatcher watcher, WatchKey key, WatchEvent.Kind<?> kind, Path context, long received) {
+    if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+      watcher.handleModifyEvent(key, context, received);
+    } else if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+      watcher.handleCreateEvent(key, context, received);
+    } else {
+      watcher.handleDeleteEvent(key, context, received);
+    }
+  }
+
+  /**
+   * Notifies all watchers that a key is no longer valid, after all of its
+   * events have been handled.
+   *
+   * @param key the key that could not be reset
+   */
+  protected void handleKeyInvalid(WatchKey key) {
+    for (DirectoryWatcher watcher : getWatchers()) {
+      watcher.handleKeyInvalid(key);
+    }
+  }
+
+  /**
+   * Performs time based housekeeping for all watchers, such as ending event
+   * storms. Implementations should call this regularly, whether or not any
+   * events have been received.
+   */
+  protected void handleTick() {
+    long now = System.nanoTime();
+
+    for (DirectoryWatcher watcher : getWatchers()) {
+      watcher.handleTick(now);
     }
   }
 
   @Override
   public void close() throws Exception {
-    this.watchService.close();
-    this.watchers.clear();
+    try {
+      stopRecording();
+
+      for (DirectoryWatcher watcher : getWatchers()) {
+        watcher.close();
+      }
+    } finally {
+      setParallelBatches(1, 0);
+      this.watchService.close();
+      this.watchers.clear();
+    }
   }
 }
@@ -0,0 +1,19 @@
+package com.darylteo.nio;
+
+/**
+ * A condition on the attributes of an entry, added to a
+ * {@link DirectoryWatcher} with {@link DirectoryWatcher#include(AttributeFilter)}
+ * or {@link DirectoryWatcher#exclude(AttributeFilter)}. See
+ * {@link AttributeFilters} for common conditions.
+ */
+public interface AttributeFilter {
+  /**
+   * Attributes should be obtained from {@link ChangeEvent#getAttributes} or
+   * {@link ChangeEvent#getPosixAttributes}, which are read once per event
+   * and shared with every other filter and subscriber.
+   *
+   * @param event a created or modified entry
+   * @return whether the entry matches
+   */
+  public boolean accept(ChangeEvent event);
+}
@@ -0,0 +1,86 @@
+package com.darylteo.nio;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+
+/**
+ * Factory methods for common {@link AttributeFilter}s. Entries whose
+ * attributes cannot be read do not match any of them.
+ */
+public final class AttributeFilters {
+  private AttributeFilters() {
+  }
+
+  /**
+   * Matches regular files of at least the given size in bytes.
+   */
+  public static AttributeFilter minSize(final long bytes) {
+    return new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        BasicFileAttributes attrs = event.getAttributes();
+        return attrs != null && attrs.isRegularFile() && attrs.size() >= bytes;
+      }
+    };
+  }
+
+  /**
+   * Matches regular files of at most the given size in bytes.
+   */
+  public static AttributeFilter maxSize(final long bytes) {
+    return new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        BasicFileAttributes attrs = event.getAttributes();
+        return attrs != null && attrs.isRegularFile() && attrs.size() <= bytes;
+      }
+    };
+  }
+
+  public static AttributeFilter regularFiles() {
+    return new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        BasicFileAttributes attrs = event.getAttributes();
+        return attrs != null && attrs.isRegularFile();
+      }
+    };
+  }
+
+  public static AttributeFilter directories() {
+    return new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        BasicFileAttributes attrs = event.getAttributes();
+        return attrs != null && attrs.isDirectory();
+      }
+    };
+  }
+
+  /**
+   * Matches entries owned by the given user. Requires POSIX attributes.
+   */
+  public static AttributeFilter owner(final String name) {
+    return new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        PosixFileAttributes attrs = event.getPosixAttributes();
+        return attrs != null && attrs.owner().getName().equals(name);
+      }
+    };
+  }
+
+  /**
+   * Matches entries whose name starts with a dot. Use with
+   * {@link DirectoryWatcher#exclude(AttributeFilter)} to ignore hidden
+   * entries. This is only a check on the name, and does not stat.
+   */
+  public static AttributeFilter hidden() {
+    return new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        return event.getPath().getFileName().toString().startsWith(".");
+      }
+    };
+  }
+}
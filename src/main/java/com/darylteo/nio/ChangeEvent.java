@@ -0,0 +1,179 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+
+/**
+ * <p>
+ * A single change to an entry, as delivered by a {@link DirectoryWatcher} to
+ * its subscribers.
+ * </p>
+ * <p>
+ * The attributes of the entry are read on first access and then shared by
+ * all subscribers of the event. Where the watcher has already read them
+ * while handling the event, no further stat is made.
+ * </p>
+ *
+ * @see DirectoryWatcherSubscriber#eventReceived
+ */
+public class ChangeEvent {
+  private final DirectoryWatcher watcher;
+  private final ChangeKind kind;
+  private final Path path;
+  private final long sequence;
+  private final boolean initial;
+
+  /* Read lazily; attributesRead distinguishes a missing entry from an unread one */
+  private volatile BasicFileAttributes attributes;
+  private volatile boolean attributesRead;
+  private volatile PosixFileAttributes posixAttributes;
+  private volatile boolean posixAttributesRead;
+
+  /* When the WatchKey of the event was taken, and the event accepted, if latency is tracked */
+  private boolean stamped;
+  private long received;
+  private long accepted;
+
+  ChangeEvent(DirectoryWatcher watcher, ChangeKind kind, Path path, long sequence) {
+    this(watcher, kind, path, sequence, null);
+  }
+
+  ChangeEvent(DirectoryWatcher watcher, ChangeKind kind, Path path, long sequence, BasicFileAttributes attributes) {
+    this(watcher, kind, path, sequence, attributes, false);
+  }
+
+  ChangeEvent(DirectoryWatcher watcher, ChangeKind kind, Path path, long sequence, BasicFileAttributes attributes, boolean initial) {
+    this.watcher = watcher;
+    this.kind = kind;
+    this.path = path;
+    this.sequence = sequence;
+    this.initial = initial;
+    this.attributes = attributes;
+    this.attributesRead = attributes != null;
+  }
+
+  /* Copies the event with a sequence number, along with any attributes read so far */
+  ChangeEvent sequenced(long sequence) {
+    ChangeEvent event = new ChangeEvent(watcher, kind, path, sequence, null, initial);
+
+    synchronized (this) {
+      event.attributes = this.attributes;
+      event.attributesRead = this.attributesRead;
+      event.posixAttributes = this.posixAttributes;
+      event.posixAttributesRead = this.posixAttributesRead;
+    }
+
+    return event;
+  }
+
+  void stamp(long received, long accepted) {
+    this.stamped = true;
+    this.received = received;
+    this.accepted = accepted;
+  }
+
+  boolean isStamped() {
+    return stamped;
+  }
+
+  long getReceived() {
+    return received;
+  }
+
+  long getAccepted() {
+    return accepted;
+  }
+
+  /**
+   * @return the source of the event
+   */
+  public DirectoryWatcher getWatcher() {
+    return this.watcher;
+  }
+
+  public ChangeKind getKind() {
+    return this.kind;
+  }
+
+  /**
+   * @return the path of the entry, relative to the base of the watcher
+   */
+  public Path getPath() {
+    return this.path;
+  }
+
+  /**
+   * @return the position of this event in the journal of its watcher, or 0 if
+   * the watcher does not keep a journal.
+   * @see DirectoryWatcher#enableJournal
+   */
+  public long getSequence() {
+    return this.sequence;
+  }
+
+  /**
+   * @return whether this event reports an entry that already existed when the
+   * watcher was started, rather than a change.
+   * @see AbstractDirectoryWatchService#newWatcher(Path, boolean)
+   */
+  public boolean isInitial() {
+    return this.initial;
+  }
+
+  /**
+   * Returns the attributes of the entry, without following symbolic links.
+   * These are read when first requested, so they may be more recent than the
+   * event itself.
+   *
+   * @return the attributes, or null if the entry has been deleted or cannot
+   * be read.
+   */
+  public BasicFileAttributes getAttributes() {
+    if (!attributesRead) {
+      synchronized (this) {
+        if (!attributesRead) {
+          attributes = kind == ChangeKind.DELETED ? null : read(BasicFileAttributes.class);
+          attributesRead = true;
+        }
+      }
+    }
+
+    return attributes;
+  }
+
+  /**
+   * Same as {@link #getAttributes}, including owner, group and permissions.
+   *
+   * @return the attributes, or null if the entry has been deleted or cannot
+   * be read, or the file system does not support POSIX attributes.
+   */
+  public PosixFileAttributes getPosixAttributes() {
+    if (!posixAttributesRead) {
+      synchronized (this) {
+        if (!posixAttributesRead) {
+          posixAttributes = kind == ChangeKind.DELETED ? null : read(PosixFileAttributes.class);
+          posixAttributesRead = true;
+        }
+      }
+    }
+
+    return posixAttributes;
+  }
+
+  private <A extends BasicFileAttributes> A read(Class<A> type) {
+    try {
+      return Files.readAttributes(watcher.getPath().resolve(path), type, LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ChangeEvent[" + sequence + " " + kind + (initial ? " (initial) " : " ") + path + "]";
+  }
+}
@@ -0,0 +1,36 @@
+package com.darylteo.nio;
+
+/**
+ * The types of change a {@link DirectoryWatcher} reports for an entry.
+ */
+public enum ChangeKind {
+  CREATED,
+  MODIFIED,
+  DELETED;
+
+  /**
+   * Combines two consecutive changes to the same entry into the net change
+   * between the state before the first and the state after the second.
+   *
+   * @param previous the earlier change, or null if there was none
+   * @param next     the later change
+   * @return the net change, or null if the two cancel each other out
+   */
+  static ChangeKind merge(ChangeKind previous, ChangeKind next) {
+    if (previous == null) {
+      return next;
+    }
+
+    switch (previous) {
+      case CREATED:
+        // an entry that did not exist before the window is still new, unless it
+        // is gone again, in which case nothing is observable
+        return next == DELETED ? null : CREATED;
+      case DELETED:
+        // deleted then recreated is a replacement of the original entry
+        return next == DELETED ? DELETED : MODIFIED;
+      default:
+        return next == DELETED ? DELETED : MODIFIED;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.darylteo.nio;
+
+/**
+ * Signalled to a {@link ChangeSubscriber} whose buffer has filled up while it
+ * had no outstanding demand. The subscription is cancelled, and the events
+ * that did not fit are lost, so the subscriber may need to rescan the tree
+ * before subscribing again.
+ */
+public class ChangeOverflowException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final int bufferSize;
+
+  ChangeOverflowException(int bufferSize) {
+    super("More than " + bufferSize + " events were buffered without demand");
+    this.bufferSize = bufferSize;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+}
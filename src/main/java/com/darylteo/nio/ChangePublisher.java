@@ -0,0 +1,225 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>
+ * Publishes the events of a {@link DirectoryWatcher} to subscribers that
+ * signal demand, in the manner of Reactive Streams.
+ * </p>
+ * <p>
+ * While a subscriber has no outstanding demand, events are buffered for it,
+ * up to the buffer size given to {@link DirectoryWatcher#newPublisher}. When
+ * coalescing, the buffer holds at most one event per path, combining
+ * successive events the way {@link DirectorySettledSubscriber} does. The
+ * thread delivering events never waits for a subscriber: an event that does
+ * not fit in a full buffer cancels the subscription, which is signalled with
+ * a {@link ChangeOverflowException} ahead of any events still buffered.
+ * </p>
+ */
+public final class ChangePublisher {
+  private final DirectoryWatcher watcher;
+  private final int bufferSize;
+  private final boolean coalesce;
+
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  ChangePublisher(DirectoryWatcher watcher, int bufferSize, boolean coalesce) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize must be at least 1");
+    }
+
+    this.watcher = watcher;
+    this.bufferSize = bufferSize;
+    this.coalesce = coalesce;
+  }
+
+  public void subscribe(ChangeSubscriber subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+
+    Subscription subscription = new Subscription(subscriber);
+    subscriber.onSubscribe(subscription);
+
+    if (!subscription.cancelled) {
+      subscriptions.add(subscription);
+      watcher.subscribe(subscription);
+    }
+  }
+
+  void complete() {
+    for (Subscription subscription : subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  private class Subscription extends DirectoryWatcherSubscriber implements ChangeSubscription {
+    private final ChangeSubscriber subscriber;
+
+    /* Only one of these is used, depending on coalesce */
+    private final ArrayDeque<ChangeEvent> queue = new ArrayDeque<>();
+    private final Map<Path, ChangeEvent> pending = new LinkedHashMap<>();
+
+    private long demand = 0;
+    private boolean emitting = false;
+    private boolean overflowed = false;
+    private volatile boolean cancelled = false;
+
+    Subscription(ChangeSubscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        cancel();
+        subscriber.onError(new IllegalArgumentException("request must be positive, was " + n));
+        return;
+      }
+
+      synchronized (this) {
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+      }
+
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+
+        cancelled = true;
+        queue.clear();
+        pending.clear();
+      }
+
+      subscriptions.remove(this);
+      watcher.unsubscribe(this);
+    }
+
+    @Override
+    public void eventReceived(ChangeEvent event) {
+      boolean overflow;
+
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+
+        overflow = size() >= bufferSize && !(coalesce && pending.containsKey(event.getPath()));
+        if (overflow) {
+          // the error is signalled by whichever thread is emitting
+          overflowed = true;
+          cancelled = true;
+          queue.clear();
+          pending.clear();
+        } else if (coalesce) {
+          merge(event);
+        } else {
+          queue.add(event);
+        }
+      }
+
+      if (overflow) {
+        subscriptions.remove(this);
+        watcher.unsubscribe(this);
+      }
+
+      drain();
+    }
+
+    private void merge(ChangeEvent event) {
+      ChangeEvent previous = pending.remove(event.getPath());
+      if (previous == null) {
+        pending.put(event.getPath(), event);
+        return;
+      }
+
+      ChangeKind kind = ChangeKind.merge(previous.getKind(), event.getKind());
+      if (kind != null) {
+        // an initial entry that is only modified afterwards is still initial
+        boolean initial = previous.isInitial() && kind == ChangeKind.CREATED;
+        pending.put(event.getPath(), new ChangeEvent(event.getWatcher(), kind, event.getPath(), event.getSequence(), null, initial));
+      }
+    }
+
+    private int size() {
+      return coalesce ? pending.size() : queue.size();
+    }
+
+    private ChangeEvent poll() {
+      if (!coalesce) {
+        return queue.poll();
+      }
+
+      Path first = pending.keySet().iterator().next();
+      return pending.remove(first);
+    }
+
+    /* Only one thread emits at a time; others leave their events to it */
+    private void drain() {
+      synchronized (this) {
+        if (emitting) {
+          return;
+        }
+        emitting = true;
+      }
+
+      while (true) {
+        ChangeEvent next;
+
+        synchronized (this) {
+          if (overflowed) {
+            overflowed = false;
+            emitting = false;
+            next = null;
+          } else if (cancelled || demand == 0 || size() == 0) {
+            emitting = false;
+            return;
+          } else {
+            next = poll();
+            if (demand != Long.MAX_VALUE) {
+              demand--;
+            }
+          }
+        }
+
+        if (next == null) {
+          subscriber.onError(new ChangeOverflowException(bufferSize));
+          return;
+        }
+
+        try {
+          subscriber.onNext(next);
+        } catch (RuntimeException e) {
+          synchronized (this) {
+            emitting = false;
+          }
+          cancel();
+          return;
+        }
+      }
+    }
+
+    private void complete() {
+      boolean active;
+      synchronized (this) {
+        active = !cancelled;
+        cancelled = true;
+      }
+
+      if (active) {
+        subscriber.onComplete();
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of the distinct entries that were created, modified and
+ * deleted over a period of time. Each entry appears in at most one of the
+ * three sets, according to its net change over that period.
+ *
+ * @see DirectorySettledSubscriber
+ */
+public final class ChangeSet {
+  private final Set<Path> created;
+  private final Set<Path> modified;
+  private final Set<Path> deleted;
+
+  ChangeSet(Map<Path, ChangeKind> changes) {
+    Set<Path> created = new LinkedHashSet<>();
+    Set<Path> modified = new LinkedHashSet<>();
+    Set<Path> deleted = new LinkedHashSet<>();
+
+    for (Map.Entry<Path, ChangeKind> entry : changes.entrySet()) {
+      switch (entry.getValue()) {
+        case CREATED:
+          created.add(entry.getKey());
+          break;
+        case MODIFIED:
+          modified.add(entry.getKey());
+          break;
+        case DELETED:
+          deleted.add(entry.getKey());
+          break;
+      }
+    }
+
+    this.created = Collections.unmodifiableSet(created);
+    this.modified = Collections.unmodifiableSet(modified);
+    this.deleted = Collections.unmodifiableSet(deleted);
+  }
+
+  /**
+   * @return entries that did not exist before this change set.
+   */
+  public Set<Path> getCreated() {
+    return this.created;
+  }
+
+  /**
+   * @return entries that existed before and after this change set, but changed.
+   */
+  public Set<Path> getModified() {
+    return this.modified;
+  }
+
+  /**
+   * @return entries that existed before this change set, but no longer exist.
+   */
+  public Set<Path> getDeleted() {
+    return this.deleted;
+  }
+
+  /**
+   * @return the total number of distinct entries in this change set.
+   */
+  public int size() {
+    return created.size() + modified.size() + deleted.size();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "ChangeSet[created=" + created + ", modified=" + modified + ", deleted=" + deleted + "]";
+  }
+}
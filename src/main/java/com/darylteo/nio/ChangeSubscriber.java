@@ -0,0 +1,23 @@
+package com.darylteo.nio;
+
+/**
+ * Receives events from a {@link ChangePublisher}, but only as many as it has
+ * requested through its {@link ChangeSubscription}. Mirrors the Subscriber
+ * of Reactive Streams, so adapting to such a library is a matter of
+ * forwarding each method.
+ */
+public interface ChangeSubscriber {
+  /**
+   * Called once, before any other method.
+   */
+  public void onSubscribe(ChangeSubscription subscription);
+
+  public void onNext(ChangeEvent event);
+
+  public void onError(Throwable error);
+
+  /**
+   * Called when the DirectoryWatchService is closed.
+   */
+  public void onComplete();
+}
@@ -0,0 +1,22 @@
+package com.darylteo.nio;
+
+/**
+ * The link between a {@link ChangePublisher} and a {@link ChangeSubscriber},
+ * used by the subscriber to signal demand. Mirrors the Subscription of
+ * Reactive Streams.
+ */
+public interface ChangeSubscription {
+  /**
+   * Allows up to n further events to be delivered to
+   * {@link ChangeSubscriber#onNext}. Demand is cumulative; a request of
+   * Long.MAX_VALUE means unbounded.
+   *
+   * @param n the number of events, which must be positive
+   */
+  public void request(long n);
+
+  /**
+   * Stops delivery of events and discards any that are buffered.
+   */
+  public void cancel();
+}
@@ -0,0 +1,198 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Remembers the size, modification time and a hash of the content of the
+ * files of a DirectoryWatcher, to recognise modifications that leave the
+ * content unchanged.
+ * </p>
+ * <p>
+ * A change in size is always a modification. Where size and modification
+ * time are both unchanged, so is the content, unless the file was recorded
+ * within a moment of its modification time, in which case a later write in
+ * the same clock tick could have gone unnoticed. Otherwise, the content is
+ * hashed and compared against the recorded hash. Files are only hashed when
+ * their size and modification time cannot decide, so the first such
+ * modification of a file is passed on, and records the hash that later ones
+ * are compared against.
+ * </p>
+ * <p>
+ * The least recently used files are evicted once the capacity is reached.
+ * </p>
+ */
+final class ContentFingerprints {
+  /* Modification times closer than this to the time of recording are not trusted */
+  private static final long RACY_WINDOW = 2000;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /* Reused by each thread that hashes files */
+  private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+  };
+
+  private final Map<Path, Fingerprint> fingerprints;
+  private long suppressed = 0;
+
+  ContentFingerprints(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+
+    this.fingerprints = new LinkedHashMap<Path, Fingerprint>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, Fingerprint> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  synchronized long getSuppressedCount() {
+    return suppressed;
+  }
+
+  /**
+   * Records the state of a file that has been created.
+   */
+  void created(Path file, BasicFileAttributes attrs) {
+    if (attrs.isRegularFile()) {
+      record(file, attrs, null);
+    }
+  }
+
+  /**
+   * Records the state of a file that has been modified.
+   *
+   * @return whether the content of the file is unchanged, in which case the
+   * modification should not be reported
+   */
+  boolean unchanged(Path file, BasicFileAttributes attrs) {
+    if (!attrs.isRegularFile()) {
+      return false;
+    }
+
+    Fingerprint previous;
+    synchronized (this) {
+      previous = fingerprints.get(file);
+    }
+
+    long lastModified = attrs.lastModifiedTime().toMillis();
+
+    if (previous == null || previous.size != attrs.size()) {
+      record(file, attrs, null);
+      return false;
+    }
+
+    if (previous.lastModified == lastModified && !previous.isRacy()) {
+      return suppress();
+    }
+
+    Long hash = hash(file);
+    record(file, attrs, hash);
+
+    if (hash != null && hash.equals(previous.hash)) {
+      return suppress();
+    }
+
+    return false;
+  }
+
+  synchronized void forget(Path file) {
+    fingerprints.remove(file);
+  }
+
+  private synchronized boolean suppress() {
+    suppressed++;
+    return true;
+  }
+
+  private void record(Path file, BasicFileAttributes attrs, Long hash) {
+    Fingerprint fingerprint = new Fingerprint(attrs.size(), attrs.lastModifiedTime().toMillis(), hash);
+    synchronized (this) {
+      fingerprints.put(file, fingerprint);
+    }
+  }
+
+  /* Hashing */
+
+  /**
+   * @return a 64 bit hash of the content of the file, or null if it could not
+   * be read. A file truncated while it is read hashes whatever was read.
+   */
+  static Long hash(Path file) {
+    ByteBuffer buffer = BUFFERS.get();
+    buffer.clear();
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long h = channel.size() * 0x9E3779B97F4A7C15L;
+
+      // bytes short of a full long are carried over to the next read
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        while (buffer.remaining() >= 8) {
+          h = mix(h, buffer.getLong());
+        }
+        buffer.compact();
+      }
+
+      buffer.flip();
+      if (buffer.hasRemaining()) {
+        long last = 0;
+        for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+          last |= (buffer.get() & 0xFFL) << shift;
+        }
+        h = mix(h, last);
+      }
+
+      // final avalanche, as in MurmurHash3
+      h ^= h >>> 33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      h *= 0xC4CEB9FE1A85EC53L;
+      h ^= h >>> 33;
+
+      return h;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static long mix(long h, long k) {
+    k *= 0x87C37B91114253D5L;
+    k = Long.rotateLeft(k, 31);
+    k *= 0x4CF5AD432745937FL;
+
+    h ^= k;
+    return Long.rotateLeft(h, 27) * 5 + 0x52DCE729;
+  }
+
+  private static class Fingerprint {
+    private final long size;
+    private final long lastModified;
+    private final Long hash;
+    private final long recorded = System.currentTimeMillis();
+
+    Fingerprint(long size, long lastModified, Long hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+
+    boolean isRacy() {
+      return lastModified > recorded - RACY_WINDOW;
+    }
+  }
+}
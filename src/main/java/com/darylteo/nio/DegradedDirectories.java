@@ -0,0 +1,204 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * <p>
+ * Directories of a DirectoryWatcher that could not be given a native watch.
+ * Each one is listed periodically and compared against its previous listing,
+ * with the differences passed on to the DirectoryWatcher as if they had been
+ * reported by the WatchService.
+ * </p>
+ * <p>
+ * Only the immediate children of a degraded directory are listed. Its
+ * subdirectories are either watched or degraded in their own right.
+ * </p>
+ */
+final class DegradedDirectories {
+  private final DirectoryWatcher watcher;
+
+  private final Map<Path, DirectorySnapshot> snapshots = new HashMap<>();
+  private final Map<Path, Integer> heat = new HashMap<>();
+  private long lastScan = System.nanoTime();
+
+  DegradedDirectories(DirectoryWatcher watcher) {
+    this.watcher = watcher;
+  }
+
+  void add(Path dir) {
+    DirectorySnapshot listing = list(dir);
+
+    synchronized (this) {
+      snapshots.put(dir, listing);
+      heat.put(dir, 0);
+    }
+  }
+
+  synchronized boolean contains(Path dir) {
+    return snapshots.containsKey(dir);
+  }
+
+  synchronized DirectorySnapshot remove(Path dir) {
+    heat.remove(dir);
+    return snapshots.remove(dir);
+  }
+
+  synchronized int getHeat(Path dir) {
+    Integer h = heat.get(dir);
+    return h == null ? 0 : h;
+  }
+
+  synchronized Set<Path> getPaths() {
+    return new HashSet<>(snapshots.keySet());
+  }
+
+  /**
+   * @return the degraded directories in the order they should be promoted to a
+   * native watch.
+   */
+  synchronized List<Path> candidates(WatchPriority priority) {
+    List<Path> candidates = new ArrayList<>();
+
+    if (priority == WatchPriority.HOTTEST_FIRST) {
+      for (Map.Entry<Path, Integer> entry : heat.entrySet()) {
+        if (entry.getValue() > 0) {
+          candidates.add(entry.getKey());
+        }
+      }
+
+      Collections.sort(candidates, new Comparator<Path>() {
+        @Override
+        public int compare(Path a, Path b) {
+          return heat.get(b) - heat.get(a);
+        }
+      });
+    } else {
+      candidates.addAll(snapshots.keySet());
+
+      Collections.sort(candidates, new Comparator<Path>() {
+        @Override
+        public int compare(Path a, Path b) {
+          return a.getNameCount() - b.getNameCount();
+        }
+      });
+    }
+
+    return candidates;
+  }
+
+  /**
+   * Lists every degraded directory and reports its changes, if at least an
+   * interval has passed since the last scan. Directories are listed, and
+   * changes reported, without holding the lock.
+   *
+   * @return true if a scan was performed
+   */
+  boolean scan(long now, long interval) {
+    Map<Path, DirectorySnapshot> listings;
+
+    synchronized (this) {
+      if (snapshots.isEmpty() || now - lastScan < interval) {
+        return false;
+      }
+
+      lastScan = now;
+      listings = new HashMap<>(snapshots);
+    }
+
+    List<Change> changes = new ArrayList<>();
+
+    for (Map.Entry<Path, DirectorySnapshot> listing : listings.entrySet()) {
+      Path dir = listing.getKey();
+      DirectorySnapshot before = listing.getValue();
+      DirectorySnapshot after = Files.isDirectory(dir) ? list(dir) : null;
+
+      synchronized (this) {
+        // promoted or removed while it was listed
+        if (snapshots.get(dir) != before) {
+          continue;
+        }
+
+        if (after == null) {
+          // the deletion itself is reported by the parent directory
+          remove(dir);
+          continue;
+        }
+
+        int found = changes.size();
+        diff(before, after, changes);
+
+        snapshots.put(dir, after);
+        heat.put(dir, heat.get(dir) / 2 + changes.size() - found);
+      }
+    }
+
+    report(changes);
+    return true;
+  }
+
+  /**
+   * Reports the changes between a previous listing of a directory and its
+   * current contents.
+   */
+  void catchUp(Path dir, DirectorySnapshot before) {
+    List<Change> changes = new ArrayList<>();
+    diff(before, list(dir), changes);
+    report(changes);
+  }
+
+  private static void diff(DirectorySnapshot before, DirectorySnapshot after, final List<Change> changes) {
+    before.diff(after, new DirectorySnapshot.Listener() {
+      @Override
+      public void entryCreated(Path path, DirectorySnapshot.Entry entry) {
+        changes.add(new Change(ChangeKind.CREATED, path));
+      }
+
+      @Override
+      public void entryModified(Path path, DirectorySnapshot.Entry entry) {
+        changes.add(new Change(ChangeKind.MODIFIED, path));
+      }
+
+      @Override
+      public void entryDeleted(Path path, DirectorySnapshot.Entry entry) {
+        changes.add(new Change(ChangeKind.DELETED, path));
+      }
+    });
+  }
+
+  private void report(List<Change> changes) {
+    for (Change change : changes) {
+      switch (change.kind) {
+        case CREATED:
+          watcher.created(change.path);
+          break;
+        case MODIFIED:
+          watcher.entryModified(change.path);
+          break;
+        case DELETED:
+          watcher.entryDeleted(change.path);
+          break;
+      }
+    }
+  }
+
+  private static DirectorySnapshot list(Path dir) {
+    try {
+      return DirectorySnapshot.scan(dir, 1);
+    } catch (IOException e) {
+      return DirectorySnapshot.empty(dir);
+    }
+  }
+
+  private static class Change {
+    private final ChangeKind kind;
+    private final Path path;
+
+    Change(ChangeKind kind, Path path) {
+      this.kind = kind;
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A tree of the entries of a DirectoryWatcher, in which every directory holds
+ * a digest of everything below it, and the version at which anything below
+ * it last changed. Both are updated incrementally along the path of each
+ * change, so questions about a whole subtree are answered from a single node
+ * rather than by walking it.
+ * </p>
+ * <p>
+ * The digest of a directory combines the digests of its children with XOR,
+ * each mixed with the name of the child. A change to an entry is applied to
+ * each of its ancestors by removing its previous contribution and adding its
+ * new one, which costs one step per level.
+ * </p>
+ * <p>
+ * The digest of a file is made from its size and modification time, so its
+ * content is never read.
+ * </p>
+ */
+final class DirectoryDigests {
+  private static final long DIRECTORY = 0x6A09E667F3BCC908L;
+
+  private final Node root = new Node("", DIRECTORY, 0);
+  private long version = 0;
+
+  synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Records the current state of an entry, creating any missing ancestors.
+   *
+   * @param relative the path of the entry, relative to the watcher
+   */
+  synchronized void put(Path relative, DirectorySnapshot.Entry entry) {
+    if (relative.toString().isEmpty()) {
+      return;
+    }
+
+    long own = entry.isDirectory() ? DIRECTORY : hash(entry);
+    List<Node> chain = new ArrayList<>();
+    chain.add(root);
+    version++;
+
+    Node node = root;
+    int count = relative.getNameCount();
+
+    for (int i = 0; i < count; i++) {
+      String name = relative.getName(i).toString();
+      Node child = node.children.get(name);
+
+      if (child == null) {
+        child = new Node(name, i == count - 1 ? own : DIRECTORY, version);
+        node.children.put(name, child);
+        chain.add(child);
+        propagate(chain, 0, child.contribution());
+      } else if (i == count - 1) {
+        if (child.own == own) {
+          // nothing below has changed, so the digests are unaffected
+          return;
+        }
+
+        long before = child.contribution();
+        child.digest ^= child.own ^ own;
+        child.own = own;
+        child.version = version;
+        chain.add(child);
+        propagate(chain, before, child.contribution());
+      } else {
+        chain.add(child);
+      }
+
+      node = child;
+    }
+  }
+
+  /**
+   * Removes an entry and everything below it.
+   */
+  synchronized void remove(Path relative) {
+    List<Node> chain = find(relative);
+    if (chain == null || chain.size() == 1) {
+      return;
+    }
+
+    version++;
+
+    Node node = chain.get(chain.size() - 1);
+    chain.get(chain.size() - 2).children.remove(node.name);
+    propagate(chain, node.contribution(), 0);
+  }
+
+  /**
+   * @return whether anything under the subtree has changed after the given
+   * version. A subtree that no longer exists is answered for its nearest
+   * remaining ancestor.
+   */
+  synchronized boolean changedSince(Path relative, long since) {
+    return nearest(relative).version > since;
+  }
+
+  /**
+   * @return the digest of the subtree, or 0 if it does not exist
+   */
+  synchronized long digest(Path relative) {
+    List<Node> chain = find(relative);
+    return chain == null ? 0 : chain.get(chain.size() - 1).digest;
+  }
+
+  /**
+   * Compares two trees, descending only into subtrees whose digests differ.
+   *
+   * @return the relative paths of the entries that differ, including those
+   * present in only one of the trees. Where a directory is missing from one
+   * of the trees, only the directory itself is reported.
+   */
+  List<Path> diff(DirectoryDigests other) {
+    List<Path> differences = new ArrayList<>();
+
+    // lock in a consistent order, as the other tree may be diffed against this one
+    DirectoryDigests first = System.identityHashCode(this) <= System.identityHashCode(other) ? this : other;
+    DirectoryDigests second = first == this ? other : this;
+
+    synchronized (first) {
+      synchronized (second) {
+        diff(root, other.root, Paths.get(""), differences);
+      }
+    }
+
+    return differences;
+  }
+
+  private static void diff(Node a, Node b, Path path, List<Path> differences) {
+    if (a.digest == b.digest) {
+      return;
+    }
+
+    if (a.own != b.own) {
+      differences.add(path);
+      if (a.own != DIRECTORY || b.own != DIRECTORY) {
+        return;
+      }
+    }
+
+    for (Node child : a.children.values()) {
+      Node match = b.children.get(child.name);
+      if (match == null) {
+        differences.add(path.resolve(child.name));
+      } else {
+        diff(child, match, path.resolve(child.name), differences);
+      }
+    }
+
+    for (Node child : b.children.values()) {
+      if (!a.children.containsKey(child.name)) {
+        differences.add(path.resolve(child.name));
+      }
+    }
+  }
+
+  /* The last node of the chain has changed its contribution to its parent */
+  private void propagate(List<Node> chain, long before, long after) {
+    for (int i = chain.size() - 2; i >= 0; i--) {
+      Node parent = chain.get(i);
+      long previous = parent.contribution();
+
+      parent.digest ^= before ^ after;
+      parent.version = version;
+
+      before = previous;
+      after = parent.contribution();
+    }
+  }
+
+  private List<Node> find(Path relative) {
+    List<Node> chain = new ArrayList<>();
+    chain.add(root);
+
+    Node node = root;
+    for (Path name : relative) {
+      if (name.toString().isEmpty()) {
+        continue;
+      }
+
+      node = node.children.get(name.toString());
+      if (node == null) {
+        return null;
+      }
+      chain.add(node);
+    }
+
+    return chain;
+  }
+
+  private Node nearest(Path relative) {
+    Node node = root;
+
+    for (Path name : relative) {
+      Node child = node.children.get(name.toString());
+      if (child == null) {
+        break;
+      }
+      node = child;
+    }
+
+    return node;
+  }
+
+  /* Hashing */
+  private static long hash(DirectorySnapshot.Entry entry) {
+    // the file key is left out, so that copies of a tree can be compared
+    long h = mix(entry.getSize() * 0x9E3779B97F4A7C15L + entry.getLastModified());
+
+    // never collides with the marker of a directory
+    return h == DIRECTORY ? h + 1 : h;
+  }
+
+  private static long hash(String name) {
+    // 64 bit FNV-1a
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      h ^= name.charAt(i);
+      h *= 0x100000001B3L;
+    }
+
+    return h;
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  private static class Node {
+    private final String name;
+    private final long nameHash;
+    private final Map<String, Node> children = new HashMap<>();
+
+    /* The hash of the entry itself, and of the entry along with everything below it */
+    private long own;
+    private long digest;
+    private long version;
+
+    Node(String name, long own, long version) {
+      this.name = name;
+      this.nameHash = hash(name);
+      this.own = own;
+      this.digest = own;
+      this.version = version;
+    }
+
+    long contribution() {
+      return mix(nameHash + digest * 0x9E3779B97F4A7C15L);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.darylteo.nio;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Remembers, for each directory, which of the path filters of a watcher can
+ * still match entries directly within it. Entries in directories that are
+ * wholly included or excluded are then decided without any matching at all,
+ * and otherwise only the remaining filters are checked. Filters whose
+ * directory part has been matched against the directory only match the
+ * name of each entry.
+ * </p>
+ * <p>
+ * The cache must be invalidated whenever a filter is added.
+ * </p>
+ */
+final class DirectoryFilterCache {
+  /* Bounds the cache for paths outside of registered directories */
+  private static final int MAX_SIZE = 10000;
+
+  private final FilterMatcher includes;
+  private final FilterMatcher excludes;
+  private final String separator;
+
+  private volatile ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  DirectoryFilterCache(FilterMatcher includes, FilterMatcher excludes, String separator) {
+    this.includes = includes;
+    this.excludes = excludes;
+    this.separator = separator;
+  }
+
+  /**
+   * @param path the path of an entry, relative to the watcher
+   * @return whether the entry is included, and not excluded
+   */
+  boolean matches(String path) {
+    int index = path.lastIndexOf(separator);
+    String directory = index < 0 ? "" : path.substring(0, index);
+    String name = index < 0 ? path : path.substring(index + separator.length());
+
+    return get(directory).matches(path, name);
+  }
+
+  void invalidate() {
+    entries = new ConcurrentHashMap<>();
+  }
+
+  void forget(String directory) {
+    entries.remove(directory);
+  }
+
+  private Entry get(String directory) {
+    ConcurrentHashMap<String, Entry> entries = this.entries;
+
+    Entry entry = entries.get(directory);
+    if (entry == null) {
+      entry = new Entry(
+          includes.isEmpty() ? null : includes.decide(directory),
+          excludes.isEmpty() ? null : excludes.decide(directory)
+      );
+
+      if (entries.size() >= MAX_SIZE) {
+        entries.clear();
+      }
+      entries.put(directory, entry);
+    }
+
+    return entry;
+  }
+
+  private static class Entry {
+    /* null if there are no such filters */
+    private final FilterMatcher.Decision include;
+    private final FilterMatcher.Decision exclude;
+
+    Entry(FilterMatcher.Decision include, FilterMatcher.Decision exclude) {
+      this.include = include;
+      this.exclude = exclude;
+    }
+
+    boolean matches(String path, String name) {
+      return (include == null || include.matches(path, name)) && (exclude == null || !exclude.matches(path, name));
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A subclass of {@link DirectoryWatcherSubscriber} for responding to bursts of
+ * activity once they are over, instead of to every individual event.
+ * </p>
+ * <p>
+ * Events are collected into a settle window which is triggered when no events
+ * have been received for the quiet period, or when the maximum latency has
+ * elapsed since the first event of the window, whichever comes first. The
+ * subscriber is then notified once with the distinct entries that were
+ * created, modified and deleted during the window.
+ * </p>
+ * <pre>
+ * watcher.subscribe(new DirectorySettledSubscriber(500, 5000, TimeUnit.MILLISECONDS) {
+ *   public void changesSettled(DirectoryWatcher watcher, ChangeSet changes) {
+ *     // ...
+ *   }
+ * });
+ * </pre>
+ * <p>
+ * Notifications are delivered from the thread of the provided
+ * {@link ScheduledExecutorService}, or from a shared daemon thread if none is
+ * provided. Windows are kept separately for each DirectoryWatcher this
+ * subscriber is subscribed to.
+ * </p>
+ */
+public abstract class DirectorySettledSubscriber extends DirectoryWatcherSubscriber {
+  private static ScheduledExecutorService defaultScheduler;
+
+  private final long quietPeriod;
+  private final long maxLatency;
+  private final ScheduledExecutorService scheduler;
+
+  private final Map<DirectoryWatcher, Window> windows = new HashMap<>();
+
+  /**
+   * @param quietPeriod the time without events after which a window is triggered
+   * @param maxLatency  the maximum time a window is held open after its first event
+   * @param unit        the unit of quietPeriod and maxLatency
+   */
+  public DirectorySettledSubscriber(long quietPeriod, long maxLatency, TimeUnit unit) {
+    this(quietPeriod, maxLatency, unit, getDefaultScheduler());
+  }
+
+  /**
+   * @param quietPeriod the time without events after which a window is triggered
+   * @param maxLatency  the maximum time a window is held open after its first event
+   * @param unit        the unit of quietPeriod and maxLatency
+   * @param scheduler   the executor used to time windows and deliver notifications
+   */
+  public DirectorySettledSubscriber(long quietPeriod, long maxLatency, TimeUnit unit, ScheduledExecutorService scheduler) {
+    if (quietPeriod <= 0 || maxLatency < quietPeriod) {
+      throw new IllegalArgumentException("quietPeriod must be positive and no greater than maxLatency");
+    }
+
+    this.quietPeriod = unit.toNanos(quietPeriod);
+    this.maxLatency = unit.toNanos(maxLatency);
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Called once a settle window has been triggered.
+   *
+   * @param watcher the source of the events
+   * @param changes the net changes received during the window
+   */
+  public abstract void changesSettled(DirectoryWatcher watcher, ChangeSet changes);
+
+  @Override
+  public void entryCreated(DirectoryWatcher watcher, Path entry) {
+    record(watcher, entry, ChangeKind.CREATED);
+  }
+
+  @Override
+  public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+    record(watcher, entry, ChangeKind.DELETED);
+  }
+
+  @Override
+  public void entryModified(DirectoryWatcher watcher, Path entry) {
+    record(watcher, entry, ChangeKind.MODIFIED);
+  }
+
+  /**
+   * Triggers all open windows immediately, notifying this subscriber from the
+   * calling thread.
+   */
+  public void flush() {
+    Window[] open;
+    synchronized (this) {
+      open = windows.values().toArray(new Window[windows.size()]);
+    }
+
+    for (Window window : open) {
+      window.trigger(true);
+    }
+  }
+
+  private void record(DirectoryWatcher watcher, Path entry, ChangeKind kind) {
+    long now = System.nanoTime();
+
+    synchronized (this) {
+      Window window = windows.get(watcher);
+      if (window == null) {
+        window = new Window(watcher);
+        windows.put(watcher, window);
+      }
+
+      window.record(entry, kind, now);
+    }
+  }
+
+  private static synchronized ScheduledExecutorService getDefaultScheduler() {
+    if (defaultScheduler == null) {
+      defaultScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "directory-watcher-settle");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    return defaultScheduler;
+  }
+
+  /*
+   * Net changes for a single watcher. Recording an event is a single map update;
+   * rather than rescheduling on every event, one timer is kept pending and
+   * re-armed when it fires early.
+   */
+  private class Window implements Runnable {
+    private final DirectoryWatcher watcher;
+
+    private Map<Path, ChangeKind> changes = new LinkedHashMap<>();
+    private long first;
+    private long last;
+    private boolean scheduled = false;
+
+    Window(DirectoryWatcher watcher) {
+      this.watcher = watcher;
+    }
+
+    /* Guarded by the enclosing subscriber */
+    void record(Path entry, ChangeKind kind, long now) {
+      ChangeKind net = ChangeKind.merge(changes.get(entry), kind);
+      if (net == null) {
+        changes.remove(entry);
+      } else {
+        changes.put(entry, net);
+      }
+
+      if (!scheduled) {
+        first = now;
+        scheduled = true;
+        scheduler.schedule(this, quietPeriod, TimeUnit.NANOSECONDS);
+      }
+      last = now;
+    }
+
+    @Override
+    public void run() {
+      trigger(false);
+    }
+
+    void trigger(boolean force) {
+      Map<Path, ChangeKind> settled;
+
+      synchronized (DirectorySettledSubscriber.this) {
+        if (!scheduled) {
+          return;
+        }
+
+        if (!force) {
+          long now = System.nanoTime();
+          long due = Math.min(last + quietPeriod, first + maxLatency);
+          if (now - due < 0) {
+            scheduler.schedule(this, due - now, TimeUnit.NANOSECONDS);
+            return;
+          }
+        }
+
+        settled = changes;
+        changes = new LinkedHashMap<>();
+        scheduled = false;
+      }
+
+      if (!settled.isEmpty()) {
+        changesSettled(watcher, new ChangeSet(settled));
+      }
+    }
+  }
+}
@@ -0,0 +1,565 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * A point in time record of the entries under a directory, used to work out
+ * the net changes to a directory tree when individual events are not
+ * available.
+ * </p>
+ * <p>
+ * Snapshots can be saved to and loaded from a file. Entries are stored as a
+ * trie of path segments, so each directory name is only written once.
+ * </p>
+ * <p>
+ * A snapshot used as the index of a DirectoryWatcher is updated by every
+ * thread handling its events, so all access to the entries is guarded by
+ * the snapshot itself. Saving takes a copy under the lock, and writes it
+ * out after releasing it.
+ * </p>
+ */
+final class DirectorySnapshot {
+  /* File format */
+  private static final int MAGIC = 0x44575331;
+  private static final byte FLAG_DIRECTORY = 1;
+  private static final byte FLAG_FILE_KEY = 2;
+
+  /* Shared by every parallel scan; its threads are daemons */
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+
+  private final Path root;
+  private final NavigableMap<Path, Entry> entries;
+
+  private DirectorySnapshot(Path root, NavigableMap<Path, Entry> entries) {
+    this.root = root;
+    this.entries = entries;
+  }
+
+  /**
+   * Records every entry below the given directory. The directory itself is not
+   * included. Entries that cannot be read are skipped.
+   */
+  static DirectorySnapshot scan(final Path root) throws IOException {
+    return scan(root, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Records every entry below the given directory, up to maxDepth levels deep.
+   * A maxDepth of 1 records only the immediate children of the directory.
+   */
+  static DirectorySnapshot scan(final Path root, int maxDepth) throws IOException {
+    return scan(root, maxDepth, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Same as {@link #scan(Path, int)}, but stops once maxEntries have been
+   * recorded.
+   */
+  static DirectorySnapshot scan(final Path root, int maxDepth, final int maxEntries) throws IOException {
+    final NavigableMap<Path, Entry> entries = new TreeMap<>();
+
+    Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!dir.equals(root)) {
+          entries.put(dir, new Entry(attrs));
+        }
+        return entries.size() < maxEntries ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        entries.put(file, new Entry(attrs));
+        return entries.size() < maxEntries ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    return new DirectorySnapshot(root, entries);
+  }
+
+  /**
+   * Same as {@link #scan(Path, int)}, but lists directories in parallel.
+   */
+  static DirectorySnapshot scanParallel(Path root, int maxDepth) throws IOException {
+    if (!Files.isDirectory(root)) {
+      throw new NotDirectoryException(root.toString());
+    }
+
+    NavigableMap<Path, Entry> entries = new ConcurrentSkipListMap<>();
+    POOL.invoke(new ScanTask(root, maxDepth, entries));
+
+    return new DirectorySnapshot(root, entries);
+  }
+
+  /**
+   * An empty snapshot, for a directory that does not exist.
+   */
+  static DirectorySnapshot empty(Path root) {
+    return new DirectorySnapshot(root, new TreeMap<Path, Entry>());
+  }
+
+  Path getRoot() {
+    return this.root;
+  }
+
+  synchronized Entry get(Path path) {
+    return entries.get(path);
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return a copy of all entries in this snapshot, in path order.
+   */
+  synchronized SortedMap<Path, Entry> entries() {
+    return new TreeMap<>(entries);
+  }
+
+  /**
+   * @return all directories in this snapshot.
+   */
+  synchronized List<Path> directories() {
+    List<Path> dirs = new ArrayList<>();
+
+    for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+      if (entry.getValue().isDirectory()) {
+        dirs.add(entry.getKey());
+      }
+    }
+
+    return dirs;
+  }
+
+  /**
+   * Replaces everything under the given directory with the contents of
+   * another snapshot of that directory.
+   */
+  void merge(DirectorySnapshot other) {
+    Path dir = other.getRoot();
+    SortedMap<Path, Entry> merged = other.entries();
+
+    synchronized (this) {
+      Iterator<Path> it = entries.keySet().iterator();
+      while (it.hasNext()) {
+        Path path = it.next();
+        if (path.startsWith(dir) && !path.equals(dir)) {
+          it.remove();
+        }
+      }
+
+      for (Map.Entry<Path, Entry> entry : merged.entrySet()) {
+        if (entry.getKey().startsWith(dir) && !entry.getKey().equals(dir)) {
+          entries.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the current state of a single entry, or removes it and everything
+   * below it if it no longer exists.
+   */
+  void update(Path path) {
+    try {
+      update(path, Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+    } catch (IOException e) {
+      remove(path);
+    }
+  }
+
+  /**
+   * Same as {@link #update(Path)}, with attributes that have already been
+   * read. Null attributes mean the entry no longer exists.
+   */
+  synchronized void update(Path path, BasicFileAttributes attrs) {
+    if (attrs == null) {
+      remove(path);
+    } else {
+      entries.put(path, new Entry(attrs));
+    }
+  }
+
+  /**
+   * Removes an entry and everything below it.
+   */
+  synchronized void remove(Path path) {
+    entries.remove(path);
+
+    // descendants share the string prefix of their ancestor, so they sort
+    // together (along with siblings such as "dir-1", which are skipped)
+    String prefix = path.toString();
+    Iterator<Path> it = entries.tailMap(path, false).keySet().iterator();
+    while (it.hasNext()) {
+      Path next = it.next();
+      if (!next.toString().startsWith(prefix)) {
+        break;
+      }
+
+      if (next.startsWith(path)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Reports the differences between this snapshot and a later snapshot of the
+   * same directory. Deleted entries are reported children first, created
+   * entries parents first.
+   */
+  void diff(DirectorySnapshot after, Listener listener) {
+    SortedMap<Path, Entry> entries = entries();
+    SortedMap<Path, Entry> later = after.entries();
+    List<Path> deleted = new ArrayList<>();
+
+    for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+      Entry current = later.get(entry.getKey());
+
+      if (current == null) {
+        deleted.add(entry.getKey());
+      } else if (!current.equals(entry.getValue())) {
+        listener.entryModified(entry.getKey(), current);
+      }
+    }
+
+    Collections.reverse(deleted);
+    for (Path path : deleted) {
+      listener.entryDeleted(path, entries.get(path));
+    }
+
+    for (Map.Entry<Path, Entry> entry : later.entrySet()) {
+      if (!entries.containsKey(entry.getKey())) {
+        listener.entryCreated(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /* Persistence */
+
+  /**
+   * Writes this snapshot to a file. The file is written next to its
+   * destination and then moved into place, so a crash never leaves a partial
+   * snapshot behind.
+   */
+  void save(Path file) throws IOException {
+    Node trie = new Node(null);
+    for (Map.Entry<Path, Entry> entry : entries().entrySet()) {
+      Node node = trie;
+      for (Path name : root.relativize(entry.getKey())) {
+        node = node.child(name.toString());
+      }
+      node.entry = entry.getValue();
+    }
+
+    byte[] rootBytes = root.toString().getBytes(StandardCharsets.UTF_8);
+    long size = 4 + 4 + rootBytes.length + trie.childrenSize();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot too large: " + size + " bytes");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    buffer.putInt(MAGIC);
+    buffer.putInt(rootBytes.length);
+    buffer.put(rootBytes);
+    trie.writeChildren(buffer);
+    buffer.flip();
+
+    // written through a heap buffer: a file that is still mapped cannot be
+    // replaced on Windows
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a snapshot previously written by {@link #save}.
+   *
+   * @return the snapshot, or null if the file does not exist, is corrupt, or
+   * was saved for a different directory.
+   */
+  static DirectorySnapshot load(Path file, Path root) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          return null;
+        }
+      }
+      buffer.flip();
+
+      if (buffer.getInt() != MAGIC) {
+        return null;
+      }
+
+      int length = buffer.getInt();
+      if (length < 0 || length > buffer.remaining()) {
+        return null;
+      }
+
+      byte[] rootBytes = new byte[length];
+      buffer.get(rootBytes);
+      if (!root.toString().equals(new String(rootBytes, StandardCharsets.UTF_8))) {
+        return null;
+      }
+
+      NavigableMap<Path, Entry> entries = new TreeMap<>();
+      readChildren(buffer, root, entries);
+
+      return new DirectorySnapshot(root, entries);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static void readChildren(ByteBuffer buffer, Path parent, Map<Path, Entry> entries) {
+    int count = buffer.getInt();
+
+    for (int i = 0; i < count; i++) {
+      Path path = parent.resolve(readString(buffer));
+      byte flags = buffer.get();
+      long size = buffer.getLong();
+      long lastModified = buffer.getLong();
+      String fileKey = (flags & FLAG_FILE_KEY) != 0 ? readString(buffer) : null;
+      boolean directory = (flags & FLAG_DIRECTORY) != 0;
+
+      entries.put(path, new Entry(directory, size, lastModified, fileKey));
+
+      if (directory) {
+        readChildren(buffer, path, entries);
+      }
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /*
+   * A segment of the trie written to disk. Directories without an entry of
+   * their own (i.e. the root) only carry children.
+   */
+  private static class Node {
+    private final byte[] name;
+    private final Map<String, Node> children = new TreeMap<>();
+    private Entry entry;
+
+    Node(String name) {
+      this.name = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    Node child(String name) {
+      Node child = children.get(name);
+      if (child == null) {
+        child = new Node(name);
+        children.put(name, child);
+      }
+
+      return child;
+    }
+
+    long size() {
+      long size = 2 + name.length + 1 + 8 + 8;
+
+      if (entry.fileKey != null) {
+        size += 2 + entry.fileKey.getBytes(StandardCharsets.UTF_8).length;
+      }
+
+      if (entry.directory) {
+        size += childrenSize();
+      }
+
+      return size;
+    }
+
+    long childrenSize() {
+      long size = 4;
+      for (Node child : children.values()) {
+        if (child.entry != null) {
+          size += child.size();
+        }
+      }
+
+      return size;
+    }
+
+    void write(ByteBuffer buffer) {
+      byte flags = 0;
+      if (entry.directory) {
+        flags |= FLAG_DIRECTORY;
+      }
+      if (entry.fileKey != null) {
+        flags |= FLAG_FILE_KEY;
+      }
+
+      buffer.putShort((short) name.length);
+      buffer.put(name);
+      buffer.put(flags);
+      buffer.putLong(entry.size);
+      buffer.putLong(entry.lastModified);
+
+      if (entry.fileKey != null) {
+        byte[] key = entry.fileKey.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) key.length);
+        buffer.put(key);
+      }
+
+      if (entry.directory) {
+        writeChildren(buffer);
+      }
+    }
+
+    void writeChildren(ByteBuffer buffer) {
+      int count = 0;
+      for (Node child : children.values()) {
+        if (child.entry != null) {
+          count++;
+        }
+      }
+
+      buffer.putInt(count);
+      for (Node child : children.values()) {
+        if (child.entry != null) {
+          child.write(buffer);
+        }
+      }
+    }
+  }
+
+  /*
+   * Lists a single directory, forking a task for each subdirectory.
+   */
+  private static class ScanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final int depth;
+    private final Map<Path, Entry> entries;
+
+    ScanTask(Path dir, int depth, Map<Path, Entry> entries) {
+      this.dir = dir;
+      this.depth = depth;
+      this.entries = entries;
+    }
+
+    @Override
+    protected void compute() {
+      List<ScanTask> tasks = new ArrayList<>();
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path child : stream) {
+          BasicFileAttributes attrs;
+          try {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (IOException e) {
+            continue;
+          }
+
+          entries.put(child, new Entry(attrs));
+
+          if (attrs.isDirectory() && depth > 1) {
+            tasks.add(new ScanTask(child, depth - 1, entries));
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        // unreadable directories are recorded without their contents
+      }
+
+      invokeAll(tasks);
+    }
+  }
+
+  interface Listener {
+    void entryCreated(Path path, Entry entry);
+
+    void entryModified(Path path, Entry entry);
+
+    void entryDeleted(Path path, Entry entry);
+  }
+
+  static final class Entry {
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+
+    Entry(BasicFileAttributes attrs) {
+      this(attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+          attrs.fileKey() == null ? null : attrs.fileKey().toString());
+    }
+
+    Entry(boolean directory, long size, long lastModified, String fileKey) {
+      this.directory = directory;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+    }
+
+    boolean isDirectory() {
+      return this.directory;
+    }
+
+    long getSize() {
+      return this.size;
+    }
+
+    long getLastModified() {
+      return this.lastModified;
+    }
+
+    String getFileKey() {
+      return this.fileKey;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Entry)) {
+        return false;
+      }
+
+      Entry other = (Entry) obj;
+      return directory == other.directory
+          && size == other.size
+          && lastModified == other.lastModified
+          && (fileKey == null ? other.fileKey == null : fileKey.equals(other.fileKey));
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (size ^ lastModified ^ (lastModified >>> 32));
+    }
+  }
+}
@@ -27,4 +27,28 @@ public interface DirectoryWatchService {
    * @throws IOException
    */
   public DirectoryWatcher newWatcher(Path dir) throws IOException;
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for a single file.
+   * </p>
+   * 
+   * @param file
+   *          the file to watch for events.
+   * @return a DirectoryWatcher for this file
+   * @throws IOException
+   */
+  public DirectoryWatcher newFileWatcher(String file) throws IOException;
+
+  /**
+   * <p>
+   * Instantiates a new DirectoryWatcher for a single file.
+   * </p>
+   * 
+   * @param file
+   *          the file to watch for events.
+   * @return a DirectoryWatcher for this file
+   * @throws IOException
+   */
+  public DirectoryWatcher newFileWatcher(Path file) throws IOException;
 }
\ No newline at end of file
@@ -7,7 +7,9 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <h3>Reference</h3>
@@ -143,6 +145,117 @@ import java.util.regex.Pattern;
  * watcher.exclude(&quot;foo&quot;);
  * watcher.exclude(&quot;foo/**&quot;);
  * </pre>
+ * <p>
+ * Entries can also be filtered on their attributes with
+ * {@link AttributeFilter}s. These are evaluated after the path filters.
+ * </p>
+ * <pre>
+ * watcher.include(AttributeFilters.minSize(1));
+ * watcher.exclude(AttributeFilters.hidden());
+ * </pre>
+ * <h5>Event Storms</h5>
+ * <p>
+ * Mass operations such as deleting or unpacking large trees can produce far
+ * more events than are useful. With {@link DirectoryWatcher#setStormThreshold}
+ * configured, a directory that produces more events than the threshold within
+ * the interval has its subtree marked dirty. Events below it are then no
+ * longer handled individually; once the subtree has been quiet for a full
+ * interval, it is scanned once and subscribers are notified of the net
+ * changes only.
+ * </p>
+ * <h5>Watch Limits</h5>
+ * <p>
+ * Every directory in the tree takes up a native watch, and operating systems
+ * limit how many of these are available (e.g. fs.inotify.max_user_watches on
+ * Linux). Once the watch budget of the {@link AbstractDirectoryWatchService}
+ * or of the operating system runs out, further directories are degraded: they
+ * are listed periodically and compared against their previous listing
+ * instead. {@link DirectoryWatcher#getDegradedPaths} shows which directories
+ * are currently degraded.
+ * </p>
+ * <h5>Snapshots</h5>
+ * <p>
+ * A DirectoryWatcher created with a snapshot file keeps an index of the
+ * watched tree and saves it when the DirectoryWatchService is closed. On the
+ * next run, the tree is scanned in parallel and compared against the saved
+ * snapshot, and the changes made in the meantime are delivered as ordinary
+ * events once {@link DirectoryWatcher#start} is called.
+ * </p>
+ * <pre>
+ * DirectoryWatcher watcher = factory.newSnapshotWatcher(Paths.get(&quot;src&quot;), Paths.get(&quot;src.snapshot&quot;));
+ * watcher.subscribe(subscriber);
+ * watcher.start();
+ * </pre>
+ * <h5>Buffering</h5>
+ * <p>
+ * By default, subscribers are called on the thread that handles the event,
+ * so a slow subscriber delays the handling of further events and may cause
+ * the WatchService to overflow. With {@link DirectoryWatcher#enableBuffering}
+ * events are delivered from a dedicated thread instead. A bounded number of
+ * events are queued in memory, and any more are spilled to a file until the
+ * subscribers catch up.
+ * </p>
+ * <h5>Unchanged Content</h5>
+ * <p>
+ * Tools such as touch and rsync cause modification events for files whose
+ * content has not changed. With {@link DirectoryWatcher#enableFingerprints}
+ * the watcher remembers the size, modification time and a hash of each file,
+ * and drops modification events that leave the content as it was.
+ * </p>
+ * <h5>Digests</h5>
+ * <p>
+ * With {@link DirectoryWatcher#enableDigests} the watcher keeps a version and
+ * a digest for every subtree, so that questions such as whether anything
+ * under a directory has changed since a given version are answered without
+ * walking it.
+ * </p>
+ * <pre>
+ * long version = watcher.getVersion();
+ * // ...
+ * if (watcher.changedSince(Paths.get(&quot;config&quot;), version)) {
+ *   // ...
+ * }
+ * </pre>
+ * <h5>Journal</h5>
+ * <p>
+ * With {@link DirectoryWatcher#enableJournal} every event is given a sequence
+ * number and kept in a journal, optionally backed by a file. A subscriber
+ * that remembers the sequence number of the last event it processed can
+ * resubscribe from the next one, catching up on what it missed before
+ * receiving live events, without rescanning the tree.
+ * </p>
+ * <pre>
+ * watcher.subscribe(subscriber, lastSequence + 1);
+ * </pre>
+ * <h5>Initial Events</h5>
+ * <p>
+ * A DirectoryWatcher created with initial events reports every entry that
+ * already exists as a created event flagged with
+ * {@link ChangeEvent#isInitial}, followed by live events, so that
+ * subscribers see the current state of the tree and then its changes without
+ * walking it themselves. The tree is walked when {@link DirectoryWatcher#start}
+ * is called, registering each directory before it is listed, so that no
+ * entry is missed or reported twice. Initial events are delivered in
+ * batches through {@link DirectoryWatcherSubscriber#initialEventsReceived}.
+ * </p>
+ * <pre>
+ * DirectoryWatcher watcher = factory.newWatcher(Paths.get(&quot;src&quot;), true);
+ * watcher.subscribe(subscriber);
+ * watcher.start();
+ * </pre>
+ * <h5>Latency</h5>
+ * <p>
+ * With {@link DirectoryWatcher#enableLatencyTracking} the watcher measures
+ * how long events spend waiting for dispatch, being filtered, queued in the
+ * delivery buffer and handled by subscribers, keeping a histogram for each
+ * {@link LatencyStage}. Time spent by the operating system before the
+ * WatchKey is signalled cannot be observed.
+ * </p>
+ * <pre>
+ * watcher.enableLatencyTracking();
+ * // ...
+ * long p99 = watcher.getLatency(LatencyStage.TOTAL).getValueAtPercentile(99);
+ * </pre>
  * <h5>Tracking Deleted Entries</h5>
  * <p>
  * In order to make this library as performant as possible, there is no
@@ -156,214 +269,1285 @@ import java.util.regex.Pattern;
 public class DirectoryWatcher {
   /* Properties */
   private Path path;
+  private AbstractDirectoryWatchService service;
   private WatchService watcher;
 
-  /* Subscriptions */
-  private final List<DirectoryWatcherSubscriber> subscribers = new ArrayList<>();
+  /* Subscriptions */
+  private final List<DirectoryWatcherSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  /* Used to filter files */
+  private final FilterMatcher includes;
+  private final FilterMatcher excludes;
+  private final DirectoryFilterCache filterCache;
+  private final List<AttributeFilter> attributeIncludes = new CopyOnWriteArrayList<>();
+  private final List<AttributeFilter> attributeExcludes = new CopyOnWriteArrayList<>();
+
+  /* Used to determine watch status */
+  private final Set<WatchKey> keys = Collections.newSetFromMap(new ConcurrentHashMap<WatchKey, Boolean>());
+  private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+
+  /* Set the FilePath Separator */
+  private final String separator;
+
+  /* Used to collapse event storms */
+  private final StormDetector storms = new StormDetector(this);
+
+  /* Entries reported by walking new directories, whose own creation events are dropped */
+  private final WalkedEntries walked = new WalkedEntries();
+
+  /* Directories over the watch budget, and activity of those within it */
+  private final DegradedDirectories degraded = new DegradedDirectories(this);
+  private final WatchActivity activity = new WatchActivity();
+
+  /* Limits the watched tree */
+  private final int maxDepth;
+  private final String fileName;
+
+  /* Persistent index of the tree, and events held back until start() */
+  private final Path snapshotFile;
+  private volatile DirectorySnapshot index;
+  private volatile HeldEvents held;
+
+  /* Whether start() reports the existing tree as initial events */
+  private boolean initialScan;
+
+  /* Sequenced history of delivered events */
+  private volatile EventJournal journal;
+
+  /* Queue between event handling and subscribers */
+  private volatile SpillingEventBuffer buffer;
+
+  /* Demand driven subscriptions */
+  private final List<ChangePublisher> publishers = new CopyOnWriteArrayList<>();
+
+  /* Used to drop modifications that leave the content unchanged */
+  private volatile ContentFingerprints fingerprints;
+
+  /* Versions and digests of every subtree */
+  private volatile DirectoryDigests digests;
+
+  /* Paths and directories producing the most events */
+  private volatile HeavyHitters hotPaths;
+  private volatile HeavyHitters hotDirectories;
+
+  /* Time spent by events in each stage of delivery */
+  private volatile LatencyRecorder latency;
+
+  /* Constructors */
+  DirectoryWatcher(final AbstractDirectoryWatchService service, final Path path) throws IOException {
+    this(service, path, new WatcherOptions());
+  }
+
+  DirectoryWatcher(final AbstractDirectoryWatchService service, final Path path, final String separator) throws IOException {
+    this(service, path, new WatcherOptions().separator(separator));
+  }
+
+  DirectoryWatcher(final AbstractDirectoryWatchService service, final Path path, final WatcherOptions options) throws IOException {
+    this.path = path.toAbsolutePath();
+    this.service = service;
+    this.watcher = service.getWatchService();
+    this.maxDepth = options.maxDepth;
+    this.fileName = options.fileName == null ? null : options.fileName.toString();
+    this.separator = options.separator == null ? File.separator : options.separator;
+    this.includes = new FilterMatcher(this.separator);
+    this.excludes = new FilterMatcher(this.separator);
+    this.filterCache = new DirectoryFilterCache(includes, excludes, this.separator);
+    this.snapshotFile = options.snapshotFile == null ? null : options.snapshotFile.toAbsolutePath();
+
+    if (options.initialEvents) {
+      if (!Files.isDirectory(this.path)) {
+        throw new NotDirectoryException(this.path.toString());
+      }
+
+      // the tree is registered by the same walk that reports it, in start()
+      this.held = new HeldEvents(null);
+      this.initialScan = true;
+      return;
+    }
+
+    long start = System.nanoTime();
+
+    if (this.snapshotFile == null) {
+      registerTree(walk());
+      treeRegistered(start);
+      return;
+    }
+
+    // the parallel scan both finds the directories to register and provides
+    // the state to compare against the snapshot from the last run
+    DirectorySnapshot previous = DirectorySnapshot.load(this.snapshotFile, this.path);
+    DirectorySnapshot current = DirectorySnapshot.scanParallel(this.path, observableDepth(this.path));
+
+    List<Path> dirs = current.directories();
+    dirs.add(this.path);
+    registerTree(dirs);
+    treeRegistered(start);
+
+    if (previous != null) {
+      this.held = new HeldEvents(previous);
+      previous.diff(current, new SnapshotChanges());
+    } else {
+      // the index is updated as events are received, so a rescan needs a
+      // copy of the tree as it was before any of them
+      DirectorySnapshot baseline = DirectorySnapshot.empty(this.path);
+      baseline.merge(current);
+      this.held = new HeldEvents(baseline);
+    }
+
+    this.index = current;
+  }
+
+  /* Reports the differences between two snapshots as ordinary events */
+  private class SnapshotChanges implements DirectorySnapshot.Listener {
+    @Override
+    public void entryCreated(Path path, DirectorySnapshot.Entry entry) {
+      try {
+        DirectoryWatcher.this.entryCreated(path);
+      } catch (IOException e) {
+      }
+    }
+
+    @Override
+    public void entryModified(Path path, DirectorySnapshot.Entry entry) {
+      DirectoryWatcher.this.entryModified(path);
+    }
+
+    @Override
+    public void entryDeleted(Path path, DirectorySnapshot.Entry entry) {
+      DirectoryWatcher.this.entryDeleted(path);
+    }
+  }
+
+  private List<Path> walk() throws IOException {
+    final List<Path> dirs = new ArrayList<>();
+
+    Files.walkFileTree(path, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        dirs.add(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        // directories at maxDepth are not entered, but are still watched
+        if (attrs.isDirectory()) {
+          dirs.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    return dirs;
+  }
+
+  private void registerTree(List<Path> dirs) throws IOException {
+    // sort so that shallow directories are watched first if the watch budget
+    // runs out part way through
+    Collections.sort(dirs, new Comparator<Path>() {
+      @Override
+      public int compare(Path a, Path b) {
+        return a.getNameCount() - b.getNameCount();
+      }
+    });
+
+    for (Path dir : dirs) {
+      register(dir);
+    }
+  }
+
+  private void treeRegistered(long start) {
+    WatchServiceMonitor monitor = service.getMonitor();
+    if (monitor != null) {
+      monitor.treeRegistered(this, directories.size() + degraded.getPaths().size(), System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @return the base of the directory tree being watched.
+   */
+  public Path getPath() {
+    return this.path;
+  }
+
+  /**
+   * @return the number of directory levels below the base that are watched.
+   */
+  public int getMaxDepth() {
+    return this.maxDepth;
+  }
+
+  private int depth(Path entry) {
+    return entry.getNameCount() - this.path.getNameCount();
+  }
+
+  /**
+   * @return the walk depth below the given directory that covers every entry
+   * this watcher can observe.
+   */
+  private int observableDepth(Path dir) {
+    if (maxDepth == Integer.MAX_VALUE) {
+      return Integer.MAX_VALUE;
+    }
+
+    return Math.max(0, maxDepth + 1 - depth(dir));
+  }
+
+  DirectorySnapshot snapshot(Path dir) throws IOException {
+    return DirectorySnapshot.scan(dir, observableDepth(dir));
+  }
+
+  DirectorySnapshot snapshot(Path dir, int maxEntries) throws IOException {
+    return DirectorySnapshot.scan(dir, observableDepth(dir), maxEntries);
+  }
+
+  /* WatchService */
+  private void register(Path path) throws IOException {
+    path = path.toAbsolutePath();
+
+    if (depth(path) > maxDepth || directories.containsKey(path) || degraded.contains(path)) {
+      return;
+    }
+
+    if (!service.acquireWatch()) {
+      degraded.add(path);
+      return;
+    }
+
+    WatchKey key;
+    try {
+      key = path.register(
+          watcher,
+          new WatchEvent.Kind<?>[]{
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_DELETE,
+              StandardWatchEventKinds.ENTRY_MODIFY
+          },
+          new WatchEvent.Modifier[]{SensitivityWatchEventModifier.HIGH}
+      );
+    } catch (NoSuchFileException | NotDirectoryException | AccessDeniedException e) {
+      service.releaseWatch();
+      throw e;
+    } catch (IOException e) {
+      // the operating system will not give us any more watches (e.g. the
+      // inotify max_user_watches limit), so fall back to scanning
+      service.releaseWatch();
+      service.watchLimitReached();
+      degraded.add(path);
+      return;
+    }
+
+    keys.add(key);
+    directories.put(path, key);
+    service.keyAcquired(key);
+  }
+
+  void registerDirectory(Path dir) {
+    try {
+      register(dir);
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * @return true if no other watcher holds the key
+   */
+  private boolean deregister(WatchKey key) {
+    Path dir = (Path) key.watchable();
+    boolean last = false;
+
+    if (keys.remove(key)) {
+      directories.remove(dir);
+      service.releaseWatch();
+      last = service.keyReleased(key);
+    }
+
+    storms.forget(dir);
+    filterCache.forget(relativePath(dir).toString());
+    activity.forget(dir);
+
+    return last;
+  }
+
+  /**
+   * @return the directories that are scanned periodically for changes, because
+   * the watch budget of the DirectoryWatchService has been used up.
+   */
+  public Set<Path> getDegradedPaths() {
+    return degraded.getPaths();
+  }
+
+  /**
+   * @return the number of directories with a native watch.
+   */
+  public int getWatchCount() {
+    return directories.size();
+  }
+
+  private void promote(WatchPriority priority) {
+    for (Path dir : degraded.candidates(priority)) {
+      if (!service.hasWatchCapacity()
+          && (priority != WatchPriority.HOTTEST_FIRST || !demoteColderThan(degraded.getHeat(dir)))) {
+        return;
+      }
+
+      DirectorySnapshot before = degraded.remove(dir);
+      registerDirectory(dir);
+
+      if (!directories.containsKey(dir)) {
+        return;
+      }
+
+      // report anything that changed since the last scan
+      if (before != null) {
+        degraded.catchUp(dir, before);
+      }
+    }
+  }
+
+  private boolean demoteColderThan(int heat) {
+    Path coldest = activity.coldest(directories.keySet(), heat);
+    if (coldest == null) {
+      return false;
+    }
+
+    WatchKey key = directories.get(coldest);
+    if (key == null) {
+      return false;
+    }
+
+    // other watchers of the directory keep their watch
+    if (deregister(key)) {
+      key.cancel();
+    }
+    degraded.add(coldest);
+
+    return true;
+  }
+
+  private void recordActivity(WatchKey key, Path entry) {
+    Path dir = (Path) key.watchable();
+
+    HeavyHitters hotPaths = this.hotPaths;
+    HeavyHitters hotDirectories = this.hotDirectories;
+    if (hotPaths != null && hotDirectories != null) {
+      long now = System.nanoTime();
+      hotDirectories.hit(relativePath(dir), now);
+      hotPaths.hit(relativePath(entry), now);
+    }
+
+    if (service.getWatchPriority() != WatchPriority.HOTTEST_FIRST) {
+      return;
+    }
+
+    activity.record(dir);
+  }
+
+  /* Snapshots */
+
+  /**
+   * <p>
+   * Starts delivering events to subscribers. Only required for watchers
+   * created with a snapshot file, which hold back all events until then so
+   * that subscribers can be attached first. Changes made while the
+   * application was not running are delivered first, followed by any events
+   * received in the meantime.
+   * </p>
+   * <p>
+   * For watchers created to report initial events, this walks the tree on the
+   * calling thread, and returns once every existing entry has been
+   * delivered.
+   * </p>
+   * <p>
+   * At most HeldEvents.MAX_HELD events are held back. Should more arrive, they are all
+   * dropped, and the tree is rescanned when this is called to report the
+   * changes in their place.
+   * </p>
+   */
+  public void start() {
+    Set<Path> reported = Collections.emptySet();
+
+    synchronized (this) {
+      if (held == null) {
+        return;
+      }
+
+      if (initialScan) {
+        initialScan = false;
+      } else {
+        DirectorySnapshot baseline = held.getBaseline();
+        if (deliverHeld(reported)) {
+          rescanHeld(baseline);
+        }
+        return;
+      }
+    }
+
+    // live events are held back while the walk is in progress
+    long start = System.nanoTime();
+    long walkStarted = System.currentTimeMillis();
+    reported = new InitialScan(this, this.path, observableDepth(this.path)).run();
+    treeRegistered(start);
+
+    synchronized (this) {
+      if (deliverHeld(reported)) {
+        rescanInitial(reported, walkStarted);
+      }
+    }
+  }
+
+  /*
+   * Drops the live creation of an entry already reported as an initial event.
+   * Returns whether held events were dropped, and the tree must be rescanned.
+   */
+  private boolean deliverHeld(Set<Path> reported) {
+    for (HeldEvents.Event event : held.getEvents()) {
+      if (event.kind == ChangeKind.DELETED) {
+        reported.remove(event.entry);
+      } else if (event.kind == ChangeKind.CREATED && reported.remove(event.entry)) {
+        continue;
+      }
+
+      deliver(event.kind, event.entry, event.attrs);
+    }
+
+    boolean overflowed = held.isOverflowed();
+    held = null;
+    return overflowed;
+  }
+
+  /* Reports the changes since the snapshot subscribers know of, after held events were dropped */
+  private void rescanHeld(DirectorySnapshot baseline) {
+    DirectorySnapshot current;
+    try {
+      current = DirectorySnapshot.scanParallel(this.path, observableDepth(this.path));
+    } catch (IOException e) {
+      return;
+    }
+
+    baseline.diff(current, new SnapshotChanges());
+  }
+
+  /*
+   * Reports the changes since the initial walk, after held events were
+   * dropped. Entries modified after they were listed cannot be told apart
+   * from those modified just before, so any file modified since the walk
+   * began is reported, allowing for file systems with coarse timestamps.
+   */
+  private void rescanInitial(Set<Path> reported, long walkStarted) {
+    DirectorySnapshot current;
+    try {
+      current = DirectorySnapshot.scanParallel(this.path, observableDepth(this.path));
+    } catch (IOException e) {
+      return;
+    }
+
+    long since = walkStarted - TimeUnit.SECONDS.toMillis(2);
+    Set<Path> existing = new HashSet<>();
+
+    for (Map.Entry<Path, DirectorySnapshot.Entry> entry : current.entries().entrySet()) {
+      Path relative = relativePath(entry.getKey());
+      existing.add(relative);
+
+      if (!reported.contains(relative)) {
+        try {
+          entryCreated(entry.getKey());
+        } catch (IOException e) {
+        }
+      } else if (!entry.getValue().isDirectory() && entry.getValue().getLastModified() >= since) {
+        entryModified(entry.getKey());
+      }
+    }
+
+    for (Path relative : reported) {
+      if (!existing.contains(relative)) {
+        entryDeleted(this.path.resolve(relative));
+      }
+    }
+  }
+
+  /**
+   * Writes the current state of the watched tree to the snapshot file this
+   * watcher was created with. This is done automatically when the
+   * DirectoryWatchService is closed.
+   *
+   * @throws IOException if the snapshot could not be written
+   */
+  public void saveSnapshot() throws IOException {
+    if (snapshotFile == null) {
+      throw new IllegalStateException("DirectoryWatcher was not created with a snapshot file");
+    }
+
+    index.save(snapshotFile);
+  }
+
+  void close() throws IOException {
+    try {
+      if (snapshotFile != null) {
+        saveSnapshot();
+      }
+    } finally {
+      for (ChangePublisher publisher : publishers) {
+        publisher.complete();
+      }
+      for (DirectoryWatcherSubscriber sub : subscribers) {
+        if (sub instanceof IsolatedSubscriber) {
+          ((IsolatedSubscriber) sub).close();
+        }
+      }
+      if (buffer != null) {
+        buffer.close();
+      }
+      if (journal != null) {
+        journal.close();
+      }
+    }
+  }
+
+  /* Subscriptions */
+  List<DirectoryWatcherSubscriber> getSubscribers() {
+    return this.subscribers;
+  }
+
+  public void subscribe(DirectoryWatcherSubscriber subscriber) {
+    subscriber.subscribed(this);
+    subscribers.add(subscriber);
+  }
+
+  /**
+   * <p>
+   * Subscribes with a time budget for handling each event. A subscriber that
+   * exceeds its budget on {@value IsolatedSubscriber#QUARANTINE_AFTER}
+   * consecutive events is quarantined: from then on it receives events on a
+   * thread of its own, so that it no longer holds up other subscribers or
+   * the handling of further events.
+   * </p>
+   * <p>
+   * If a quarantined subscriber falls more than
+   * {@value IsolatedSubscriber#LANE_CAPACITY} events behind, it is paused,
+   * and events for it are dropped until it has caught up. The
+   * {@link WatchServiceMonitor} of the service is told when a subscriber is
+   * quarantined, paused and resumed.
+   * </p>
+   * <p>
+   * The budget is only checked once the subscriber returns. A subscriber that
+   * never returns from its first overrun, e.g. one waiting on a lock that is
+   * never released, holds up the thread handling its events indefinitely.
+   * </p>
+   *
+   * @param subscriber the subscriber
+   * @param budget     the time allowed for each event
+   * @param unit       the unit of budget
+   */
+  public void subscribe(DirectoryWatcherSubscriber subscriber, long budget, TimeUnit unit) {
+    subscriber.subscribed(this);
+    subscribers.add(new IsolatedSubscriber(this, subscriber, unit.toNanos(budget)));
+  }
+
+  public void unsubscribe(DirectoryWatcherSubscriber subscriber) {
+    for (DirectoryWatcherSubscriber sub : subscribers) {
+      if (sub == subscriber || unwrap(sub) == subscriber) {
+        subscribers.remove(sub);
+
+        if (sub instanceof IsolatedSubscriber) {
+          ((IsolatedSubscriber) sub).close();
+        }
+      }
+    }
+  }
+
+  /* Returns the subscriber as passed to subscribe() */
+  private static DirectoryWatcherSubscriber unwrap(DirectoryWatcherSubscriber sub) {
+    if (sub instanceof JournalCursor) {
+      return ((JournalCursor) sub).subscriber;
+    }
+    if (sub instanceof IsolatedSubscriber) {
+      return ((IsolatedSubscriber) sub).subscriber;
+    }
+
+    return sub;
+  }
+
+  /* Buffering */
+
+  /**
+   * Same as {@link #enableBuffering(int, Path)}, using a temporary file.
+   */
+  public void enableBuffering(int capacity) throws IOException {
+    enableBuffering(capacity, null);
+  }
+
+  /**
+   * <p>
+   * Delivers events to subscribers from a dedicated thread, so that slow
+   * subscribers no longer hold up event handling. Up to the given number of
+   * events are queued in memory; any more are appended to the spill file and
+   * read back in order once the subscribers catch up. Spilled events no
+   * longer carry the attributes read for them, nor count towards the latency
+   * of delivery.
+   * </p>
+   *
+   * @param capacity  the number of events to queue in memory
+   * @param spillFile the file to spill events to, created on the first
+   *                  spill. Its contents are discarded.
+   */
+  public synchronized void enableBuffering(int capacity, Path spillFile) throws IOException {
+    if (buffer != null) {
+      throw new IllegalStateException("Buffering is already enabled");
+    }
+
+    buffer = new SpillingEventBuffer(this, capacity, spillFile);
+  }
+
+  /**
+   * @return the number of events waiting to be delivered to subscribers, or
+   * 0 if buffering is not enabled.
+   */
+  public long getBacklog() {
+    SpillingEventBuffer buffer = this.buffer;
+    return buffer == null ? 0 : buffer.size();
+  }
+
+  /**
+   * @return the number of waiting events that have been spilled to disk
+   */
+  public long getSpilledCount() {
+    SpillingEventBuffer buffer = this.buffer;
+    return buffer == null ? 0 : buffer.spilled();
+  }
+
+  /* Publishers */
+
+  /**
+   * <p>
+   * Creates a publisher for the events of this watcher, whose subscribers
+   * receive only as many events as they request.
+   * </p>
+   *
+   * @param bufferSize the number of events to buffer for each subscriber
+   *                   while it has no outstanding demand, beyond which it
+   *                   fails with a {@link ChangeOverflowException}
+   * @param coalesce   whether buffered events for the same path are
+   *                   combined
+   * @see ChangePublisher
+   */
+  public ChangePublisher newPublisher(int bufferSize, boolean coalesce) {
+    ChangePublisher publisher = new ChangePublisher(this, bufferSize, coalesce);
+    publishers.add(publisher);
+
+    return publisher;
+  }
+
+  /* Journal */
+
+  /**
+   * Keeps the given number of the most recent events in memory, so that
+   * subscribers can catch up on events they have missed with
+   * {@link #subscribe(DirectoryWatcherSubscriber, long)}.
+   *
+   * @param capacity the number of events to keep
+   */
+  public void enableJournal(int capacity) throws IOException {
+    enableJournal(capacity, null);
+  }
+
+  /**
+   * Keeps the given number of the most recent events in memory, and appends
+   * every event to the given file. Events that are no longer in memory are
+   * read back from the file. If the file already exists, sequence numbers
+   * continue from the last event it contains. The file is limited to 64MB.
+   *
+   * @param capacity  the number of events to keep in memory
+   * @param spillFile the file to append events to
+   */
+  public void enableJournal(int capacity, Path spillFile) throws IOException {
+    enableJournal(capacity, spillFile, EventJournal.DEFAULT_MAX_FILE_SIZE);
+  }
+
+  /**
+   * As {@link #enableJournal(int, Path)}, but limits the size of the file.
+   * Once it grows beyond the limit, the oldest events are dropped from it,
+   * leaving it half full.
+   *
+   * @param capacity    the number of events to keep in memory
+   * @param spillFile   the file to append events to
+   * @param maxFileSize the size in bytes the file may grow to
+   */
+  public synchronized void enableJournal(int capacity, Path spillFile, long maxFileSize) throws IOException {
+    if (journal != null) {
+      throw new IllegalStateException("Journal is already enabled");
+    }
+
+    journal = new EventJournal(this, capacity, spillFile, maxFileSize);
+  }
+
+  /**
+   * @return the journal of this watcher, or null if it is not enabled
+   */
+  public EventJournal getJournal() {
+    return this.journal;
+  }
+
+  /**
+   * <p>
+   * Subscribes to events starting at the given sequence number. Events that
+   * are already in the journal are delivered first, on the calling thread,
+   * after which the subscriber receives live events as usual. No event is
+   * missed or delivered twice across the switch.
+   * </p>
+   * <p>
+   * A subscriber that records {@link ChangeEvent#getSequence} of the last
+   * event it has processed can resume from the following sequence number.
+   * </p>
+   *
+   * @param subscriber   the subscriber
+   * @param fromSequence the sequence number of the first event to deliver
+   * @throws IllegalArgumentException if the journal no longer holds the event
+   *                                  with the given sequence number
+   */
+  public void subscribe(DirectoryWatcherSubscriber subscriber, long fromSequence) throws IOException {
+    EventJournal journal = this.journal;
+    if (journal == null) {
+      throw new IllegalStateException("Journal is not enabled");
+    }
+
+    subscriber.subscribed(this);
+    long next = Math.max(fromSequence, 1);
+    while (true) {
+      synchronized (journal) {
+        long last = journal.getLastSequence();
+        if (next > last) {
+          // events up to last may still be in flight to the other
+          // subscribers, but have already been replayed to this one
+          subscribers.add(new JournalCursor(subscriber, last));
+          return;
+        }
+      }
+
+      next = journal.replay(next, subscriber);
+    }
+  }
+
+  private static class JournalCursor extends DirectoryWatcherSubscriber {
+    private final DirectoryWatcherSubscriber subscriber;
+    private final long replayed;
+
+    JournalCursor(DirectoryWatcherSubscriber subscriber, long replayed) {
+      this.subscriber = subscriber;
+      this.replayed = replayed;
+    }
+
+    @Override
+    public void eventReceived(ChangeEvent event) {
+      if (event.getSequence() > replayed) {
+        subscriber.eventReceived(event);
+      }
+    }
 
-  /* Used to filter files */
-  private final List<Pattern> includes = new LinkedList<>();
-  private final List<Pattern> excludes = new LinkedList<>();
+    @Override
+    public void initialEventsReceived(List<ChangeEvent> events) {
+      List<ChangeEvent> unseen = new ArrayList<>();
 
-  /* Used to determine watch status */
-  private final Set<WatchKey> keys = new HashSet<>();
+      for (ChangeEvent event : events) {
+        if (event.getSequence() > replayed) {
+          unseen.add(event);
+        }
+      }
 
-  /* Set the FilePath Separator */
-  private final String separator;
+      if (!unseen.isEmpty()) {
+        subscriber.initialEventsReceived(Collections.unmodifiableList(unseen));
+      }
+    }
+  }
 
-  /* Constructors */
-  DirectoryWatcher(final WatchService watcher, final Path path) throws IOException {
-    this(watcher, path, null);
+  /* Hot Paths */
+  void trackHotPaths(int capacity, long halfLife) {
+    if (capacity <= 0) {
+      hotPaths = null;
+      hotDirectories = null;
+    } else {
+      long now = System.nanoTime();
+      hotPaths = new HeavyHitters(capacity, halfLife, now);
+      hotDirectories = new HeavyHitters(capacity, halfLife, now);
+    }
   }
 
-  DirectoryWatcher(final WatchService watcher, final Path path, final String separator) throws IOException {
-    this.path = path.toAbsolutePath();
-    this.watcher = watcher;
+  /**
+   * @param n the maximum number of paths to return
+   * @return the entries of this watcher that have produced the most events,
+   * most active first, or an empty list if tracking is not enabled.
+   * @see AbstractDirectoryWatchService#setHotPathTracking
+   */
+  public List<HotPath> getHottestPaths(int n) {
+    HeavyHitters hotPaths = this.hotPaths;
+    return hotPaths == null ? Collections.<HotPath>emptyList() : hotPaths.top(n, System.nanoTime());
+  }
 
-    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-      @Override
-      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-        register(dir, watcher);
-        return FileVisitResult.CONTINUE;
-      }
-    });
+  /**
+   * @param n the maximum number of directories to return
+   * @return the directories of this watcher whose entries have produced the
+   * most events, most active first, or an empty list if tracking is not
+   * enabled.
+   * @see AbstractDirectoryWatchService#setHotPathTracking
+   */
+  public List<HotPath> getHottestDirectories(int n) {
+    HeavyHitters hotDirectories = this.hotDirectories;
+    return hotDirectories == null ? Collections.<HotPath>emptyList() : hotDirectories.top(n, System.nanoTime());
+  }
+
+  /* Latency */
+
+  /**
+   * <p>
+   * Measures the time spent by events in each {@link LatencyStage}, from the
+   * WatchKey being taken from the WatchService until the subscribers have
+   * handled them. Each value recorded costs a few atomic increments, and
+   * nothing is measured until this is called.
+   * </p>
+   * <p>
+   * Only events received from the WatchService are measured. Initial events,
+   * events held back until {@link #start()}, and events settled after a storm
+   * are not.
+   * </p>
+   */
+  public synchronized void enableLatencyTracking() {
+    if (latency != null) {
+      throw new IllegalStateException("Latency tracking is already enabled");
+    }
 
-    this.separator = separator == null ? File.separator : separator;
+    latency = new LatencyRecorder();
   }
 
   /**
-   * @return the base of the directory tree being watched.
+   * @param stage the stage of delivery
+   * @return the latencies recorded for the stage so far, in nanoseconds
+   * @throws IllegalStateException if latency tracking is not enabled
    */
-  public Path getPath() {
-    return this.path;
+  public LatencyHistogram getLatency(LatencyStage stage) {
+    LatencyRecorder latency = this.latency;
+    if (latency == null) {
+      throw new IllegalStateException("Latency tracking is not enabled");
+    }
+
+    return latency.snapshot(stage);
   }
 
-  /* WatchService */
-  private void register(Path path, final WatchService watcher) throws IOException {
-    path = path.toAbsolutePath();
+  /* Fingerprints */
+
+  /**
+   * <p>
+   * Drops modification events for files whose content has not changed, such
+   * as those caused by touch, or by tools that rewrite files with the same
+   * content. The size, modification time and a hash of the content of up to
+   * capacity files are remembered, evicting the least recently modified.
+   * </p>
+   * <p>
+   * Files are only hashed when their size and modification time do not
+   * settle whether they have changed. Modifications of files that have been
+   * evicted, or that could not be hashed, are always delivered.
+   * </p>
+   *
+   * @param capacity the maximum number of files to remember
+   */
+  public synchronized void enableFingerprints(int capacity) {
+    if (fingerprints != null) {
+      throw new IllegalStateException("Fingerprints are already enabled");
+    }
 
-    keys.add(path.register(
-        watcher,
-        new WatchEvent.Kind<?>[]{
-            StandardWatchEventKinds.ENTRY_CREATE,
-            StandardWatchEventKinds.ENTRY_DELETE,
-            StandardWatchEventKinds.ENTRY_MODIFY
-        },
-        new WatchEvent.Modifier[]{SensitivityWatchEventModifier.HIGH}
-    ));
+    fingerprints = new ContentFingerprints(capacity);
   }
 
-  private void deregister(WatchKey key) {
-    keys.remove(key);
+  /**
+   * @return the number of modification events dropped because the content of
+   * the file was unchanged.
+   */
+  public long getSuppressedCount() {
+    ContentFingerprints fingerprints = this.fingerprints;
+    return fingerprints == null ? 0 : fingerprints.getSuppressedCount();
   }
 
-  /* Subscriptions */
-  List<DirectoryWatcherSubscriber> getSubscribers() {
-    return this.subscribers;
+  /* Digests */
+
+  /**
+   * <p>
+   * Keeps a digest and a version for every directory in the tree, updated
+   * incrementally as events are handled, so that {@link #changedSince} and
+   * {@link #digest} are answered without touching the disk. The tree is
+   * walked once to build them.
+   * </p>
+   * <p>
+   * Digests are made from the size and modification time of each entry, and
+   * cover every entry in the tree regardless of filters.
+   * </p>
+   *
+   * @throws IOException if the tree could not be walked
+   */
+  public synchronized void enableDigests() throws IOException {
+    if (digests != null) {
+      throw new IllegalStateException("Digests are already enabled");
+    }
+
+    DirectorySnapshot snapshot = this.index;
+    if (snapshot == null) {
+      snapshot = DirectorySnapshot.scanParallel(this.path, observableDepth(this.path));
+    }
+
+    DirectoryDigests digests = new DirectoryDigests();
+    for (Map.Entry<Path, DirectorySnapshot.Entry> entry : snapshot.entries().entrySet()) {
+      digests.put(relativePath(entry.getKey()), entry.getValue());
+    }
+
+    this.digests = digests;
   }
 
-  public void subscribe(DirectoryWatcherSubscriber subscriber) {
-    subscribers.add(subscriber);
+  /**
+   * @return the current version of the tree, which increases with every
+   * change. Only available once {@link #enableDigests} has been called.
+   */
+  public long getVersion() {
+    return requireDigests().getVersion();
   }
 
-  public void unsubscribe(DirectoryWatcherSubscriber subscriber) {
-    subscribers.remove(subscriber);
+  /**
+   * Checks whether anything under a subtree has changed after the given
+   * version, as returned by {@link #getVersion}.
+   *
+   * @param subtree the subtree, relative to the base of the watcher
+   * @param version the version to compare against
+   * @return whether the subtree, or anything under it, has changed
+   */
+  public boolean changedSince(Path subtree, long version) {
+    return requireDigests().changedSince(subtree, version);
+  }
+
+  /**
+   * @param subtree the subtree, relative to the base of the watcher
+   * @return a digest of the subtree and everything under it, or 0 if it does
+   * not exist. Two subtrees with the same digest are, in all likelihood, the
+   * same.
+   */
+  public long digest(Path subtree) {
+    return requireDigests().digest(subtree);
+  }
+
+  /**
+   * Compares the tree of this watcher with that of another, such as a copy of
+   * the same tree, descending only into subtrees whose digests differ. Both
+   * watchers must have digests enabled.
+   *
+   * @param other the watcher to compare against
+   * @return the relative paths of entries that differ, or exist in only one
+   * of the trees
+   */
+  public List<Path> diffDigests(DirectoryWatcher other) {
+    return requireDigests().diff(other.requireDigests());
+  }
+
+  private DirectoryDigests requireDigests() {
+    DirectoryDigests digests = this.digests;
+    if (digests == null) {
+      throw new IllegalStateException("Digests are not enabled");
+    }
+
+    return digests;
   }
 
   /* Filters */
   public void include(String filter) {
-    includes.add(compileFilter(filter));
+    includes.add(filter);
+    filterCache.invalidate();
+    service.filtersChanged();
   }
 
   public void exclude(String filter) {
-    excludes.add(compileFilter(filter));
+    excludes.add(filter);
+    filterCache.invalidate();
+    service.filtersChanged();
   }
 
-  private Pattern compileFilter(String filter) {
-    if (filter.endsWith("/") || filter.endsWith("\\")) {
-      filter = filter + "**";
-    }
+  List<String> getIncludeFilters() {
+    return includes.getFilters();
+  }
+
+  List<String> getExcludeFilters() {
+    return excludes.getFilters();
+  }
 
-    // split the filter path either using / or \
-    final String[] subs = filter.split("[/\\\\]");
-    final StringBuilder pattern = new StringBuilder("^");
+  String getSeparator() {
+    return this.separator;
+  }
 
-    // use the provided separator for paths reported by WatchService
-    final String regexSeparator = Pattern.quote(this.separator);
-    boolean appendDelimiter = false;
+  /**
+   * <p>
+   * Only reports created and modified entries that match at least one of the
+   * included attribute filters. These are evaluated once per event, after
+   * the path filters, so that attributes are only read for entries that
+   * passed those. Deleted entries have no attributes and are not subject to
+   * attribute filters.
+   * </p>
+   */
+  public void include(AttributeFilter filter) {
+    attributeIncludes.add(filter);
+  }
 
-    for (String sub : subs) {
-      if (appendDelimiter) {
-        pattern.append(regexSeparator);
-      } else {
-        appendDelimiter = true;
-      }
+  /**
+   * Does not report created and modified entries that match any of the
+   * excluded attribute filters.
+   *
+   * @see #include(AttributeFilter)
+   */
+  public void exclude(AttributeFilter filter) {
+    attributeExcludes.add(filter);
+  }
 
-      if (sub.equals("**")) {
-        pattern.append(".*?");
-        appendDelimiter = false;
-      } else {
-        pattern.append(sub
-            .replace(".", "\\.")
-            .replace("?", ".")
-            .replace("*", "[^" + regexSeparator + "]*?")
-        );
-      }
-    }
+  /* Storms */
+
+  /**
+   * <p>
+   * Enables storm detection. When a single directory produces more than
+   * maxEvents events within the interval, its subtree stops being handled
+   * event by event until it has been quiet for a full interval, after which the
+   * net changes are reported.
+   * </p>
+   *
+   * @param maxEvents the number of events per interval at which a storm starts,
+   *                  or 0 to disable storm detection
+   * @param interval  the interval over which events are counted, and the quiet
+   *                  period after which a storm ends
+   * @param unit      the unit of interval
+   */
+  public void setStormThreshold(int maxEvents, long interval, TimeUnit unit) {
+    storms.configure(maxEvents, unit.toNanos(interval));
+  }
 
-    pattern.append("$");
-    return Pattern.compile(pattern.toString());
+  /**
+   * @return the directories whose subtrees are currently in a storm.
+   */
+  public Set<Path> getStormPaths() {
+    return storms.getStormPaths();
   }
 
   /* Filter Checking */
   public boolean shouldTrack(Path path) {
-    return shouldTrack(path.toString());
+    return tracks(this.path.resolve(path), path);
   }
 
   public boolean shouldTrack(String path) {
-    return shouldInclude(path) && !shouldExclude(path);
+    SharedFilterMatcher shared = service.getSharedFilters();
+    if (shared != null && shared.covers(this)) {
+      return shouldTrack(Paths.get(path));
+    }
+
+    return matchesFilters(path);
   }
 
-  private boolean shouldInclude(String path) {
-    if (includes.isEmpty()) {
-      return true;
+  private boolean matchesFilters(String path) {
+    if (fileName != null && !fileName.equals(path)) {
+      return false;
     }
 
-    for (Pattern pattern : includes) {
-      if (pattern.matcher(path).matches()) {
-        return true;
-      }
+    return filterCache.matches(path);
+  }
+
+  /* Uses the filters shared across the service where possible */
+  boolean tracks(Path absolute, Path relative) {
+    SharedFilterMatcher shared = service.getSharedFilters();
+    if (shared == null || !shared.covers(this)) {
+      return matchesFilters(relative.toString());
+    }
+
+    if (fileName != null && !fileName.equals(relative.toString())) {
+      return false;
     }
 
-    return false;
+    return shared.tracks(this, absolute, includes.isEmpty());
   }
 
-  private boolean shouldExclude(String path) {
-    if (excludes.isEmpty()) {
-      return false;
+  private boolean acceptAttributes(ChangeEvent event) {
+    if (event.getKind() == ChangeKind.DELETED) {
+      return true;
+    }
+
+    if (!attributeIncludes.isEmpty()) {
+      boolean included = false;
+      for (AttributeFilter filter : attributeIncludes) {
+        if (filter.accept(event)) {
+          included = true;
+          break;
+        }
+      }
+
+      if (!included) {
+        return false;
+      }
     }
 
-    for (Pattern pattern : excludes) {
-      if (pattern.matcher(path).matches()) {
-        return true;
+    for (AttributeFilter filter : attributeExcludes) {
+      if (filter.accept(event)) {
+        return false;
       }
     }
 
-    return false;
+    return true;
   }
 
   /* Handlers */
-  void handleCreateEvent(WatchKey key, Path path) {
+  void handleCreateEvent(WatchKey key, Path path, long received) {
     if (!isTrackingKey(key)) {
       return;
     }
 
     path = actualPath(key, path);
+    recordActivity(key, path);
+
+    long now = System.nanoTime();
+    if (walked.reported(path, now)) {
+      return;
+    }
+    if (storms.absorb((Path) key.watchable(), path, ChangeKind.CREATED, now)) {
+      return;
+    }
+
+    if (latency == null) {
+      created(path);
+      return;
+    }
 
+    LatencyRecorder.begin(received, now);
+    try {
+      created(path);
+    } finally {
+      LatencyRecorder.end();
+    }
+  }
+
+  void created(final Path path) {
     // if a new dir is created we need to register it to our watcher
     // else inner events won't be tracked. In some cases, we may only
     // receive an event for the top level dir: any further nested dir
     // will not have any event as we haven't registered them. We'll
     // need to manually traverse and make sure we got them too.
-    if (Files.isDirectory(path)) {
+    // the attributes are passed on with the event, saving subscribers a stat
+    BasicFileAttributes attributes = readAttributes(path);
+
+    if (attributes != null && attributes.isDirectory()) {
       FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-          register(dir, watcher);
+          register(dir);
 
-          entryCreated(dir);
+          if (!dir.equals(path)) {
+            walked.walked(dir, System.nanoTime());
+          }
+          entryCreated(dir, attrs);
           return FileVisitResult.CONTINUE;
         }
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-          entryCreated(file);
+          walked.walked(file, System.nanoTime());
+          entryCreated(file, attrs);
 
           return FileVisitResult.CONTINUE;
         }
       };
 
       try {
-        Files.walkFileTree(path, visitor);
+        Files.walkFileTree(path, EnumSet.noneOf(FileVisitOption.class), observableDepth(path.getParent()) - 1, visitor);
       } catch (IOException e) {
       }
+    } else {
+      // a file watcher must see its file appear, not just change
+      try {
+        entryCreated(path, attributes);
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  private static BasicFileAttributes readAttributes(Path path) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      return null;
     }
   }
 
-  void handleModifyEvent(WatchKey key, Path path) {
+  void handleModifyEvent(WatchKey key, Path path, long received) {
     if (!isTrackingKey(key)) {
       return;
     }
 
-    entryModified(actualPath(key, path));
+    path = actualPath(key, path);
+    recordActivity(key, path);
+
+    long now = System.nanoTime();
+    if (storms.absorb((Path) key.watchable(), path, ChangeKind.MODIFIED, now)) {
+      return;
+    }
+
+    if (latency == null) {
+      entryModified(path);
+      return;
+    }
+
+    LatencyRecorder.begin(received, now);
+    try {
+      entryModified(path);
+    } finally {
+      LatencyRecorder.end();
+    }
   }
 
-  void handleDeleteEvent(WatchKey key, Path path) {
+  void handleDeleteEvent(WatchKey key, Path path, long received) {
     if (!isTrackingKey(key)) {
       return;
     }
 
-    entryDeleted(actualPath(key, path));
+    path = actualPath(key, path);
+    recordActivity(key, path);
+
+    long now = System.nanoTime();
+    walked.deleted(path);
+    if (storms.absorb((Path) key.watchable(), path, ChangeKind.DELETED, now)) {
+      return;
+    }
+
+    if (latency == null) {
+      entryDeleted(path);
+      return;
+    }
+
+    LatencyRecorder.begin(received, now);
+    try {
+      entryDeleted(path);
+    } finally {
+      LatencyRecorder.end();
+    }
+  }
+
+  /* Delivers an event read from a trace, without reading the file system */
+  void replay(ChangeKind kind, Path entry, long received) {
+    if (!entry.startsWith(path) || entry.equals(path) || depth(entry) - 1 > maxDepth) {
+      return;
+    }
+
+    Path relative = relativePath(entry);
+    if (!tracks(entry, relative)) {
+      return;
+    }
+
+    if (latency == null) {
+      dispatch(kind, relative, null);
+      return;
+    }
+
+    LatencyRecorder.begin(received, System.nanoTime());
+    try {
+      dispatch(kind, relative, null);
+    } finally {
+      LatencyRecorder.end();
+    }
   }
 
   void handleKeyInvalid(WatchKey key) {
@@ -374,42 +1558,250 @@ public class DirectoryWatcher {
     deregister(key);
   }
 
+  void handleTick(long now) {
+    storms.settle(now);
+
+    if (degraded.scan(now, service.getDegradedScanInterval())) {
+      promote(service.getWatchPriority());
+    }
+  }
+
   void entryCreated(Path entry) throws IOException {
-    entry = relativePath(entry);
+    entryCreated(entry, null);
+  }
+
+  void entryCreated(Path entry, BasicFileAttributes attrs) throws IOException {
+    attrs = updateIndex(entry, attrs);
+    Path relative = relativePath(entry);
+    attrs = updateDigests(entry, relative, attrs);
 
-    if (!shouldTrack(entry)) {
+    if (!tracks(entry, relative)) {
       return;
     }
 
-    for (DirectoryWatcherSubscriber sub : subscribers) {
-      sub.entryCreated(DirectoryWatcher.this, entry);
+    ContentFingerprints fingerprints = this.fingerprints;
+    if (fingerprints != null) {
+      if (attrs == null) {
+        attrs = readAttributes(entry);
+      }
+      if (attrs != null) {
+        fingerprints.created(entry, attrs);
+      }
     }
+
+    dispatch(ChangeKind.CREATED, relative, attrs);
   }
 
   void entryModified(Path entry) {
-    entry = relativePath(entry);
+    BasicFileAttributes attrs = updateIndex(entry, null);
+    Path relative = relativePath(entry);
+    attrs = updateDigests(entry, relative, attrs);
 
-    if (!shouldTrack(entry)) {
+    if (!tracks(entry, relative)) {
       return;
     }
 
-    for (DirectoryWatcherSubscriber sub : subscribers) {
-      sub.entryModified(this, entry);
+    ContentFingerprints fingerprints = this.fingerprints;
+    if (fingerprints != null) {
+      if (attrs == null) {
+        attrs = readAttributes(entry);
+      }
+      if (attrs != null && fingerprints.unchanged(entry, attrs)) {
+        return;
+      }
     }
+
+    dispatch(ChangeKind.MODIFIED, relative, attrs);
   }
 
   void entryDeleted(Path entry) {
-    entry = relativePath(entry);
+    if (index != null) {
+      index.remove(entry);
+    }
+    if (fingerprints != null) {
+      fingerprints.forget(entry);
+    }
+    Path relative = relativePath(entry);
+    if (digests != null) {
+      digests.remove(relative);
+    }
+
+    if (!tracks(entry, relative)) {
+      return;
+    }
+
+    dispatch(ChangeKind.DELETED, relative, null);
+  }
+
+  /* Returns the attributes read for the index, if any, so they can be reused */
+  private BasicFileAttributes updateIndex(Path entry, BasicFileAttributes attrs) {
+    DirectorySnapshot index = this.index;
+    if (index == null) {
+      return attrs;
+    }
+
+    if (attrs == null) {
+      attrs = readAttributes(entry);
+    }
+
+    index.update(entry, attrs);
+    return attrs;
+  }
 
-    if (!shouldTrack(entry)) {
+  private BasicFileAttributes updateDigests(Path entry, Path relative, BasicFileAttributes attrs) {
+    DirectoryDigests digests = this.digests;
+    if (digests == null) {
+      return attrs;
+    }
+
+    if (attrs == null) {
+      attrs = readAttributes(entry);
+    }
+
+    if (attrs == null) {
+      digests.remove(relative);
+    } else {
+      digests.put(relative, new DirectorySnapshot.Entry(attrs));
+    }
+    return attrs;
+  }
+
+  private void dispatch(ChangeKind kind, Path entry, BasicFileAttributes attrs) {
+    if (held != null) {
+      synchronized (this) {
+        if (held != null) {
+          held.hold(kind, entry, attrs);
+          return;
+        }
+      }
+    }
+
+    deliver(kind, entry, attrs);
+  }
+
+  private void deliver(ChangeKind kind, Path entry, BasicFileAttributes attrs) {
+    ChangeEvent event = record(new ChangeEvent(this, kind, entry, 0, attrs));
+    if (event == null) {
+      return;
+    }
+
+    LatencyRecorder latency = this.latency;
+    if (latency != null) {
+      latency.accepted(event, System.nanoTime());
+    }
+
+    SpillingEventBuffer buffer = this.buffer;
+    if (buffer != null) {
+      buffer.offer(event);
+    } else {
+      publish(event);
+    }
+  }
+
+  void deliverInitial(List<ChangeEvent> batch) {
+    List<ChangeEvent> events = new ArrayList<>(batch.size());
+    for (ChangeEvent event : batch) {
+      event = record(event);
+      if (event != null) {
+        events.add(event);
+      }
+    }
+
+    if (events.isEmpty()) {
       return;
     }
 
+    SpillingEventBuffer buffer = this.buffer;
+    if (buffer != null) {
+      for (ChangeEvent event : events) {
+        buffer.offer(event);
+      }
+      return;
+    }
+
+    events = Collections.unmodifiableList(events);
+    WatchServiceMonitor monitor = service.getMonitor();
+
+    for (DirectoryWatcherSubscriber sub : subscribers) {
+      long start = monitor == null ? 0 : System.nanoTime();
+      try {
+        sub.initialEventsReceived(events);
+      } catch (RuntimeException e) {
+        subscriberFailed(sub, events.get(0), e);
+      }
+
+      if (monitor != null) {
+        subscriberReturned(monitor, null, sub, events.get(0), start);
+      }
+    }
+  }
+
+  /* Applies the attribute filters and the journal, returning null if the event is filtered out */
+  private ChangeEvent record(ChangeEvent event) {
+    if (!acceptAttributes(event)) {
+      return null;
+    }
+
+    EventJournal journal = this.journal;
+    if (journal != null) {
+      event = journal.append(event);
+    }
+
+    return event;
+  }
+
+  void publish(ChangeEvent event) {
+    WatchServiceMonitor monitor = service.getMonitor();
+    LatencyRecorder latency = event.isStamped() ? this.latency : null;
+    boolean timed = monitor != null || latency != null;
+
+    if (latency != null && buffer != null) {
+      latency.record(LatencyStage.QUEUE, System.nanoTime() - event.getAccepted());
+    }
+
     for (DirectoryWatcherSubscriber sub : subscribers) {
-      sub.entryDeleted(this, entry);
+      long start = timed ? System.nanoTime() : 0;
+      try {
+        sub.eventReceived(event);
+      } catch (RuntimeException e) {
+        // a failing subscriber must not keep the event from the others
+        subscriberFailed(sub, event, e);
+      }
+
+      if (timed) {
+        subscriberReturned(monitor, latency, sub, event, start);
+      }
+    }
+
+    if (latency != null) {
+      latency.record(LatencyStage.TOTAL, System.nanoTime() - event.getReceived());
+    }
+  }
+
+  private void subscriberReturned(WatchServiceMonitor monitor, LatencyRecorder latency, DirectoryWatcherSubscriber sub, ChangeEvent event, long start) {
+    long duration = System.nanoTime() - start;
+    if (latency != null) {
+      latency.record(LatencyStage.SUBSCRIBER, duration);
+    }
+
+    if (monitor == null || duration < service.getSlowSubscriberThreshold()) {
+      return;
+    }
+
+    monitor.slowSubscriber(unwrap(sub), event, duration);
+  }
+
+  void subscriberFailed(DirectoryWatcherSubscriber sub, ChangeEvent event, RuntimeException e) {
+    WatchServiceMonitor monitor = service.getMonitor();
+    if (monitor != null) {
+      monitor.subscriberFailed(unwrap(sub), event, e);
     }
   }
 
+  WatchServiceMonitor getMonitor() {
+    return service.getMonitor();
+  }
+
   private boolean isTrackingKey(WatchKey key) {
     return keys.contains(key);
   }
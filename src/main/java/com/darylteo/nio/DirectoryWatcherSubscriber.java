@@ -1,6 +1,7 @@
 package com.darylteo.nio;
 
 import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Subclass this class in order to respond to file change events from
@@ -10,6 +11,46 @@ import java.nio.file.Path;
  * 
  */
 public abstract class DirectoryWatcherSubscriber {
+  /**
+   * Called by the DirectoryWatcher for every event. By default, this passes
+   * the event on to {@link #entryCreated}, {@link #entryModified} or
+   * {@link #entryDeleted}. Override this instead if the sequence number of
+   * the event is required.
+   *
+   * @param event
+   *          the event
+   */
+  public void eventReceived(ChangeEvent event) {
+    switch (event.getKind()) {
+      case CREATED:
+        entryCreated(event.getWatcher(), event.getPath());
+        break;
+      case MODIFIED:
+        entryModified(event.getWatcher(), event.getPath());
+        break;
+      case DELETED:
+        entryDeleted(event.getWatcher(), event.getPath());
+        break;
+    }
+  }
+
+  /**
+   * Called by the DirectoryWatcher with a batch of initial events, reporting
+   * entries that existed when it was started. By default, each event is
+   * passed on to {@link #eventReceived} in turn. Override this to process
+   * the existing tree in bulk.
+   * 
+   * @param events
+   *          the events, in which a directory always comes before its
+   *          contents
+   * @see ChangeEvent#isInitial
+   */
+  public void initialEventsReceived(List<ChangeEvent> events) {
+    for (ChangeEvent event : events) {
+      eventReceived(event);
+    }
+  }
+
   /**
    * Called by the DirectoryWatcher when it detects a new entry.
    * 
@@ -42,4 +83,8 @@ public abstract class DirectoryWatcherSubscriber {
    */
   public void entryModified(DirectoryWatcher watcher, Path entry) {
   }
+
+  /* Called by the DirectoryWatcher before the subscriber is added */
+  void subscribed(DirectoryWatcher watcher) {
+  }
 }
@@ -0,0 +1,27 @@
+package com.darylteo.nio;
+
+/**
+ * Decides how events are spread across the dispatch threads of a
+ * {@link ThreadPoolDirectoryWatchService}. Each event is handled by a fixed
+ * thread chosen by its stripe, so events with the same stripe are always
+ * delivered in the order they were received.
+ *
+ * @see ThreadPoolDirectoryWatchService
+ */
+public enum DispatchOrdering {
+  /**
+   * Events are striped by the directory they occurred in. Events received
+   * for the same path are delivered in order, while different directories
+   * are dispatched in parallel. Entries found by walking a new directory, or
+   * by rescanning after a storm, are not ordered against the events of the
+   * directories they are in.
+   */
+  DIRECTORY,
+
+  /**
+   * Events are striped by DirectoryWatcher. Each watcher sees all of its
+   * events in order, including entries found by walking new directories and
+   * by rescans, while different watchers are dispatched in parallel.
+   */
+  WATCHER
+}
@@ -0,0 +1,449 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * A journal of the events delivered by a {@link DirectoryWatcher}, numbered
+ * with increasing sequence numbers starting at 1.
+ * </p>
+ * <p>
+ * The most recent events are kept in a fixed size ring buffer. Optionally,
+ * every event is also appended to a file, which allows events older than the
+ * ring buffer to be replayed, and sequence numbers to carry on from where
+ * they left off when the application is restarted. Once the file grows
+ * beyond its limit, the older half of it is dropped.
+ * </p>
+ * <p>
+ * Events are written to the file in batches by a thread of its own, which
+ * also compacts the file, so neither holds up the thread handling events.
+ * Events that could not be written are still held by the ring buffer, and
+ * reported to {@link WatchServiceMonitor#journalWriteFailed}.
+ * </p>
+ *
+ * @see DirectoryWatcher#enableJournal
+ */
+public class EventJournal implements AutoCloseable {
+  /* Every nth record of the file is indexed */
+  private static final int INDEX_INTERVAL = 256;
+  private static final int HEADER_SIZE = 8 + 1 + 2;
+  /* Past this many unwritten bytes, events are written by the thread appending them */
+  private static final int MAX_PENDING = 1024 * 1024;
+  static final long DEFAULT_MAX_FILE_SIZE = 64 * 1024 * 1024;
+  private static final ChangeKind[] KINDS = ChangeKind.values();
+
+  /* Set in the kind byte of initial events */
+  private static final int INITIAL = 0x80;
+
+  private final DirectoryWatcher watcher;
+
+  /* Ring buffer, holding no events older than ringStart */
+  private final ChangeEvent[] ring;
+  private long ringStart = 1;
+  private long lastSequence = 0;
+
+  /* Spill file */
+  private final Path spillFile;
+  private final long maxFileSize;
+  private FileChannel file;
+  private TreeMap<Long, Long> fileIndex = new TreeMap<>();
+  private long firstFileSequence = 0;
+  private long fileSize = 0;
+
+  /* Records not yet written to the file, and whether a write is scheduled */
+  private ByteBuffer pending = ByteBuffer.allocate(4096);
+  private boolean flushScheduled = false;
+  private final ExecutorService writer;
+  private final Runnable flusher = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (EventJournal.this) {
+        flushScheduled = false;
+        flush();
+      }
+    }
+  };
+
+  EventJournal(DirectoryWatcher watcher, int capacity, Path spillFile) throws IOException {
+    this(watcher, capacity, spillFile, DEFAULT_MAX_FILE_SIZE);
+  }
+
+  EventJournal(DirectoryWatcher watcher, int capacity, Path spillFile, long maxFileSize) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    if (maxFileSize < 1) {
+      throw new IllegalArgumentException("maxFileSize must be positive");
+    }
+
+    this.watcher = watcher;
+    this.ring = new ChangeEvent[capacity];
+    this.spillFile = spillFile;
+    this.maxFileSize = maxFileSize;
+
+    if (spillFile == null) {
+      this.file = null;
+      this.writer = null;
+    } else {
+      this.file = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      recover();
+
+      // events recovered from the file are only read back from the file
+      this.ringStart = lastSequence + 1;
+
+      this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "DirectoryWatcher-Journal");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+
+  /**
+   * @return the sequence number of the most recent event, or 0 if there are
+   * none.
+   */
+  public synchronized long getLastSequence() {
+    return this.lastSequence;
+  }
+
+  /**
+   * @return the sequence number of the oldest event that can still be
+   * replayed.
+   */
+  public synchronized long getFirstSequence() {
+    if (file != null && firstFileSequence > 0) {
+      return Math.min(firstFileSequence, oldestInRing());
+    }
+
+    return oldestInRing();
+  }
+
+  private long oldestInRing() {
+    return Math.max(ringStart, lastSequence - ring.length + 1);
+  }
+
+  synchronized ChangeEvent append(ChangeEvent unsequenced) {
+    ChangeEvent event = unsequenced.sequenced(++lastSequence);
+    ring[(int) (event.getSequence() % ring.length)] = event;
+
+    if (file != null && file.isOpen()) {
+      write(event);
+
+      if (pending.position() >= MAX_PENDING) {
+        flush();
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        writer.execute(flusher);
+      }
+    }
+
+    return event;
+  }
+
+  /**
+   * Reads events from the journal.
+   *
+   * @param from the sequence number of the first event to read
+   * @param max  the maximum number of events to read
+   * @return the events, in order
+   * @throws IllegalArgumentException if from is older than the oldest event
+   *                                  still available
+   */
+  public List<ChangeEvent> read(long from, int max) throws IOException {
+    List<ChangeEvent> events = new ArrayList<>();
+
+    synchronized (this) {
+      if (from < getFirstSequence()) {
+        throw new IllegalArgumentException("Sequence " + from + " is no longer available");
+      }
+
+      long to = Math.min(lastSequence, from + max - 1);
+
+      if (from >= oldestInRing()) {
+        for (long seq = from; seq <= to; seq++) {
+          events.add(ring[(int) (seq % ring.length)]);
+        }
+        return events;
+      }
+
+      // the file may be written and compacted by the next flush, so it is read under the lock
+      flush();
+      return readFile(from, to);
+    }
+  }
+
+  /**
+   * Delivers all events from the given sequence number up to the most recent
+   * one at the time of the call.
+   *
+   * @return the sequence number following the last event delivered
+   */
+  long replay(long from, DirectoryWatcherSubscriber subscriber) throws IOException {
+    long last = getLastSequence();
+
+    while (from <= last) {
+      List<ChangeEvent> events = read(from, 1024);
+      if (events.isEmpty()) {
+        break;
+      }
+
+      for (ChangeEvent event : events) {
+        subscriber.eventReceived(event);
+      }
+
+      // records that failed to be written leave gaps in the file
+      from = events.get(events.size() - 1).getSequence() + 1;
+    }
+
+    return from;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (file != null) {
+      flush();
+      file.close();
+      writer.shutdown();
+    }
+  }
+
+  /* Spill File */
+
+  /* Adds a record to those waiting to be written */
+  private void write(ChangeEvent event) {
+    byte[] path = event.getPath().toString().getBytes(StandardCharsets.UTF_8);
+
+    if (pending.remaining() < HEADER_SIZE + path.length) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER_SIZE + path.length));
+      pending.flip();
+      larger.put(pending);
+      pending = larger;
+    }
+
+    if (firstFileSequence == 0) {
+      firstFileSequence = event.getSequence();
+    }
+    if (event.getSequence() % INDEX_INTERVAL == 0) {
+      fileIndex.put(event.getSequence(), fileSize + pending.position());
+    }
+
+    pending.putLong(event.getSequence());
+    pending.put((byte) (event.getKind().ordinal() | (event.isInitial() ? INITIAL : 0)));
+    pending.putShort((short) path.length);
+    pending.put(path);
+  }
+
+  /*
+   * Writes the waiting records to the file in one go, and compacts it if it
+   * has grown beyond its limit. Records that could not be written are
+   * dropped from the file, leaving the file as it was.
+   */
+  private void flush() {
+    if (pending.position() == 0 || !file.isOpen()) {
+      return;
+    }
+
+    long start = fileSize;
+    pending.flip();
+
+    try {
+      while (pending.hasRemaining()) {
+        fileSize += file.write(pending, fileSize);
+      }
+    } catch (IOException e) {
+      discard(start);
+      writeFailed(e);
+      return;
+    } finally {
+      pending.clear();
+    }
+
+    if (fileSize > maxFileSize) {
+      try {
+        compact();
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+  }
+
+  private void discard(long start) {
+    Iterator<Long> it = fileIndex.values().iterator();
+    while (it.hasNext()) {
+      if (it.next() >= start) {
+        it.remove();
+      }
+    }
+
+    if (start == 0) {
+      firstFileSequence = 0;
+    }
+    fileSize = start;
+
+    try {
+      file.truncate(start);
+    } catch (IOException e) {
+      // a partial record at the end is dropped by recover()
+    }
+  }
+
+  private void writeFailed(IOException e) {
+    WatchServiceMonitor monitor = watcher.getMonitor();
+    if (monitor != null) {
+      monitor.journalWriteFailed(watcher, e);
+    }
+  }
+
+  /*
+   * Drops the oldest records, leaving at most half the limit. The remainder
+   * is written next to the file and then moved into place, so a crash never
+   * leaves a partial file behind.
+   */
+  private void compact() throws IOException {
+    long cut = fileSize - maxFileSize / 2;
+
+    // walk forward from the closest indexed record to the first record past the cut
+    long offset = 0;
+    for (long indexed : fileIndex.values()) {
+      if (indexed > cut) {
+        break;
+      }
+      offset = indexed;
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    ChangeEvent first;
+    while ((first = readRecord(offset, header)) != null && offset < cut) {
+      offset += HEADER_SIZE + (header.getShort(9) & 0xFFFF);
+    }
+    if (first == null) {
+      return;
+    }
+
+    Path temp = spillFile.resolveSibling(spillFile.getFileName() + ".tmp");
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      long position = offset;
+      while (position < fileSize) {
+        position += file.transferTo(position, fileSize - position, out);
+      }
+    }
+
+    file.close();
+    try {
+      Files.move(temp, spillFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      file = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    TreeMap<Long, Long> index = new TreeMap<>();
+    for (Map.Entry<Long, Long> entry : fileIndex.tailMap(first.getSequence(), true).entrySet()) {
+      index.put(entry.getKey(), entry.getValue() - offset);
+    }
+
+    fileIndex = index;
+    firstFileSequence = first.getSequence();
+    fileSize -= offset;
+  }
+
+  private List<ChangeEvent> readFile(long from, long to) throws IOException {
+    List<ChangeEvent> events = new ArrayList<>();
+
+    Map.Entry<Long, Long> start = fileIndex.floorEntry(from);
+    long offset = start == null ? 0 : start.getValue();
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (true) {
+      ChangeEvent event = readRecord(offset, header);
+      if (event == null || event.getSequence() > to) {
+        break;
+      }
+
+      offset += HEADER_SIZE + (header.getShort(9) & 0xFFFF);
+      if (event.getSequence() >= from) {
+        events.add(event);
+      }
+    }
+
+    return events;
+  }
+
+  private ChangeEvent readRecord(long offset, ByteBuffer header) throws IOException {
+    header.clear();
+    if (!readFully(header, offset)) {
+      return null;
+    }
+
+    long sequence = header.getLong(0);
+    int kind = header.get(8) & 0xFF;
+    if ((kind & ~INITIAL) >= KINDS.length) {
+      return null;
+    }
+
+    ByteBuffer path = ByteBuffer.allocate(header.getShort(9) & 0xFFFF);
+    if (!readFully(path, offset + HEADER_SIZE)) {
+      return null;
+    }
+
+    return new ChangeEvent(watcher, KINDS[kind & ~INITIAL], Paths.get(new String(path.array(), StandardCharsets.UTF_8)), sequence, null, (kind & INITIAL) != 0);
+  }
+
+  private boolean readFully(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = file.read(buffer, offset + buffer.position());
+      if (read < 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /*
+   * Rebuilds the index from an existing file, dropping any partially written
+   * record at the end.
+   */
+  private void recover() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long offset = 0;
+
+    while (true) {
+      ChangeEvent event = readRecord(offset, header);
+      if (event == null) {
+        break;
+      }
+
+      if (firstFileSequence == 0) {
+        firstFileSequence = event.getSequence();
+      }
+      if (event.getSequence() % INDEX_INTERVAL == 0) {
+        fileIndex.put(event.getSequence(), offset);
+      }
+
+      lastSequence = event.getSequence();
+      offset += HEADER_SIZE + (header.getShort(9) & 0xFFFF);
+    }
+
+    file.truncate(offset);
+    fileSize = offset;
+  }
+}
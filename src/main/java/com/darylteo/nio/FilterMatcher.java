@@ -0,0 +1,457 @@
+package com.darylteo.nio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Matches paths against a set of ant-style filters. Filters of the most
+ * common shapes are recognised when they are added and checked without
+ * regular expressions:
+ * </p>
+ * <ul>
+ * <li><code>foo/bar.json</code>: exact paths, looked up in a hash set</li>
+ * <li><code>**&#47;*.json</code>: extensions at any depth, looked up in a hash set</li>
+ * <li><code>*.log</code>: suffixes of top level entries</li>
+ * <li><code>logs/**</code>: everything below a directory</li>
+ * </ul>
+ * <p>
+ * Everything else is compiled into a regular expression. Both give the same
+ * results as the regular expression would for every filter.
+ * </p>
+ * <p>
+ * Most filters can be decided for a whole directory at once, for example
+ * <code>logs/**</code> matches everything in logs/2014, and nothing in src.
+ * {@link #decide} works out which filters can still match in a directory,
+ * so that only those need to be checked for each entry. A filter compiled
+ * into a regular expression is also split into a directory part and a name
+ * part where it can be, as in <code>src/*&#47;*Test.java</code>. The
+ * directory part is then matched once per directory, and only the name of
+ * each entry is matched against the name part.
+ * </p>
+ */
+final class FilterMatcher {
+  /* Characters that are significant in the regular expression of a filter */
+  private static final String SPECIAL = "*?\\^$|+()[]{}";
+
+  /* Outcomes of a filter for all entries of a directory */
+  static final int NEVER = 0;
+  static final int ALWAYS = 1;
+  static final int DEPENDS = 2;
+
+  private final String separator;
+
+  private final ExactMatcher exact = new ExactMatcher();
+  private final ExtensionMatcher extensions = new ExtensionMatcher();
+  private final CopyOnWriteArrayList<Matcher> matchers = new CopyOnWriteArrayList<>();
+  private final List<String> filters = new CopyOnWriteArrayList<>();
+
+  FilterMatcher(String separator) {
+    this.separator = separator;
+  }
+
+  boolean isEmpty() {
+    return filters.isEmpty();
+  }
+
+  /**
+   * @return the filters, as they were added
+   */
+  List<String> getFilters() {
+    return filters;
+  }
+
+  void add(String filter) {
+    filters.add(filter);
+
+    if (filter.endsWith("/") || filter.endsWith("\\")) {
+      filter = filter + "**";
+    }
+
+    // split the filter path either using / or \
+    final String[] subs = filter.split("[/\\\\]");
+
+    if (!addFastPath(subs)) {
+      matchers.add(new RegexMatcher(compile(subs), literalPrefix(subs), splits(subs) ? subs : null));
+    }
+  }
+
+  /**
+   * Works out which filters can match entries directly within the given
+   * directory.
+   *
+   * @param directory the directory, relative to the watcher, or "" for the
+   *                  top level
+   */
+  Decision decide(String directory) {
+    String prefix = directory.isEmpty() ? "" : directory + separator;
+    List<Matcher> candidates = new ArrayList<>();
+
+    for (Matcher matcher : matchers) {
+      switch (matcher.decide(directory, prefix)) {
+        case ALWAYS:
+          return new Decision(ALWAYS, null);
+        case DEPENDS:
+          candidates.add(matcher);
+          break;
+      }
+    }
+
+    return candidates.isEmpty() ? new Decision(NEVER, null) : new Decision(DEPENDS, candidates);
+  }
+
+  static final class Decision {
+    private final int outcome;
+    private final List<Matcher> candidates;
+
+    Decision(int outcome, List<Matcher> candidates) {
+      this.outcome = outcome;
+      this.candidates = candidates;
+    }
+
+    int getOutcome() {
+      return outcome;
+    }
+
+    /**
+     * @param path the path of an entry in the directory
+     * @param name the final segment of the path
+     */
+    boolean matches(String path, String name) {
+      if (outcome != DEPENDS) {
+        return outcome == ALWAYS;
+      }
+
+      for (Matcher matcher : candidates) {
+        if (matcher.matches(path, name)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  /* Fast Paths */
+  private boolean addFastPath(String[] subs) {
+    int last = subs.length - 1;
+
+    // **
+    if (subs.length == 1 && subs[0].equals("**")) {
+      matchers.add(new EverythingMatcher());
+      return true;
+    }
+
+    // **/*.ext, **/*suffix
+    if (subs.length == 2 && subs[0].equals("**") && subs[1].startsWith("*") && isLiteral(subs[1].substring(1))) {
+      String suffix = subs[1].substring(1);
+
+      if (suffix.lastIndexOf('.') == 0) {
+        extensions.add(suffix);
+      } else {
+        matchers.add(new SuffixMatcher(suffix, false));
+      }
+      return true;
+    }
+
+    // *.ext, *suffix
+    if (subs.length == 1 && subs[0].startsWith("*") && isLiteral(subs[0].substring(1))) {
+      matchers.add(new SuffixMatcher(subs[0].substring(1), true));
+      return true;
+    }
+
+    // dir/**
+    if (subs.length > 1 && subs[last].equals("**") && areLiteral(subs, 0, last)) {
+      matchers.add(new PrefixMatcher(join(subs, 0, last) + separator));
+      return true;
+    }
+
+    // dir/file
+    if (areLiteral(subs, 0, subs.length)) {
+      exact.add(join(subs, 0, subs.length));
+      return true;
+    }
+
+    return false;
+  }
+
+  private static boolean areLiteral(String[] subs, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (subs[i].isEmpty() || !isLiteral(subs[i])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isLiteral(String sub) {
+    for (int i = 0; i < sub.length(); i++) {
+      if (SPECIAL.indexOf(sub.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private String join(String[] subs, int from, int to) {
+    StringBuilder builder = new StringBuilder();
+
+    for (int i = from; i < to; i++) {
+      if (i > from) {
+        builder.append(separator);
+      }
+      builder.append(subs[i]);
+    }
+
+    return builder.toString();
+  }
+
+  /* The part of the filter before its first wildcard */
+  private String literalPrefix(String[] subs) {
+    StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < subs.length; i++) {
+      if (i > 0) {
+        builder.append(separator);
+      }
+
+      for (char c : subs[i].toCharArray()) {
+        if (SPECIAL.indexOf(c) >= 0) {
+          return builder.toString();
+        }
+        builder.append(c);
+      }
+    }
+
+    return builder.toString();
+  }
+
+  /*
+   * Whether matching the directory and the name of a path separately gives
+   * the same result as the whole filter. The name part must not be able to
+   * match the separator, and the directory part must not end with **, whose
+   * expression is not followed by a separator.
+   */
+  private static boolean splits(String[] subs) {
+    int last = subs.length - 1;
+    String name = subs[last];
+
+    if (name.contains("**") || name.contains("?")) {
+      return false;
+    }
+
+    return last == 0 || !subs[last - 1].equals("**");
+  }
+
+  /* Regular Expressions */
+  private Pattern compile(String[] subs) {
+    final StringBuilder pattern = new StringBuilder("^");
+
+    // use the provided separator for paths reported by WatchService
+    final String regexSeparator = Pattern.quote(this.separator);
+    boolean appendDelimiter = false;
+
+    for (String sub : subs) {
+      if (appendDelimiter) {
+        pattern.append(regexSeparator);
+      } else {
+        appendDelimiter = true;
+      }
+
+      if (sub.equals("**")) {
+        pattern.append(".*?");
+        appendDelimiter = false;
+      } else {
+        pattern.append(sub
+            .replace(".", "\\.")
+            .replace("?", ".")
+            .replace("*", "[^" + regexSeparator + "]*?")
+        );
+      }
+    }
+
+    pattern.append("$");
+    return Pattern.compile(pattern.toString());
+  }
+
+  /* Matchers */
+  private static interface Matcher {
+    /**
+     * @param path the path of the entry
+     * @param name the final segment of the path
+     */
+    public boolean matches(String path, String name);
+
+    /**
+     * @param directory the directory of the entries
+     * @param prefix    the directory followed by the separator, or "" for the
+     *                  top level
+     * @return the outcome for entries directly within the directory
+     */
+    public int decide(String directory, String prefix);
+  }
+
+  private static class EverythingMatcher implements Matcher {
+    @Override
+    public boolean matches(String path, String name) {
+      return true;
+    }
+
+    @Override
+    public int decide(String directory, String prefix) {
+      return ALWAYS;
+    }
+  }
+
+  private class ExactMatcher implements Matcher {
+    private final Set<String> paths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> parents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    void add(String path) {
+      int index = path.lastIndexOf(separator);
+      parents.add(index < 0 ? "" : path.substring(0, index));
+      paths.add(path);
+
+      matchers.addIfAbsent(this);
+    }
+
+    @Override
+    public boolean matches(String path, String name) {
+      return paths.contains(path);
+    }
+
+    @Override
+    public int decide(String directory, String prefix) {
+      return parents.contains(directory) ? DEPENDS : NEVER;
+    }
+  }
+
+  /* The extension of an entry never depends on its directory */
+  private class ExtensionMatcher implements Matcher {
+    private final Set<String> extensions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    void add(String extension) {
+      extensions.add(extension);
+
+      matchers.addIfAbsent(this);
+    }
+
+    @Override
+    public boolean matches(String path, String name) {
+      int dot = name.lastIndexOf('.');
+      return dot >= 0 && extensions.contains(name.substring(dot));
+    }
+
+    @Override
+    public int decide(String directory, String prefix) {
+      return DEPENDS;
+    }
+  }
+
+  private class SuffixMatcher implements Matcher {
+    private final String suffix;
+    private final boolean topLevel;
+
+    SuffixMatcher(String suffix, boolean topLevel) {
+      this.suffix = suffix;
+      this.topLevel = topLevel;
+    }
+
+    @Override
+    public boolean matches(String path, String name) {
+      // the suffix cannot contain the separator, so it is all within the name
+      return name.endsWith(suffix) && !(topLevel && path.length() != name.length());
+    }
+
+    @Override
+    public int decide(String directory, String prefix) {
+      if (topLevel && !directory.isEmpty()) {
+        return NEVER;
+      }
+
+      return suffix.isEmpty() ? ALWAYS : DEPENDS;
+    }
+  }
+
+  private static class PrefixMatcher implements Matcher {
+    private final String prefix;
+
+    PrefixMatcher(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public boolean matches(String path, String name) {
+      return path.startsWith(prefix);
+    }
+
+    @Override
+    public int decide(String directory, String prefix) {
+      // the name of an entry cannot contain the separator this ends with
+      return prefix.startsWith(this.prefix) ? ALWAYS : NEVER;
+    }
+  }
+
+  private class RegexMatcher implements Matcher {
+    private final Pattern pattern;
+    private final String literal;
+
+    /* Set if the filter splits; directory is null if it only matches top level entries */
+    private final Pattern directory;
+    private final Pattern name;
+
+    RegexMatcher(Pattern pattern, String literal, String[] split) {
+      this.pattern = pattern;
+      this.literal = literal;
+
+      if (split == null) {
+        this.directory = null;
+        this.name = null;
+      } else {
+        int last = split.length - 1;
+        this.directory = last == 0 ? null : compile(Arrays.copyOf(split, last));
+        this.name = compile(new String[]{split[last]});
+      }
+    }
+
+    @Override
+    public boolean matches(String path, String name) {
+      if (this.name != null) {
+        return this.name.matcher(name).matches();
+      }
+
+      return pattern.matcher(path).matches();
+    }
+
+    @Override
+    public int decide(String directory, String prefix) {
+      if (this.name != null) {
+        if (this.directory == null) {
+          return directory.isEmpty() ? DEPENDS : NEVER;
+        }
+
+        // an entry of the top level has no separator to match
+        return !directory.isEmpty() && this.directory.matcher(directory).matches() ? DEPENDS : NEVER;
+      }
+
+      if (prefix.startsWith(literal)) {
+        return DEPENDS;
+      }
+
+      // the rest of the literal part would have to be in the name of the entry
+      if (literal.startsWith(prefix) && !literal.substring(prefix.length()).contains(separator)) {
+        return DEPENDS;
+      }
+
+      return NEVER;
+    }
+  }
+}
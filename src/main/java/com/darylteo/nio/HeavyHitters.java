@@ -0,0 +1,180 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Estimates the paths that produce the most events in a fixed amount of
+ * memory, using the Space-Saving algorithm. A counter is kept for at most
+ * capacity paths. When a path without a counter is hit and there is no room
+ * left, the smallest counter is handed over to it, keeping its count as an
+ * upper bound on the error. Any path hit more often than the total divided by
+ * the capacity is guaranteed to have a counter. The counters are also kept
+ * in a min-heap, so that the smallest is found without scanning them all.
+ * </p>
+ * <p>
+ * Counts decay exponentially with the given half life. Rather than decaying
+ * every counter as time passes, each hit is weighed up by the time elapsed
+ * since a landmark, and counts are divided by the current weight when read.
+ * Everything is rescaled to a new landmark before the weights grow too large.
+ * </p>
+ */
+final class HeavyHitters {
+  /* The exponent of the weight at which all counters are rescaled */
+  private static final double MAX_EXPONENT = 64;
+
+  private final int capacity;
+  private final double decay;
+
+  private final Map<Path, Counter> counters = new HashMap<>();
+  private final Counter[] heap;
+  private long landmark;
+
+  /**
+   * @param capacity the number of paths to keep a counter for
+   * @param halfLife the half life of a hit, in nanoseconds
+   */
+  HeavyHitters(int capacity, long halfLife, long now) {
+    if (capacity < 1 || halfLife <= 0) {
+      throw new IllegalArgumentException("capacity and halfLife must be positive");
+    }
+
+    this.capacity = capacity;
+    this.heap = new Counter[capacity];
+    this.decay = Math.log(2) / halfLife;
+    this.landmark = now;
+  }
+
+  synchronized void hit(Path path, long now) {
+    double weight = weight(now);
+
+    Counter counter = counters.get(path);
+    if (counter != null) {
+      counter.count += weight;
+      siftDown(counter.index);
+      return;
+    }
+
+    int size = counters.size();
+    if (size < capacity) {
+      counter = new Counter(path, weight, 0);
+      counters.put(path, counter);
+      heap[size] = counter;
+      siftUp(size);
+      return;
+    }
+
+    Counter min = heap[0];
+    counters.remove(min.path);
+
+    counter = new Counter(path, min.count + weight, min.count);
+    counters.put(path, counter);
+    heap[0] = counter;
+    siftDown(0);
+  }
+
+  /**
+   * @return up to n paths with the highest counts, highest first
+   */
+  synchronized List<HotPath> top(int n, long now) {
+    double weight = weight(now);
+
+    List<Counter> sorted = new ArrayList<>(counters.values());
+    Collections.sort(sorted, new Comparator<Counter>() {
+      @Override
+      public int compare(Counter a, Counter b) {
+        return Double.compare(b.count, a.count);
+      }
+    });
+
+    List<HotPath> top = new ArrayList<>();
+    for (Counter counter : sorted.subList(0, Math.min(n, sorted.size()))) {
+      top.add(new HotPath(counter.path, counter.count / weight, counter.error / weight));
+    }
+
+    return top;
+  }
+
+  /* Heap */
+  private void siftUp(int index) {
+    Counter counter = heap[index];
+
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (heap[parent].count <= counter.count) {
+        break;
+      }
+
+      place(heap[parent], index);
+      index = parent;
+    }
+
+    place(counter, index);
+  }
+
+  /* Counts only grow, so a counter only ever moves down */
+  private void siftDown(int index) {
+    Counter counter = heap[index];
+    int size = counters.size();
+
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+        child++;
+      }
+      if (counter.count <= heap[child].count) {
+        break;
+      }
+
+      place(heap[child], index);
+      index = child;
+    }
+
+    place(counter, index);
+  }
+
+  private void place(Counter counter, int index) {
+    heap[index] = counter;
+    counter.index = index;
+  }
+
+  /* Rescaling divides every count alike, so the heap stays in order */
+  private double weight(long now) {
+    double exponent = decay * (now - landmark);
+
+    if (exponent > MAX_EXPONENT) {
+      double scale = Math.exp(exponent);
+      for (Counter counter : counters.values()) {
+        counter.count /= scale;
+        counter.error /= scale;
+      }
+
+      landmark = now;
+      return 1;
+    }
+
+    return Math.exp(exponent);
+  }
+
+  private static class Counter {
+    private final Path path;
+    private double count;
+    private double error;
+    private int index;
+
+    Counter(Path path, double count, double error) {
+      this.path = path;
+      this.count = count;
+      this.error = error;
+    }
+  }
+}
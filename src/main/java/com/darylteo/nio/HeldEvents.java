@@ -0,0 +1,73 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Events held back by a DirectoryWatcher until it is started. Once more than
+ * MAX_HELD events are held back, they are all dropped, and the tree is
+ * compared against the baseline instead: the state the subscribers will know
+ * of.
+ * </p>
+ * <p>
+ * Not thread safe. The DirectoryWatcher guards it with its own lock.
+ * </p>
+ */
+final class HeldEvents {
+  static final int MAX_HELD = 10000;
+
+  private final List<Event> events = new ArrayList<>();
+  private final DirectorySnapshot baseline;
+  private boolean overflowed = false;
+
+  /**
+   * @param baseline the tree to rescan against after an overflow, or null if
+   *                 the tree is rescanned against the entries already reported
+   */
+  HeldEvents(DirectorySnapshot baseline) {
+    this.baseline = baseline;
+  }
+
+  void hold(ChangeKind kind, Path entry, BasicFileAttributes attrs) {
+    if (overflowed) {
+      return;
+    }
+
+    if (events.size() < MAX_HELD) {
+      events.add(new Event(kind, entry, attrs));
+    } else {
+      events.clear();
+      overflowed = true;
+    }
+  }
+
+  List<Event> getEvents() {
+    return events;
+  }
+
+  /**
+   * @return whether held events were dropped, and the tree must be rescanned
+   */
+  boolean isOverflowed() {
+    return overflowed;
+  }
+
+  DirectorySnapshot getBaseline() {
+    return baseline;
+  }
+
+  static final class Event {
+    final ChangeKind kind;
+    final Path entry;
+    final BasicFileAttributes attrs;
+
+    Event(ChangeKind kind, Path entry, BasicFileAttributes attrs) {
+      this.kind = kind;
+      this.entry = entry;
+      this.attrs = attrs;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+
+/**
+ * An estimate of the number of events produced by a path, decayed over time
+ * so that recent events count for more than old ones.
+ *
+ * @see AbstractDirectoryWatchService#setHotPathTracking
+ */
+public class HotPath {
+  private final Path path;
+  private final double count;
+  private final double error;
+
+  HotPath(Path path, double count, double error) {
+    this.path = path;
+    this.count = count;
+    this.error = error;
+  }
+
+  public Path getPath() {
+    return this.path;
+  }
+
+  /**
+   * @return the estimated number of events, with each event weighed down by
+   * half for every half life that has passed since it was received. This is
+   * never less than the actual number.
+   */
+  public double getCount() {
+    return this.count;
+  }
+
+  /**
+   * @return the most the count may be overestimated by, because it includes
+   * events of paths that were evicted to make room for this one.
+   */
+  public double getError() {
+    return this.error;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s (%.1f events, +/- %.1f)", path, count, error);
+  }
+}
@@ -0,0 +1,160 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Walks the tree of a DirectoryWatcher, registering each directory and then
+ * reporting every tracked entry within it as an initial event. As each
+ * directory is registered before it is listed, nothing created during the
+ * walk is missed, although it may be both listed and reported by the
+ * WatchService. The paths reported are remembered so that such duplicates
+ * can be dropped.
+ * </p>
+ * <p>
+ * Directories are listed in parallel. The events are collected into batches,
+ * which are delivered in turn on the thread running the scan, so subscribers
+ * are never called concurrently. A directory is always reported before its
+ * contents.
+ * </p>
+ */
+final class InitialScan {
+  private static final int BATCH_SIZE = 512;
+
+  /* Bounds the number of batches listed ahead of delivery */
+  private static final int QUEUE_SIZE = 16;
+
+  private final DirectoryWatcher watcher;
+  private final Path root;
+  private final int maxDepth;
+
+  private final BlockingQueue<List<ChangeEvent>> batches = new LinkedBlockingQueue<>(QUEUE_SIZE);
+  private final Set<Path> reported = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+  InitialScan(DirectoryWatcher watcher, Path root, int maxDepth) {
+    this.watcher = watcher;
+    this.root = root;
+    this.maxDepth = maxDepth;
+  }
+
+  /**
+   * Walks the tree, delivering batches to the watcher as they are listed.
+   *
+   * @return the relative paths of the entries reported
+   */
+  Set<Path> run() {
+    watcher.registerDirectory(root);
+
+    ForkJoinPool pool = new ForkJoinPool();
+    try {
+      ForkJoinTask<Void> task = pool.submit(new ListTask(root, maxDepth));
+
+      while (true) {
+        List<ChangeEvent> batch = batches.poll(10, TimeUnit.MILLISECONDS);
+
+        if (batch != null) {
+          watcher.deliverInitial(batch);
+        } else if (task.isDone()) {
+          break;
+        }
+      }
+
+      // anything queued between the last poll and the task completing
+      List<ChangeEvent> batch;
+      while ((batch = batches.poll()) != null) {
+        watcher.deliverInitial(batch);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return reported;
+  }
+
+  private void enqueue(List<ChangeEvent> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    try {
+      batches.put(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private class ListTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final int depth;
+
+    ListTask(Path dir, int depth) {
+      this.dir = dir;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      List<ListTask> tasks = new ArrayList<>();
+      List<ChangeEvent> batch = new ArrayList<>();
+
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path child : stream) {
+          BasicFileAttributes attrs;
+          try {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (IOException e) {
+            continue;
+          }
+
+          if (attrs.isDirectory()) {
+            watcher.registerDirectory(child);
+
+            if (depth > 1) {
+              tasks.add(new ListTask(child, depth - 1));
+            }
+          }
+
+          Path relative = root.relativize(child);
+          if (!watcher.tracks(child, relative)) {
+            continue;
+          }
+
+          reported.add(relative);
+          batch.add(new ChangeEvent(watcher, ChangeKind.CREATED, relative, 0, attrs, true));
+
+          if (batch.size() == BATCH_SIZE) {
+            enqueue(batch);
+            batch = new ArrayList<>();
+          }
+        }
+      } catch (IOException | DirectoryIteratorException e) {
+        // unreadable directories are reported without their contents
+      }
+
+      // children are only listed once their parent has been queued
+      enqueue(batch);
+      invokeAll(tasks);
+    }
+  }
+}
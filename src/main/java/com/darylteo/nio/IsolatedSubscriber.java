@@ -0,0 +1,190 @@
+package com.darylteo.nio;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Wraps a subscriber that has been given a time budget for each event. While
+ * it stays within its budget, events are passed on directly. Once it has
+ * exceeded the budget on QUARANTINE_AFTER consecutive events, it is
+ * quarantined: from then on, events are queued to a thread of its own, so
+ * that it no longer holds up the watcher or other subscribers.
+ * </p>
+ * <p>
+ * If the queue of a quarantined subscriber fills up, it is paused, and
+ * events for it are dropped until it has worked through the queue.
+ * </p>
+ */
+final class IsolatedSubscriber extends DirectoryWatcherSubscriber {
+  static final int QUARANTINE_AFTER = 3;
+  static final int LANE_CAPACITY = 1024;
+
+  final DirectoryWatcherSubscriber subscriber;
+  private final DirectoryWatcher watcher;
+  private final long budget;
+  private final AtomicInteger overruns = new AtomicInteger();
+
+  /* Set once quarantined */
+  private volatile ThreadPoolExecutor lane;
+  private boolean paused = false;
+  private long dropped = 0;
+
+  IsolatedSubscriber(DirectoryWatcher watcher, DirectoryWatcherSubscriber subscriber, long budget) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("budget must be positive");
+    }
+
+    this.watcher = watcher;
+    this.subscriber = subscriber;
+    this.budget = budget;
+  }
+
+  boolean isQuarantined() {
+    return lane != null;
+  }
+
+  @Override
+  public void eventReceived(final ChangeEvent event) {
+    if (lane != null) {
+      enqueue(event, new Runnable() {
+        @Override
+        public void run() {
+          subscriber.eventReceived(event);
+        }
+      });
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      subscriber.eventReceived(event);
+    } finally {
+      returned(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void initialEventsReceived(final List<ChangeEvent> events) {
+    if (lane != null) {
+      enqueue(events.get(0), new Runnable() {
+        @Override
+        public void run() {
+          subscriber.initialEventsReceived(events);
+        }
+      });
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      subscriber.initialEventsReceived(events);
+    } finally {
+      returned(System.nanoTime() - start);
+    }
+  }
+
+  void close() {
+    ThreadPoolExecutor lane = this.lane;
+    if (lane != null) {
+      lane.shutdownNow();
+    }
+  }
+
+  /* Budget */
+  private void returned(long duration) {
+    if (duration <= budget) {
+      overruns.set(0);
+      return;
+    }
+
+    if (overruns.incrementAndGet() >= QUARANTINE_AFTER) {
+      quarantine();
+    }
+  }
+
+  private void quarantine() {
+    synchronized (this) {
+      if (lane != null) {
+        return;
+      }
+
+      lane = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(LANE_CAPACITY), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "DirectoryWatcher-Quarantine");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    WatchServiceMonitor monitor = watcher.getMonitor();
+    if (monitor != null) {
+      monitor.subscriberQuarantined(subscriber);
+    }
+  }
+
+  /* Lane */
+  private void enqueue(final ChangeEvent event, final Runnable delivery) {
+    synchronized (this) {
+      if (paused) {
+        dropped++;
+        return;
+      }
+
+      try {
+        lane.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              delivery.run();
+            } catch (RuntimeException e) {
+              watcher.subscriberFailed(subscriber, event, e);
+            }
+
+            drained();
+          }
+        });
+        return;
+      } catch (RejectedExecutionException e) {
+        if (lane.isShutdown()) {
+          return;
+        }
+
+        paused = true;
+        dropped = 1;
+      }
+    }
+
+    WatchServiceMonitor monitor = watcher.getMonitor();
+    if (monitor != null) {
+      monitor.subscriberPaused(subscriber);
+    }
+  }
+
+  /* Resumes a paused subscriber once it has caught up */
+  private void drained() {
+    long count;
+
+    synchronized (this) {
+      if (!paused || !lane.getQueue().isEmpty()) {
+        return;
+      }
+
+      count = dropped;
+      paused = false;
+      dropped = 0;
+    }
+
+    WatchServiceMonitor monitor = watcher.getMonitor();
+    if (monitor != null) {
+      monitor.subscriberResumed(subscriber, count);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.darylteo.nio;
+
+/**
+ * <p>
+ * A snapshot of the latencies recorded for one {@link LatencyStage} of a
+ * {@link DirectoryWatcher}, in nanoseconds.
+ * </p>
+ * <p>
+ * Values are counted in buckets whose width grows with their magnitude, so
+ * that any value is known to within about 3% however large it is. Percentiles
+ * are reported as the highest value of the bucket they fall into.
+ * </p>
+ *
+ * @see DirectoryWatcher#getLatency
+ */
+public class LatencyHistogram {
+  /* Values below 2^SUB_BITS are counted exactly; above, each power of two is split into HALF buckets */
+  static final int SUB_BITS = 6;
+  static final int HALF = 1 << (SUB_BITS - 1);
+  static final int BUCKETS = (64 - SUB_BITS + 1) * HALF;
+
+  private final long[] counts;
+  private final long count;
+  private final long total;
+  private final long max;
+
+  LatencyHistogram(long[] counts, long total, long max) {
+    long count = 0;
+    for (long c : counts) {
+      count += c;
+    }
+
+    this.counts = counts;
+    this.count = count;
+    this.total = total;
+    this.max = max;
+  }
+
+  /**
+   * @return the number of values recorded
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the largest value recorded, or 0 if there are none
+   */
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * @return the mean of the values recorded, or 0 if there are none
+   */
+  public double getMean() {
+    return count == 0 ? 0 : (double) total / count;
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the value at or below which the given percentage of the values
+   * recorded fall, or 0 if there are none
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100");
+    }
+
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highest(i), max);
+      }
+    }
+
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.0f p50=%d p99=%d p99.9=%d max=%d",
+      count, getMean(), getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), max);
+  }
+
+  /* Buckets */
+  static int index(long value) {
+    if (value < (1L << SUB_BITS)) {
+      return (int) Math.max(value, 0);
+    }
+
+    // keep the highest SUB_BITS bits of the value
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+    return (shift + 1) * HALF + (int) (value >>> shift) - HALF;
+  }
+
+  static long highest(int index) {
+    if (index < (1 << SUB_BITS)) {
+      return index;
+    }
+
+    int shift = index / HALF - 1;
+    long lowest = (long) (index % HALF + HALF) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,98 @@
+package com.darylteo.nio;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Records the latencies of each {@link LatencyStage} of a DirectoryWatcher.
+ * Recording a value costs a few atomic increments and never blocks, so it
+ * can be done from any number of threads on the path of every event.
+ * </p>
+ * <p>
+ * The time at which the WatchKey of an event was taken, and at which the
+ * watcher started handling it, are held for the thread handling the event,
+ * so that they can be stamped onto the events it leads to without being
+ * passed through every handler.
+ * </p>
+ */
+final class LatencyRecorder {
+  private static final ThreadLocal<Handling> handling = new ThreadLocal<Handling>() {
+    @Override
+    protected Handling initialValue() {
+      return new Handling();
+    }
+  };
+
+  private final Map<LatencyStage, Stage> stages = new EnumMap<>(LatencyStage.class);
+
+  LatencyRecorder() {
+    for (LatencyStage stage : LatencyStage.values()) {
+      stages.put(stage, new Stage());
+    }
+  }
+
+  void record(LatencyStage stage, long nanos) {
+    stages.get(stage).record(nanos);
+  }
+
+  LatencyHistogram snapshot(LatencyStage stage) {
+    return stages.get(stage).snapshot();
+  }
+
+  /* Handling */
+  static void begin(long received, long handled) {
+    Handling current = handling.get();
+    current.active = true;
+    current.received = received;
+    current.handled = handled;
+  }
+
+  static void end() {
+    handling.get().active = false;
+  }
+
+  /* Stamps the event with the times held for this thread, if any, and records the stages before delivery */
+  void accepted(ChangeEvent event, long now) {
+    Handling current = handling.get();
+    if (!current.active) {
+      return;
+    }
+
+    event.stamp(current.received, now);
+    record(LatencyStage.DISPATCH, current.handled - current.received);
+    record(LatencyStage.FILTER, now - current.handled);
+  }
+
+  private static class Handling {
+    private boolean active;
+    private long received;
+    private long handled;
+  }
+
+  private static class Stage {
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+      counts.incrementAndGet(LatencyHistogram.index(nanos));
+      total.addAndGet(nanos);
+
+      long current;
+      while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+      }
+    }
+
+    LatencyHistogram snapshot() {
+      long[] copy = new long[counts.length()];
+      for (int i = 0; i < copy.length; i++) {
+        copy[i] = counts.get(i);
+      }
+
+      return new LatencyHistogram(copy, total.get(), max.get());
+    }
+  }
+}
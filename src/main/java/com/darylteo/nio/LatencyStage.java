@@ -0,0 +1,43 @@
+package com.darylteo.nio;
+
+/**
+ * The stages an event passes through between the WatchService and the
+ * subscribers of a {@link DirectoryWatcher}, each of which is measured
+ * separately once latency tracking is enabled.
+ *
+ * @see DirectoryWatcher#enableLatencyTracking
+ */
+public enum LatencyStage {
+  /**
+   * From the WatchKey being taken from the WatchService until the watcher
+   * starts handling the event. Includes time spent behind other events of the
+   * same key, and waiting for a dispatch thread of a
+   * {@link ThreadPoolDirectoryWatchService}.
+   */
+  DISPATCH,
+
+  /**
+   * From the watcher starting to handle the event until it has passed the
+   * filters and is ready for delivery. Includes reading attributes, updating
+   * the index, and registering new directories.
+   */
+  FILTER,
+
+  /**
+   * From the event being ready for delivery until it is taken off the
+   * delivery buffer. Only measured while buffering is enabled, and not for
+   * events that were spilled to disk.
+   */
+  QUEUE,
+
+  /**
+   * The time taken by each subscriber to handle the event.
+   */
+  SUBSCRIBER,
+
+  /**
+   * From the WatchKey being taken from the WatchService until all subscribers
+   * have handled the event.
+   */
+  TOTAL
+}
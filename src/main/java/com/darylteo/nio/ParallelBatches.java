@@ -0,0 +1,160 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Handles the events of a single WatchKey on several threads. Events are
+ * split into partitions by the name of their entry, and each partition is
+ * handled in order, so that events for the same entry are never reordered.
+ * Events for different entries of the directory may be handled in any
+ * order relative to each other.
+ * </p>
+ * <p>
+ * The calling thread handles overflows and the first partition itself, and
+ * waits for the others before returning, so that the key is only reset once
+ * all of its events have been handled.
+ * </p>
+ * <p>
+ * This means that {@link AbstractDirectoryWatchService#handleEvents} runs
+ * for the same key, and so the same DirectoryWatcher, on several threads at
+ * once. DirectoryWatcher guards the state shared between entries (its
+ * registered directories, index, storms, walked entries and held events)
+ * with locks or concurrent collections of its own, and subscribers already
+ * have to accept events from several threads of a
+ * {@link ThreadPoolDirectoryWatchService}.
+ * </p>
+ */
+final class ParallelBatches {
+  private final AbstractDirectoryWatchService service;
+  private final ExecutorService executor;
+  private final int parallelism;
+  private final int threshold;
+
+  ParallelBatches(AbstractDirectoryWatchService service, int parallelism, int threshold) {
+    if (parallelism < 2 || threshold < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 2, and threshold at least 1");
+    }
+
+    this.service = service;
+    this.parallelism = parallelism;
+    this.threshold = threshold;
+    this.executor = Executors.newFixedThreadPool(parallelism - 1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "DirectoryWatcher-Batch");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * @return whether a batch of the given size should be handled in parallel
+   */
+  boolean accepts(int size) {
+    return size >= threshold;
+  }
+
+  /**
+   * @return the number of events handled, not counting overflows
+   */
+  int handle(final WatchKey key, List<WatchEvent<?>> events, final long start) {
+    List<WatchEvent<?>> overflows = new ArrayList<>();
+    List<List<WatchEvent<?>>> partitions = partition(events, overflows);
+    List<Future<Integer>> futures = new ArrayList<>();
+
+    if (!overflows.isEmpty()) {
+      service.handleEvents(key, overflows, start);
+    }
+
+    for (final List<WatchEvent<?>> partition : partitions.subList(1, partitions.size())) {
+      if (partition.isEmpty()) {
+        continue;
+      }
+
+      try {
+        futures.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            return service.handleEvents(key, partition, start);
+          }
+        }));
+      } catch (RejectedExecutionException e) {
+        // shut down while handling the batch
+        partitions.get(0).addAll(partition);
+      }
+    }
+
+    int count = service.handleEvents(key, partitions.get(0), start);
+
+    // every partition is waited for, even when interrupted, so the key is not reset early
+    boolean interrupted = false;
+    Error error = null;
+
+    for (Future<Integer> future : futures) {
+      while (true) {
+        try {
+          count += future.get();
+          break;
+        } catch (ExecutionException e) {
+          // failures of single events are reported by handleEvents, so this is anything else
+          Throwable cause = e.getCause();
+          if (cause instanceof Error) {
+            error = (Error) cause;
+          } else {
+            service.eventFailed(key, null, cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause));
+          }
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (error != null) {
+      throw error;
+    }
+
+    return count;
+  }
+
+  void close() {
+    executor.shutdownNow();
+  }
+
+  private List<List<WatchEvent<?>>> partition(List<WatchEvent<?>> events, List<WatchEvent<?>> overflows) {
+    List<List<WatchEvent<?>>> partitions = new ArrayList<>(parallelism);
+    for (int i = 0; i < parallelism; i++) {
+      partitions.add(new ArrayList<WatchEvent<?>>(events.size() / parallelism + 1));
+    }
+
+    for (WatchEvent<?> event : events) {
+      // overflows have no entry, and are handled apart from the partitions
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        overflows.add(event);
+        continue;
+      }
+
+      Path name = (Path) event.context();
+      partitions.get((name.hashCode() & 0x7FFFFFFF) % parallelism).add(event);
+    }
+
+    return partitions;
+  }
+}
@@ -22,5 +22,6 @@ public class PollingDirectoryWatchService extends AbstractDirectoryWatchService
    */
   public void poll() {
     super.handleWatchKey(super.getWatchService().poll());
+    super.handleTick();
   }
 }
@@ -0,0 +1,62 @@
+package com.darylteo.nio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of replaying a trace with a {@link TraceReplayer}.
+ */
+public class ReplayResult {
+  private final long events;
+  private final long overflows;
+  private final long duration;
+  private final LatencyHistogram latency;
+
+  ReplayResult(long events, long overflows, long duration, LatencyHistogram latency) {
+    this.events = events;
+    this.overflows = overflows;
+    this.duration = duration;
+    this.latency = latency;
+  }
+
+  /**
+   * @return the number of events replayed
+   */
+  public long getEvents() {
+    return events;
+  }
+
+  /**
+   * @return the number of overflows in the trace, which are not replayed
+   */
+  public long getOverflows() {
+    return overflows;
+  }
+
+  /**
+   * @return the time taken by the replay, in nanoseconds
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /**
+   * @return the number of events replayed per second
+   */
+  public double getThroughput() {
+    return duration == 0 ? 0 : events * (double) TimeUnit.SECONDS.toNanos(1) / duration;
+  }
+
+  /**
+   * @return for each event, the time from when it was due until every
+   * watcher had handled it, in nanoseconds. Where events are handed to a
+   * delivery buffer, time spent in the buffer is not included.
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("events=%d overflows=%d throughput=%.0f/s latency: %s", events, overflows, getThroughput(), latency);
+  }
+}
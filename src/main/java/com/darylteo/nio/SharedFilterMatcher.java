@@ -0,0 +1,362 @@
+package com.darylteo.nio;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Evaluates the path filters of many watchers at once. The base paths of all
+ * watchers and their filters are compiled into a single trie over path
+ * segments, so that a single pass over an absolute path decides whether it
+ * is tracked by every watcher. Watchers with the same filters below a common
+ * directory share the nodes of the trie.
+ * </p>
+ * <p>
+ * Filters are made of literal segments, segments with * wildcards, and **.
+ * Following the regular expressions they are otherwise compiled into,
+ * <code>**&#47;x</code> matches any number of segments followed by a segment
+ * ending in x, and a trailing ** matches one or more further segments.
+ * Watchers with filters that do not fit this model (such as those using ?,
+ * which can match a separator) are not covered, and keep matching on their
+ * own.
+ * </p>
+ * <p>
+ * The trie is rebuilt whenever a filter is added, and replaced atomically.
+ * The result of the most recent query is remembered per thread, as the same
+ * path is usually queried by every watcher in turn.
+ * </p>
+ */
+final class SharedFilterMatcher {
+  private static final int BASE = 1;
+  private static final int INCLUDED = 2;
+  private static final int EXCLUDED = 4;
+
+  private static final String SPECIAL = "?\\^$|+()[]{}";
+
+  private volatile Trie trie = new Trie();
+
+  private final ThreadLocal<Result> last = new ThreadLocal<>();
+
+  /**
+   * Recompiles the filters of the given watchers.
+   */
+  void rebuild(List<DirectoryWatcher> watchers) {
+    Trie trie = new Trie();
+
+    for (DirectoryWatcher watcher : watchers) {
+      List<List<String>> includes = parse(watcher, watcher.getIncludeFilters());
+      List<List<String>> excludes = parse(watcher, watcher.getExcludeFilters());
+      if (includes == null || excludes == null) {
+        continue;
+      }
+
+      Node base = trie.root;
+      for (String segment : segments(watcher.getPath())) {
+        base = base.literal(segment);
+      }
+      base.bases.add(watcher);
+
+      for (List<String> filter : includes) {
+        insert(base, filter, new Mark(watcher, INCLUDED));
+      }
+      for (List<String> filter : excludes) {
+        insert(base, filter, new Mark(watcher, EXCLUDED));
+      }
+
+      trie.covered.put(watcher, Boolean.TRUE);
+    }
+
+    this.trie = trie;
+  }
+
+  boolean covers(DirectoryWatcher watcher) {
+    return trie.covered.containsKey(watcher);
+  }
+
+  /**
+   * @param watcher  a watcher that is covered
+   * @param absolute the absolute path of the entry
+   * @return whether the path filters of the watcher accept the entry
+   */
+  boolean tracks(DirectoryWatcher watcher, Path absolute, boolean includeAll) {
+    Integer flags = query(absolute).get(watcher);
+    if (flags == null || (flags & BASE) == 0) {
+      return false;
+    }
+
+    return (includeAll || (flags & INCLUDED) != 0) && (flags & EXCLUDED) == 0;
+  }
+
+  /* Query */
+  private Map<DirectoryWatcher, Integer> query(Path absolute) {
+    Trie trie = this.trie;
+    Result result = last.get();
+    if (result != null && result.trie == trie && result.path.equals(absolute)) {
+      return result.flags;
+    }
+
+    Map<DirectoryWatcher, Integer> flags = new IdentityHashMap<>();
+    List<String> segments = segments(absolute);
+
+    List<Node> nodes = new ArrayList<>();
+    List<Edge> skips = new ArrayList<>();
+    arrive(trie.root, nodes, skips, flags);
+
+    for (String segment : segments) {
+      List<Node> next = new ArrayList<>();
+
+      for (Node node : nodes) {
+        // a trailing ** matches as long as there is at least one more segment
+        mark(node.remainder, flags);
+
+        Node child = node.literals.get(segment);
+        if (child != null) {
+          next.add(child);
+        }
+
+        for (Edge edge : node.globs) {
+          if (edge.matches(segment)) {
+            next.add(edge.target);
+          }
+        }
+      }
+
+      for (Edge skip : skips) {
+        if (skip.matches(segment)) {
+          next.add(skip.target);
+        }
+      }
+
+      nodes = new ArrayList<>();
+      for (Node node : next) {
+        arrive(node, nodes, skips, flags);
+      }
+
+      if (nodes.isEmpty() && skips.isEmpty()) {
+        break;
+      }
+    }
+
+    for (Node node : nodes) {
+      mark(node.marks, flags);
+    }
+
+    result = new Result(trie, absolute, flags);
+    last.set(result);
+
+    return flags;
+  }
+
+  private static void arrive(Node node, List<Node> nodes, List<Edge> skips, Map<DirectoryWatcher, Integer> flags) {
+    nodes.add(node);
+    skips.addAll(node.skips);
+
+    for (DirectoryWatcher watcher : node.bases) {
+      Integer current = flags.get(watcher);
+      flags.put(watcher, (current == null ? 0 : current) | BASE);
+    }
+  }
+
+  private static void mark(List<Mark> marks, Map<DirectoryWatcher, Integer> flags) {
+    for (Mark mark : marks) {
+      Integer current = flags.get(mark.watcher);
+      flags.put(mark.watcher, (current == null ? 0 : current) | mark.flag);
+    }
+  }
+
+  /* Compilation */
+
+  /* Returns null if any of the filters cannot be represented */
+  private static List<List<String>> parse(DirectoryWatcher watcher, List<String> filters) {
+    if (!watcher.getSeparator().equals(File.separator)) {
+      return null;
+    }
+
+    List<List<String>> parsed = new ArrayList<>();
+
+    for (String filter : filters) {
+      if (filter.endsWith("/") || filter.endsWith("\\")) {
+        filter = filter + "**";
+      }
+
+      List<String> segments = new ArrayList<>();
+      for (String sub : filter.split("[/\\\\]")) {
+        if (sub.isEmpty()) {
+          return null;
+        }
+        for (int i = 0; i < sub.length(); i++) {
+          if (SPECIAL.indexOf(sub.charAt(i)) >= 0) {
+            return null;
+          }
+        }
+
+        // consecutive ** are equivalent to one
+        if (sub.equals("**") && !segments.isEmpty() && segments.get(segments.size() - 1).equals("**")) {
+          continue;
+        }
+        segments.add(sub);
+      }
+
+      parsed.add(segments);
+    }
+
+    return parsed;
+  }
+
+  private static void insert(Node node, List<String> filter, Mark mark) {
+    for (int i = 0; i < filter.size(); i++) {
+      String segment = filter.get(i);
+
+      if (segment.equals("**")) {
+        if (i == filter.size() - 1) {
+          // ** on its own also matches the base itself
+          if (i == 0) {
+            node.marks.add(mark);
+          }
+          node.remainder.add(mark);
+          return;
+        }
+
+        // ** followed by x is any number of segments, then one ending in x
+        segment = filter.get(++i);
+        node = node.skip("*" + segment);
+      } else if (segment.indexOf('*') >= 0) {
+        node = node.glob(segment);
+      } else {
+        node = node.literal(segment);
+      }
+    }
+
+    node.marks.add(mark);
+  }
+
+  private static List<String> segments(Path path) {
+    List<String> segments = new ArrayList<>();
+
+    if (path.getRoot() != null) {
+      segments.add(path.getRoot().toString());
+    }
+    for (Path name : path) {
+      segments.add(name.toString());
+    }
+
+    return segments;
+  }
+
+  /* Structure */
+  private static class Trie {
+    private final Node root = new Node();
+    private final Map<DirectoryWatcher, Boolean> covered = new IdentityHashMap<>();
+  }
+
+  private static class Node {
+    private final Map<String, Node> literals = new HashMap<>();
+    private final List<Edge> globs = new ArrayList<>();
+    private final List<Edge> skips = new ArrayList<>();
+
+    /* Watchers based here, filters ending here, and filters ending here with ** */
+    private final Set<DirectoryWatcher> bases = Collections.newSetFromMap(new IdentityHashMap<DirectoryWatcher, Boolean>());
+    private final List<Mark> marks = new ArrayList<>();
+    private final List<Mark> remainder = new ArrayList<>();
+
+    Node literal(String segment) {
+      Node child = literals.get(segment);
+      if (child == null) {
+        child = new Node();
+        literals.put(segment, child);
+      }
+
+      return child;
+    }
+
+    Node glob(String pattern) {
+      return edge(globs, pattern).target;
+    }
+
+    Node skip(String pattern) {
+      return edge(skips, pattern).target;
+    }
+
+    private static Edge edge(List<Edge> edges, String pattern) {
+      for (Edge edge : edges) {
+        if (edge.pattern.equals(pattern)) {
+          return edge;
+        }
+      }
+
+      Edge edge = new Edge(pattern);
+      edges.add(edge);
+      return edge;
+    }
+  }
+
+  /* A single segment with * wildcards */
+  private static class Edge {
+    private final String pattern;
+    private final String[] parts;
+    private final Node target = new Node();
+
+    Edge(String pattern) {
+      this.pattern = pattern;
+      this.parts = pattern.split("\\*", -1);
+    }
+
+    boolean matches(String segment) {
+      if (parts.length == 1) {
+        return segment.equals(pattern);
+      }
+
+      String first = parts[0];
+      String last = parts[parts.length - 1];
+
+      if (!segment.startsWith(first)) {
+        return false;
+      }
+
+      int from = first.length();
+      int to = segment.length() - last.length();
+      if (to < from || !segment.endsWith(last)) {
+        return false;
+      }
+
+      for (int i = 1; i < parts.length - 1; i++) {
+        int found = segment.indexOf(parts[i], from);
+        if (found < 0 || found + parts[i].length() > to) {
+          return false;
+        }
+        from = found + parts[i].length();
+      }
+
+      return true;
+    }
+  }
+
+  private static class Mark {
+    private final DirectoryWatcher watcher;
+    private final int flag;
+
+    Mark(DirectoryWatcher watcher, int flag) {
+      this.watcher = watcher;
+      this.flag = flag;
+    }
+  }
+
+  private static class Result {
+    private final Trie trie;
+    private final Path path;
+    private final Map<DirectoryWatcher, Integer> flags;
+
+    Result(Trie trie, Path path, Map<DirectoryWatcher, Integer> flags) {
+      this.trie = trie;
+      this.path = path;
+      this.flags = flags;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <p>
+ * Decouples subscribers from event handling. Events are queued in memory up
+ * to a fixed capacity and delivered in order by a dedicated thread. Once the
+ * capacity is reached, further events are appended to a file, and read back
+ * in batches as the subscribers catch up. The file is only created once the
+ * first event spills, and is truncated whenever it has been fully drained.
+ * </p>
+ * <p>
+ * Only the kind, path, sequence number and whether it is initial are kept
+ * for a spilled event. Attributes read while handling it are dropped and
+ * read again if a subscriber asks for them. Its latency stamps are dropped
+ * too, so it is left out of the latency recorded for delivery.
+ * </p>
+ * <p>
+ * Records are encoded as a variable length sequence number, a kind byte
+ * (with the high bit set for initial events), and a variable length byte
+ * count followed by the UTF-8 bytes of the path.
+ * </p>
+ */
+final class SpillingEventBuffer implements Runnable {
+  private static final int BLOCK_SIZE = 64 * 1024;
+  private static final ChangeKind[] KINDS = ChangeKind.values();
+
+  /* Set in the kind byte of initial events */
+  private static final int INITIAL = 0x80;
+
+  private final DirectoryWatcher watcher;
+  private final int capacity;
+  private final boolean temporary;
+
+  /* Created on the first spill, if temporary */
+  private Path file;
+
+  private final Deque<ChangeEvent> memory = new ArrayDeque<>();
+  private final Thread thread;
+  private boolean closed = false;
+
+  /* Spill file; writes are appended to writeBuffer until it is full or read back */
+  private FileChannel channel;
+  private ByteBuffer writeBuffer = ByteBuffer.allocate(BLOCK_SIZE);
+  private ByteBuffer readBuffer = ByteBuffer.allocate(BLOCK_SIZE);
+  private long writePosition = 0;
+  private long readPosition = 0;
+  private long spilled = 0;
+
+  SpillingEventBuffer(DirectoryWatcher watcher, int capacity, Path file) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+
+    this.watcher = watcher;
+    this.capacity = capacity;
+    this.temporary = file == null;
+    this.file = file;
+
+    this.thread = new Thread(this, "DirectoryWatcher-Delivery");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * @return the number of events waiting to be delivered
+   */
+  synchronized long size() {
+    return memory.size() + spilled;
+  }
+
+  /**
+   * @return the number of events waiting in the spill file
+   */
+  synchronized long spilled() {
+    return spilled;
+  }
+
+  synchronized void offer(ChangeEvent event) {
+    if (closed) {
+      return;
+    }
+
+    // once anything has spilled, new events must follow it through the file
+    if (spilled == 0 && memory.size() < capacity) {
+      memory.add(event);
+    } else {
+      try {
+        write(event);
+        spilled++;
+      } catch (IOException e) {
+        // keeping the event in memory is better than losing it
+        memory.add(event);
+      }
+    }
+
+    notifyAll();
+  }
+
+  private synchronized ChangeEvent take() throws InterruptedException {
+    while (memory.isEmpty()) {
+      if (closed) {
+        return null;
+      }
+
+      if (spilled > 0) {
+        try {
+          refill();
+        } catch (IOException e) {
+          // the spilled events cannot be recovered
+          spilled = 0;
+          try {
+            reset();
+          } catch (IOException e1) {
+          }
+        }
+      } else {
+        wait();
+      }
+    }
+
+    return memory.poll();
+  }
+
+  @Override
+  public void run() {
+    try {
+      ChangeEvent event;
+      while ((event = take()) != null) {
+        try {
+          watcher.publish(event);
+        } catch (RuntimeException e) {
+          // failures of subscribers are reported by publish, so this is anything else
+          watcher.subscriberFailed(null, event, e);
+        }
+      }
+    } catch (InterruptedException e) {
+    }
+  }
+
+  void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      memory.clear();
+      notifyAll();
+    }
+
+    thread.interrupt();
+
+    synchronized (this) {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      if (temporary && file != null) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  /* Spill File */
+  private void write(ChangeEvent event) throws IOException {
+    byte[] path = event.getPath().toString().getBytes(StandardCharsets.UTF_8);
+    int size = 10 + 1 + 5 + path.length;
+
+    if (writeBuffer.remaining() < size) {
+      flush();
+      if (writeBuffer.capacity() < size) {
+        writeBuffer = ByteBuffer.allocate(size);
+      }
+    }
+
+    putVarLong(writeBuffer, event.getSequence());
+    writeBuffer.put((byte) (event.getKind().ordinal() | (event.isInitial() ? INITIAL : 0)));
+    putVarLong(writeBuffer, path.length);
+    writeBuffer.put(path);
+  }
+
+  private void flush() throws IOException {
+    if (writeBuffer.position() == 0) {
+      return;
+    }
+
+    if (channel == null) {
+      if (file == null) {
+        file = Files.createTempFile("directory-watcher", ".spill");
+      }
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    writeBuffer.flip();
+    while (writeBuffer.hasRemaining()) {
+      writePosition += channel.write(writeBuffer, writePosition);
+    }
+    writeBuffer.clear();
+  }
+
+  /* Moves spilled events back into memory, up to the capacity */
+  private void refill() throws IOException {
+    flush();
+
+    while (spilled > 0 && memory.size() < capacity) {
+      int read = 0;
+      if (readPosition < writePosition && readBuffer.hasRemaining()) {
+        read = Math.max(0, channel.read(readBuffer, readPosition));
+        readPosition += read;
+      }
+
+      readBuffer.flip();
+      int decoded = 0;
+      while (memory.size() < capacity) {
+        ChangeEvent event = decode(readBuffer);
+        if (event == null) {
+          break;
+        }
+
+        memory.add(event);
+        spilled--;
+        decoded++;
+      }
+      readBuffer.compact();
+
+      if (decoded == 0 && read == 0 && readBuffer.hasRemaining()) {
+        throw new IOException("Spill file is truncated");
+      }
+      if (decoded == 0 && !readBuffer.hasRemaining()) {
+        // a single record larger than the buffer
+        ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+      }
+    }
+
+    if (spilled == 0) {
+      reset();
+    }
+  }
+
+  private void reset() throws IOException {
+    if (channel != null) {
+      channel.truncate(0);
+    }
+
+    writePosition = 0;
+    readPosition = 0;
+    writeBuffer.clear();
+    readBuffer.clear();
+  }
+
+  private ChangeEvent decode(ByteBuffer buffer) {
+    int start = buffer.position();
+
+    long sequence = getVarLong(buffer);
+    if (sequence < 0 || !buffer.hasRemaining()) {
+      buffer.position(start);
+      return null;
+    }
+
+    int kind = buffer.get() & 0xFF;
+    long length = getVarLong(buffer);
+    if (length < 0 || buffer.remaining() < length) {
+      buffer.position(start);
+      return null;
+    }
+
+    byte[] path = new byte[(int) length];
+    buffer.get(path);
+
+    return new ChangeEvent(watcher, KINDS[kind & ~INITIAL], Paths.get(new String(path, StandardCharsets.UTF_8)), sequence, null, (kind & INITIAL) != 0);
+  }
+
+  private static void putVarLong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /* Returns -1 if the buffer ends before the value does */
+  private static long getVarLong(ByteBuffer buffer) {
+    long value = 0;
+
+    for (int shift = 0; buffer.hasRemaining(); shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    return -1;
+  }
+}
@@ -0,0 +1,336 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * <p>
+ * Detects subtrees whose event rate exceeds a threshold, and absorbs the
+ * events below them until activity dies down. Each event counts towards the
+ * directory it happened in and each of its ancestors up to the top level
+ * directory of the watcher, so that a mass operation spread thinly over a
+ * deep tree, such as rm -rf, is caught as well. The storm covers the deepest
+ * of those directories to cross the threshold. Once a subtree
+ * has been quiet for a full interval, it is scanned once and the net changes
+ * since the storm started are passed on to the DirectoryWatcher.
+ * </p>
+ * <p>
+ * A snapshot of the subtree is taken when the storm starts, without holding
+ * the lock, so that events elsewhere are not held up. Events absorbed before
+ * it completes, or already queued at that point, may describe changes that
+ * are part of the snapshot, so the entries named by absorbed events are kept
+ * as well, and are reported from their last known change if the scan alone
+ * would miss them.
+ * </p>
+ */
+final class StormDetector {
+  private final DirectoryWatcher watcher;
+
+  private int threshold = 0;
+  private long interval;
+
+  private final Map<Path, Rate> rates = new HashMap<>();
+  private final Map<Path, Storm> storms = new HashMap<>();
+
+  /* Storms whose subtrees are being rescanned */
+  private final Set<Path> ending = new HashSet<>();
+
+  StormDetector(DirectoryWatcher watcher) {
+    this.watcher = watcher;
+  }
+
+  synchronized void configure(int threshold, long interval) {
+    this.threshold = threshold;
+    this.interval = interval;
+    this.rates.clear();
+  }
+
+  synchronized Set<Path> getStormPaths() {
+    Set<Path> paths = new HashSet<>(storms.keySet());
+    paths.addAll(ending);
+    return paths;
+  }
+
+  /**
+   * @return true if the event belongs to a storm and should not be handled
+   * individually.
+   */
+  boolean absorb(Path dir, Path entry, ChangeKind kind, long now) {
+    Storm started;
+
+    synchronized (this) {
+      if (threshold <= 0 && storms.isEmpty()) {
+        return false;
+      }
+
+      Storm storm = find(dir);
+      if (storm != null) {
+        storm.absorb(entry, kind, now);
+        return true;
+      }
+
+      if (threshold <= 0) {
+        return false;
+      }
+
+      Path stormy = hit(dir, now);
+      if (stormy == null) {
+        return false;
+      }
+
+      started = start(stormy);
+      started.absorb(entry, kind, now);
+    }
+
+    DirectorySnapshot snapshot;
+    try {
+      snapshot = watcher.snapshot(started.root);
+    } catch (IOException e) {
+      // gone already, so everything absorbed is reported from its last known change
+      snapshot = DirectorySnapshot.empty(started.root);
+    }
+
+    synchronized (this) {
+      // storms absorbed at the start keep their older snapshots as the
+      // baseline for their subtrees, once they have them
+      for (Storm inner : started.inner) {
+        while (inner.snapshot == null) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+
+        if (inner.snapshot != null) {
+          snapshot.merge(inner.snapshot);
+        }
+      }
+
+      started.inner.clear();
+      started.snapshot = snapshot;
+      notifyAll();
+    }
+
+    return true;
+  }
+
+  /**
+   * Ends all storms that have been quiet for a full interval. The subtrees
+   * are rescanned without holding the lock, so that events elsewhere are not
+   * held up.
+   */
+  void settle(long now) {
+    List<Storm> ended = new ArrayList<>();
+
+    synchronized (this) {
+      if (storms.isEmpty()) {
+        return;
+      }
+
+      Iterator<Storm> it = storms.values().iterator();
+      while (it.hasNext()) {
+        Storm storm = it.next();
+
+        // storms still taking their snapshot carry on
+        if (storm.snapshot != null && now - storm.last >= interval) {
+          it.remove();
+          ended.add(storm);
+          ending.add(storm.root);
+        }
+      }
+    }
+
+    for (Storm storm : ended) {
+      try {
+        storm.end();
+      } finally {
+        synchronized (this) {
+          ending.remove(storm.root);
+        }
+      }
+    }
+  }
+
+  synchronized void forget(Path dir) {
+    rates.remove(dir);
+  }
+
+  /*
+   * Counts the event for the directory and its ancestors below the root of
+   * the watcher, returning the deepest of them over the threshold, if any
+   */
+  private Path hit(Path dir, long now) {
+    Path root = watcher.getPath();
+    Path stormy = null;
+
+    for (Path p = dir; p != null && p.startsWith(root); p = p.getParent()) {
+      // the root only counts events directly within it, so that activity in
+      // one subtree does not add up with that of the others
+      if (p.equals(root) && !p.equals(dir)) {
+        break;
+      }
+
+      Rate rate = rates.get(p);
+      if (rate == null) {
+        rate = new Rate(now);
+        rates.put(p, rate);
+      }
+
+      if (rate.hit(now) && stormy == null) {
+        stormy = p;
+      }
+    }
+
+    return stormy;
+  }
+
+  private Storm find(Path dir) {
+    for (Path p = dir; p != null; p = p.getParent()) {
+      Storm storm = storms.get(p);
+      if (storm != null) {
+        return storm;
+      }
+    }
+
+    return null;
+  }
+
+  /* Starts a storm whose snapshot is yet to be taken */
+  private Storm start(Path dir) {
+    Storm storm = new Storm(dir);
+
+    // absorb any storms already running below this directory
+    Iterator<Storm> it = storms.values().iterator();
+    while (it.hasNext()) {
+      Storm inner = it.next();
+
+      if (inner.root.startsWith(dir)) {
+        storm.inner.add(inner);
+        storm.pending.putAll(inner.pending);
+        it.remove();
+      }
+    }
+
+    // counts within the subtree start over once the storm has ended
+    Iterator<Path> counted = rates.keySet().iterator();
+    while (counted.hasNext()) {
+      if (counted.next().startsWith(dir)) {
+        counted.remove();
+      }
+    }
+    storms.put(dir, storm);
+
+    return storm;
+  }
+
+  /*
+   * Counts events for a subtree in fixed windows.
+   */
+  private class Rate {
+    private long start;
+    private int count = 0;
+
+    Rate(long now) {
+      this.start = now;
+    }
+
+    boolean hit(long now) {
+      if (now - start >= interval) {
+        start = now;
+        count = 0;
+      }
+
+      return ++count > threshold;
+    }
+  }
+
+  private class Storm {
+    private final Path root;
+    private final Map<Path, ChangeKind> pending = new HashMap<>();
+    private long last;
+
+    /* Set once taken, after merging those of the storms it absorbed */
+    private DirectorySnapshot snapshot;
+    private final List<Storm> inner = new ArrayList<>();
+
+    Storm(Path root) {
+      this.root = root;
+    }
+
+    void absorb(Path entry, ChangeKind kind, long now) {
+      ChangeKind net = ChangeKind.merge(pending.get(entry), kind);
+      if (net == null) {
+        pending.remove(entry);
+      } else {
+        pending.put(entry, net);
+      }
+
+      last = now;
+    }
+
+    void end() {
+      final DirectorySnapshot after;
+
+      try {
+        after = Files.isDirectory(root) ? watcher.snapshot(root) : DirectorySnapshot.empty(root);
+      } catch (IOException e) {
+        return;
+      }
+
+      final Set<Path> reported = new HashSet<>();
+
+      snapshot.diff(after, new DirectorySnapshot.Listener() {
+        @Override
+        public void entryCreated(Path path, DirectorySnapshot.Entry entry) {
+          reported.add(path);
+          created(path, entry);
+        }
+
+        @Override
+        public void entryModified(Path path, DirectorySnapshot.Entry entry) {
+          reported.add(path);
+          watcher.entryModified(path);
+        }
+
+        @Override
+        public void entryDeleted(Path path, DirectorySnapshot.Entry entry) {
+          reported.add(path);
+          watcher.entryDeleted(path);
+        }
+      });
+
+      for (Map.Entry<Path, ChangeKind> change : pending.entrySet()) {
+        Path path = change.getKey();
+        if (reported.contains(path) || path.equals(root)) {
+          continue;
+        }
+
+        DirectorySnapshot.Entry entry = after.get(path);
+        if (entry != null) {
+          if (change.getValue() == ChangeKind.CREATED) {
+            created(path, entry);
+          } else {
+            watcher.entryModified(path);
+          }
+        } else if (snapshot.get(path) == null && change.getValue() == ChangeKind.DELETED) {
+          watcher.entryDeleted(path);
+        }
+      }
+    }
+
+    private void created(Path path, DirectorySnapshot.Entry entry) {
+      if (entry.isDirectory()) {
+        watcher.registerDirectory(path);
+      }
+
+      try {
+        watcher.entryCreated(path);
+      } catch (IOException e) {
+      }
+    }
+  }
+}
@@ -0,0 +1,383 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * A subclass of {@link DirectoryWatcherSubscriber} for following files that
+ * are appended to, such as logs. An open channel and read position is kept
+ * for each file, so that when it is modified only the bytes appended since
+ * the last event are handed over.
+ * </p>
+ * <pre>
+ * watcher.subscribe(new TailSubscriber() {
+ *   public void bytesAppended(DirectoryWatcher watcher, Path file, ByteBuffer data) {
+ *     // ...
+ *   }
+ * });
+ * </pre>
+ * <p>
+ * To pass the bytes on without copying them, override
+ * {@link #regionAppended} instead, and transfer the region directly from the
+ * file.
+ * </p>
+ * <pre>
+ * public void regionAppended(DirectoryWatcher watcher, Path file, FileChannel channel, long position, long count) throws IOException {
+ *   while (count > 0) {
+ *     long transferred = channel.transferTo(position, count, target);
+ *     position += transferred;
+ *     count -= transferred;
+ *   }
+ * }
+ * </pre>
+ * <p>
+ * Each event hands over everything appended up to that point, so a burst of
+ * modifications is coalesced into as few reads as the subscriber can keep up
+ * with. A file that shrinks is treated as truncated, and read again from the
+ * start. A file that is replaced by another with the same name, which is
+ * recognised by its file key, is treated as rotated: the remainder of the
+ * old file is handed over first, then the new file is read from the start.
+ * </p>
+ * <p>
+ * Files created while subscribed are read from the start. Files that already
+ * existed are read from their size at the time of subscribing, which is
+ * recorded by listing the tree of the watcher, up to MAX_EXISTING entries.
+ * Any others are read from their size at the time they were first seen. Paths
+ * passed to the callbacks are relative to the watcher, as with other events.
+ * </p>
+ * <p>
+ * At most maxOpenFiles channels are kept open. Once more files are followed,
+ * the channel of the least recently modified one is closed, and opened again
+ * from the same position by its next modification.
+ * </p>
+ */
+public abstract class TailSubscriber extends DirectoryWatcherSubscriber implements AutoCloseable {
+  private static final int DEFAULT_MAX_OPEN_FILES = 1000;
+
+  /* Files that existed when subscribing are only recorded up to this many entries */
+  private static final int MAX_EXISTING = 10000;
+
+  /* Regions are handed over in chunks of at most this size */
+  private static final long MAX_CHUNK = 64 * 1024 * 1024;
+
+  /* Bytes are read into a buffer of this size, reused by each thread */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+  };
+
+  private final int maxOpenFiles;
+
+  /* Least recently modified first; guarded by itself */
+  private final LinkedHashMap<Path, Tail> tails = new LinkedHashMap<>(16, 0.75f, true);
+
+  /* Files that existed when subscribing, or were closed to make room, until they are next followed */
+  private final ConcurrentMap<Path, DirectorySnapshot.Entry> existing = new ConcurrentHashMap<>();
+
+  protected TailSubscriber() {
+    this(DEFAULT_MAX_OPEN_FILES);
+  }
+
+  /**
+   * @param maxOpenFiles the number of files to keep a channel open for
+   */
+  protected TailSubscriber(int maxOpenFiles) {
+    if (maxOpenFiles < 1) {
+      throw new IllegalArgumentException("maxOpenFiles must be at least 1");
+    }
+
+    this.maxOpenFiles = maxOpenFiles;
+  }
+
+  /**
+   * Called with bytes appended to a file, by the default implementation of
+   * {@link #regionAppended}. A large region is handed over in several calls.
+   * The buffer is only valid for the duration of the call.
+   *
+   * @param watcher the source of the event
+   * @param file    the path of the file
+   * @param data    a read only view of the appended bytes
+   */
+  public void bytesAppended(DirectoryWatcher watcher, Path file, ByteBuffer data) {
+  }
+
+  /**
+   * Called with the region of a file that has been appended to. By default,
+   * the region is read into a reused buffer and passed on to
+   * {@link #bytesAppended}. The channel must not be closed, and its position
+   * is not used.
+   *
+   * @param watcher  the source of the event
+   * @param file     the path of the file
+   * @param channel  a channel open for reading the file
+   * @param position the offset of the first appended byte
+   * @param count    the number of bytes appended
+   * @throws IOException if the region could not be read; the file is no
+   *                     longer followed
+   */
+  public void regionAppended(DirectoryWatcher watcher, Path file, FileChannel channel, long position, long count) throws IOException {
+    ByteBuffer data = buffers.get();
+    long end = position + count;
+
+    while (position < end) {
+      data.clear();
+      data.limit((int) Math.min(data.capacity(), end - position));
+
+      int read = channel.read(data, position);
+      if (read < 0) {
+        break;
+      }
+
+      data.flip();
+      bytesAppended(watcher, file, data.asReadOnlyBuffer());
+      position += read;
+    }
+  }
+
+  /**
+   * Called when a file has become smaller than the bytes already handed over.
+   * It is then followed from the start.
+   */
+  public void fileTruncated(DirectoryWatcher watcher, Path file) {
+  }
+
+  /**
+   * Called when a file has been replaced by another with the same path. The
+   * new file is then followed from the start.
+   */
+  public void fileRotated(DirectoryWatcher watcher, Path file) {
+  }
+
+  @Override
+  void subscribed(DirectoryWatcher watcher) {
+    DirectorySnapshot snapshot;
+    try {
+      snapshot = watcher.snapshot(watcher.getPath(), MAX_EXISTING);
+    } catch (IOException e) {
+      return;
+    }
+
+    for (Map.Entry<Path, DirectorySnapshot.Entry> entry : snapshot.entries().entrySet()) {
+      if (!entry.getValue().isDirectory() && watcher.shouldTrack(watcher.getPath().relativize(entry.getKey()))) {
+        existing.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  @Override
+  public void eventReceived(ChangeEvent event) {
+    DirectoryWatcher watcher = event.getWatcher();
+    Path file = watcher.getPath().resolve(event.getPath());
+
+    if (event.getKind() == ChangeKind.DELETED) {
+      existing.remove(file);
+
+      Tail tail;
+      synchronized (tails) {
+        tail = tails.remove(file);
+      }
+
+      if (tail != null) {
+        synchronized (tail) {
+          // the channel still reads the deleted (or renamed) file
+          follow(watcher, event.getPath(), tail);
+          tail.close();
+        }
+      }
+      return;
+    }
+
+    BasicFileAttributes attrs = event.getAttributes();
+    if (attrs == null || !attrs.isRegularFile()) {
+      return;
+    }
+
+    Tail tail;
+    synchronized (tails) {
+      tail = tails.get(file);
+    }
+
+    if (tail == null) {
+      Tail opened = new Tail();
+      if (!opened.open(file, attrs, startOf(event, file, attrs))) {
+        return;
+      }
+
+      List<Map.Entry<Path, Tail>> evicted = new ArrayList<>();
+      synchronized (tails) {
+        tail = tails.get(file);
+        if (tail == null) {
+          tail = opened;
+          tails.put(file, opened);
+          evict(evicted);
+        }
+      }
+
+      if (tail != opened) {
+        opened.close();
+      }
+
+      for (Map.Entry<Path, Tail> entry : evicted) {
+        close(entry.getKey(), entry.getValue());
+      }
+    }
+
+    synchronized (tail) {
+      // closed to make room since it was looked up, so open it again
+      if (tail.channel == null) {
+        eventReceived(event);
+        return;
+      }
+
+      Object key = attrs.fileKey();
+      if (tail.fileKey != null && key != null && !tail.fileKey.equals(key)) {
+        follow(watcher, event.getPath(), tail);
+        tail.close();
+
+        fileRotated(watcher, event.getPath());
+        tail.open(file, attrs, 0);
+      }
+
+      follow(watcher, event.getPath(), tail);
+
+      // files that can no longer be read are opened again by the next event
+      if (tail.channel == null) {
+        synchronized (tails) {
+          tails.remove(file, tail);
+        }
+      }
+    }
+  }
+
+  /* Removes the least recently modified tails beyond maxOpenFiles */
+  private void evict(List<Map.Entry<Path, Tail>> evicted) {
+    Iterator<Map.Entry<Path, Tail>> it = tails.entrySet().iterator();
+    while (tails.size() > maxOpenFiles && it.hasNext()) {
+      Map.Entry<Path, Tail> entry = it.next();
+      evicted.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+      it.remove();
+    }
+  }
+
+  /* Closes an evicted tail, remembering where to follow it from */
+  private void close(Path file, Tail tail) {
+    synchronized (tail) {
+      if (tail.channel == null) {
+        return;
+      }
+
+      if (existing.size() < MAX_EXISTING) {
+        String key = tail.fileKey == null ? null : tail.fileKey.toString();
+        existing.put(file, new DirectorySnapshot.Entry(false, tail.position, 0, key));
+      }
+      tail.close();
+    }
+  }
+
+  /* The position a file is first followed from */
+  private long startOf(ChangeEvent event, Path file, BasicFileAttributes attrs) {
+    DirectorySnapshot.Entry known = existing.remove(file);
+    Object key = attrs.fileKey();
+
+    if (known != null && (key == null || known.getFileKey() == null || known.getFileKey().equals(key.toString()))) {
+      return known.getSize();
+    }
+
+    // files created while subscribed are read from the start
+    if (event.getKind() == ChangeKind.CREATED && !event.isInitial()) {
+      return 0;
+    }
+
+    return attrs.size();
+  }
+
+  /* Hands over everything appended since the last call */
+  private void follow(DirectoryWatcher watcher, Path file, Tail tail) {
+    if (tail.channel == null) {
+      return;
+    }
+
+    try {
+      long size = tail.channel.size();
+
+      if (size < tail.position) {
+        tail.position = 0;
+        fileTruncated(watcher, file);
+      }
+
+      while (tail.position < size) {
+        long count = Math.min(size - tail.position, MAX_CHUNK);
+        regionAppended(watcher, file, tail.channel, tail.position, count);
+        tail.position += count;
+      }
+    } catch (IOException e) {
+      tail.close();
+    }
+  }
+
+  /**
+   * Closes the channels of all files being followed.
+   */
+  @Override
+  public void close() {
+    List<Tail> closing;
+    synchronized (tails) {
+      closing = new ArrayList<>(tails.values());
+      tails.clear();
+    }
+
+    for (Tail tail : closing) {
+      synchronized (tail) {
+        tail.close();
+      }
+    }
+    existing.clear();
+  }
+
+  private static class Tail {
+    private FileChannel channel;
+    private Object fileKey;
+    private long position;
+
+    boolean open(Path file, BasicFileAttributes attrs, long position) {
+      try {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+      } catch (IOException e) {
+        return false;
+      }
+
+      this.fileKey = attrs.fileKey();
+      this.position = position;
+      return true;
+    }
+
+    void close() {
+      if (channel == null) {
+        return;
+      }
+
+      try {
+        channel.close();
+      } catch (IOException e) {
+      }
+      channel = null;
+    }
+  }
+}
@@ -2,10 +2,18 @@ package com.darylteo.nio;
 
 import java.io.IOException;
 import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -13,16 +21,65 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * This implementation of DirectoryWatchService automatically waits for changes
  * using a Thread Pool.
  * </p>
+ * <p>
+ * With more than one thread, a single thread receives events from the
+ * WatchService and hands each one to a fixed dispatch thread, chosen by the
+ * {@link DispatchOrdering}. Events with the same stripe are always delivered
+ * in the order they were received.
+ * </p>
+ * <p>
+ * With {@link DispatchOrdering#WATCHER}, everything a watcher reports is
+ * handled on its own thread, so its subscribers never see the deletion of an
+ * entry before its creation. With {@link DispatchOrdering#DIRECTORY}, that
+ * only holds for events received for the entries of the same directory.
+ * Entries reported by walking a newly created directory are handled on the
+ * thread of its parent, while later events from within it are handled on the
+ * thread of the new directory, and the two may interleave. The ends of event
+ * storms and the scans of degraded directories are reported from the thread
+ * receiving events, alongside the dispatch threads.
+ * </p>
+ * <p>
+ * Each dispatch thread queues at most LANE_CAPACITY events. Once a queue is
+ * full, the thread receiving events waits for room rather than dropping
+ * events or handling them out of order. The WatchService then holds on to
+ * further events, and reports an overflow if it too runs out of room.
+ * </p>
  *
  * @author Daryl Teo
  * @see AbstractDirectoryWatchService
  * @see DirectoryWatcher
  */
 public class ThreadPoolDirectoryWatchService extends AbstractDirectoryWatchService {
+  /* How often watcher threads wake up for housekeeping when idle, in ms */
+  private static final long TICK_INTERVAL = 100;
+
+  /* Events queued for each dispatch thread before the watcher thread waits */
+  static final int LANE_CAPACITY = 10000;
+
+  /* Keeps the order of a lane by waiting for room instead of running the task elsewhere */
+  private static final RejectedExecutionHandler WAIT_FOR_ROOM = new RejectedExecutionHandler() {
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Dispatch thread has been shut down");
+      }
+
+      try {
+        executor.getQueue().put(r);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(e);
+      }
+    }
+  };
 
   private final ExecutorService executorService = Executors.newCachedThreadPool();
   private final List<WatcherThread> watcherThreads = new ArrayList<>();
 
+  /* Single threaded dispatch lanes, or null to dispatch from the watcher thread */
+  private final ExecutorService[] lanes;
+  private final DispatchOrdering ordering;
+
   /**
    * <p>
    * Instantiates a DirectoryWatcherFactory with a single thread.
@@ -36,18 +93,150 @@ public class ThreadPoolDirectoryWatchService extends AbstractDirectoryWatchServi
 
   /**
    * <p>
-   * Instantiates a DirectoryWatcherFactory with a provided thread count.
+   * Instantiates a DirectoryWatcherFactory with a provided thread count,
+   * dispatching events in order per directory.
    * </p>
    *
    * @param threadCount - number of threads to spawn for this factory.
    * @throws IOException
    */
   public ThreadPoolDirectoryWatchService(int threadCount) throws IOException {
-    for (int i = 0; i < threadCount; i++) {
-      WatcherThread thread = new WatcherThread();
-      watcherThreads.add(thread);
-      executorService.execute(thread);
+    this(threadCount, DispatchOrdering.DIRECTORY);
+  }
+
+  /**
+   * <p>
+   * Instantiates a DirectoryWatcherFactory with a provided thread count.
+   * </p>
+   *
+   * @param threadCount - number of threads to dispatch events with.
+   * @param ordering    - how events are assigned to dispatch threads.
+   * @throws IOException
+   */
+  public ThreadPoolDirectoryWatchService(int threadCount, DispatchOrdering ordering) throws IOException {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("threadCount must be at least 1");
+    }
+
+    this.ordering = ordering;
+
+    if (threadCount == 1) {
+      this.lanes = null;
+    } else {
+      this.lanes = new ExecutorService[threadCount];
+      for (int i = 0; i < threadCount; i++) {
+        this.lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(LANE_CAPACITY), WAIT_FOR_ROOM);
+      }
     }
+
+    WatcherThread thread = new WatcherThread();
+    watcherThreads.add(thread);
+    executorService.execute(thread);
+  }
+
+  /**
+   * Not supported with more than one thread: events handled by parallel
+   * batches would be queued to the lanes in no particular order, breaking
+   * the ordering guarantee of the {@link DispatchOrdering}.
+   */
+  @Override
+  public synchronized void setParallelBatches(int parallelism, int threshold) {
+    if (lanes != null && parallelism > 1) {
+      throw new IllegalStateException("Parallel batches cannot be used with more than one dispatch thread");
+    }
+
+    super.setParallelBatches(parallelism, threshold);
+  }
+
+  /* Dispatch */
+  @Override
+  protected void handleEvent(final WatchKey key, final WatchEvent.Kind<?> kind, final Path context, final long received) {
+    if (lanes == null) {
+      super.handleEvent(key, kind, context, received);
+      return;
+    }
+
+    if (ordering == DispatchOrdering.WATCHER) {
+      for (final DirectoryWatcher watcher : getWatchers()) {
+        lane(watcher).execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              handleEvent(watcher, key, kind, context, received);
+            } catch (RuntimeException e) {
+              eventFailed(key, context, e);
+            }
+          }
+        });
+      }
+
+      return;
+    }
+
+    lane(key.watchable()).execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ThreadPoolDirectoryWatchService.super.handleEvent(key, kind, context, received);
+        } catch (RuntimeException e) {
+          eventFailed(key, context, e);
+        }
+      }
+    });
+  }
+
+  @Override
+  protected void handleKeyInvalid(final WatchKey key) {
+    if (lanes == null) {
+      super.handleKeyInvalid(key);
+      return;
+    }
+
+    // queued behind the remaining events of the key
+    if (ordering == DispatchOrdering.WATCHER) {
+      for (final DirectoryWatcher watcher : getWatchers()) {
+        lane(watcher).execute(new Runnable() {
+          @Override
+          public void run() {
+            watcher.handleKeyInvalid(key);
+          }
+        });
+      }
+
+      return;
+    }
+
+    lane(key.watchable()).execute(new Runnable() {
+      @Override
+      public void run() {
+        ThreadPoolDirectoryWatchService.super.handleKeyInvalid(key);
+      }
+    });
+  }
+
+  @Override
+  protected void handleTick() {
+    if (lanes == null || ordering != DispatchOrdering.WATCHER) {
+      super.handleTick();
+      return;
+    }
+
+    final long now = System.nanoTime();
+    for (final DirectoryWatcher watcher : getWatchers()) {
+      lane(watcher).execute(new Runnable() {
+        @Override
+        public void run() {
+          watcher.handleTick(now);
+        }
+      });
+    }
+  }
+
+  private ExecutorService lane(Object stripe) {
+    int h = stripe.hashCode();
+    h ^= (h >>> 16);
+
+    return lanes[(h & Integer.MAX_VALUE) % lanes.length];
   }
 
   /*
@@ -67,10 +256,24 @@ public class ThreadPoolDirectoryWatchService extends AbstractDirectoryWatchServi
     @Override
     public void run() {
       while (!stop.get()) {
+        WatchKey key = null;
+
         try {
-          ThreadPoolDirectoryWatchService.super.handleWatchKey(ThreadPoolDirectoryWatchService.super.getWatchService().take());
-        } catch (InterruptedException | ClosedWatchServiceException e) {
+          key = ThreadPoolDirectoryWatchService.super.getWatchService().poll(TICK_INTERVAL, TimeUnit.MILLISECONDS);
+          ThreadPoolDirectoryWatchService.super.handleWatchKey(key);
+          ThreadPoolDirectoryWatchService.this.handleTick();
+        } catch (InterruptedException | ClosedWatchServiceException | RejectedExecutionException e) {
           return;
+        } catch (Throwable e) {
+          // the key must still be reset, or its directory is no longer watched
+          if (key != null) {
+            key.reset();
+          }
+
+          WatchServiceMonitor monitor = getMonitor();
+          if (monitor != null) {
+            monitor.watchThreadFailed(e);
+          }
         }
       }
     }
@@ -83,5 +286,11 @@ public class ThreadPoolDirectoryWatchService extends AbstractDirectoryWatchServi
     for (WatcherThread thread : watcherThreads) {
       thread.setStop(true);
     }
+
+    if (lanes != null) {
+      for (ExecutorService lane : lanes) {
+        lane.shutdownNow();
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package com.darylteo.nio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Writes the events taken from the WatchService to a trace file, as they
+ * come out of the WatchKeys and before any filtering, so that they can be
+ * replayed later with a {@link TraceReplayer}.
+ * </p>
+ * <p>
+ * Each record is a tag byte holding the kind of event, the directory of the
+ * key, the time since the previous record and the name of the entry. A
+ * directory is written out in full the first time it appears and referred
+ * to by number after that, and times and numbers are written as variable
+ * length integers, so that most records take only a few bytes more than the
+ * name of the entry.
+ * </p>
+ */
+final class TraceRecorder {
+  static final int MAGIC = 0x44575452;
+  static final int VERSION = 1;
+
+  /* Tags */
+  static final int CREATE = 0;
+  static final int MODIFY = 1;
+  static final int DELETE = 2;
+  static final int OVERFLOW = 3;
+  static final int KIND_MASK = 0x03;
+  static final int NEW_DIRECTORY = 0x80;
+
+  private final DataOutputStream out;
+  private final Map<Path, Integer> directories = new HashMap<>();
+  private long last;
+  private IOException failure;
+
+  TraceRecorder(Path file, long now) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+    this.last = now;
+
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+  }
+
+  /**
+   * @param dir     the directory of the key
+   * @param context the name of the entry, which may be null for an overflow
+   * @param time    when the key was taken, from {@link System#nanoTime()}
+   */
+  synchronized void record(Path dir, WatchEvent.Kind<?> kind, Path context, long time) {
+    if (failure != null) {
+      return;
+    }
+
+    try {
+      Integer id = directories.get(dir);
+      if (id == null) {
+        directories.put(dir, directories.size());
+        out.writeByte(tag(kind) | NEW_DIRECTORY);
+        out.writeUTF(dir.toString());
+      } else {
+        out.writeByte(tag(kind));
+        writeVarLong(out, id);
+      }
+
+      writeVarLong(out, Math.max(0, time - last));
+      out.writeUTF(context == null ? "" : context.toString());
+      last = Math.max(last, time);
+    } catch (IOException e) {
+      // stop recording, and report the failure when closed
+      failure = e;
+    }
+  }
+
+  synchronized void close() throws IOException {
+    try {
+      out.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static int tag(WatchEvent.Kind<?> kind) {
+    if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+      return CREATE;
+    } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+      return MODIFY;
+    } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+      return DELETE;
+    }
+
+    return OVERFLOW;
+  }
+
+  /* Variable length integers, 7 bits at a time */
+  static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Malformed trace");
+  }
+}
@@ -0,0 +1,162 @@
+package com.darylteo.nio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * Replays a trace recorded with
+ * {@link AbstractDirectoryWatchService#startRecording} into DirectoryWatchers,
+ * in order to measure and tune their filters and subscribers without making
+ * changes to the file system.
+ * </p>
+ * <pre>
+ * TraceReplayer replayer = new TraceReplayer(Paths.get(&quot;events.trace&quot;));
+ * replayer.setRebase(Paths.get(&quot;/srv/app&quot;), watcher.getPath());
+ * ReplayResult result = replayer.replay(watcher);
+ * </pre>
+ * <p>
+ * Each event is passed through the filters of every watcher whose tree it
+ * falls in, and on to its subscribers, on the calling thread. The file
+ * system is not read while doing so, so created directories are not walked,
+ * and the index, digests and fingerprints of the watchers are left as they
+ * are. Subscribers and attribute filters that read the attributes of an
+ * event will still read them from the file system.
+ * </p>
+ * <p>
+ * Events are replayed as fast as possible by default, or with the timing
+ * they were recorded with.
+ * </p>
+ */
+public class TraceReplayer {
+  private final Path trace;
+
+  private boolean originalTiming = false;
+  private Path rebaseFrom;
+  private Path rebaseTo;
+
+  public TraceReplayer(Path trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * @param originalTiming whether to wait between events as long as they
+   *                       were apart when recorded, rather than replaying
+   *                       them as fast as possible
+   */
+  public void setOriginalTiming(boolean originalTiming) {
+    this.originalTiming = originalTiming;
+  }
+
+  /**
+   * Moves the events recorded under one directory to another, so that a
+   * trace recorded elsewhere can be replayed into local watchers. Events
+   * outside the directory are left where they are.
+   *
+   * @param from the directory the trace was recorded under
+   * @param to   the directory to replay it under
+   */
+  public void setRebase(Path from, Path to) {
+    this.rebaseFrom = from.toAbsolutePath();
+    this.rebaseTo = to.toAbsolutePath();
+  }
+
+  /**
+   * Replays the whole trace into the given watchers, returning once the
+   * last event has been handled.
+   *
+   * @throws IOException if the trace cannot be read
+   */
+  public ReplayResult replay(DirectoryWatcher... watchers) throws IOException {
+    LatencyRecorder latency = new LatencyRecorder();
+    List<Path> directories = new ArrayList<>();
+    long events = 0;
+    long overflows = 0;
+
+    long start = System.nanoTime();
+    long elapsed = 0;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(trace)))) {
+      if (in.readInt() != TraceRecorder.MAGIC || in.readUnsignedByte() != TraceRecorder.VERSION) {
+        throw new IOException("Not an event trace: " + trace);
+      }
+
+      int tag;
+      while ((tag = in.read()) != -1) {
+        Path dir;
+        String context;
+
+        try {
+          if ((tag & TraceRecorder.NEW_DIRECTORY) != 0) {
+            dir = rebase(Paths.get(in.readUTF()));
+            directories.add(dir);
+          } else {
+            dir = directories.get((int) TraceRecorder.readVarLong(in));
+          }
+
+          elapsed += TraceRecorder.readVarLong(in);
+          context = in.readUTF();
+        } catch (EOFException e) {
+          // the last record was cut short while recording
+          break;
+        }
+
+        long due = originalTiming ? waitUntil(start + elapsed) : System.nanoTime();
+
+        ChangeKind kind = kind(tag & TraceRecorder.KIND_MASK);
+        if (kind == null) {
+          overflows++;
+          continue;
+        }
+
+        Path entry = context.isEmpty() ? dir : dir.resolve(context);
+        for (DirectoryWatcher watcher : watchers) {
+          watcher.replay(kind, entry, due);
+        }
+
+        latency.record(LatencyStage.TOTAL, System.nanoTime() - due);
+        events++;
+      }
+    }
+
+    return new ReplayResult(events, overflows, System.nanoTime() - start, latency.snapshot(LatencyStage.TOTAL));
+  }
+
+  private Path rebase(Path dir) {
+    if (rebaseFrom == null || !dir.startsWith(rebaseFrom)) {
+      return dir;
+    }
+
+    return rebaseTo.resolve(rebaseFrom.relativize(dir));
+  }
+
+  private static long waitUntil(long due) {
+    long now;
+    while ((now = System.nanoTime()) < due) {
+      LockSupport.parkNanos(due - now);
+    }
+
+    return due;
+  }
+
+  private static ChangeKind kind(int tag) {
+    switch (tag) {
+      case TraceRecorder.CREATE:
+        return ChangeKind.CREATED;
+      case TraceRecorder.MODIFY:
+        return ChangeKind.MODIFIED;
+      case TraceRecorder.DELETE:
+        return ChangeKind.DELETED;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Entries reported by walking a newly created directory. As the directory is
+ * registered before it is walked, an entry created in the meantime is both
+ * walked and reported by the WatchService. Its creation is only delivered
+ * once: the event from the WatchService is dropped.
+ * </p>
+ * <p>
+ * Entries that already existed when the directory was registered never
+ * receive an event of their own, so entries are forgotten after EXPIRY, or
+ * once more than MAX_SIZE are remembered.
+ * </p>
+ */
+final class WalkedEntries {
+  private static final long EXPIRY = TimeUnit.SECONDS.toNanos(10);
+  private static final int MAX_SIZE = 10000;
+
+  /* In the order they were walked */
+  private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>();
+
+  synchronized void walked(Path entry, long now) {
+    entries.remove(entry);
+    entries.put(entry, now);
+    expire(now);
+  }
+
+  /**
+   * @return whether the creation of the entry has already been reported by a
+   * walk, in which case it is forgotten
+   */
+  synchronized boolean reported(Path entry, long now) {
+    if (entries.isEmpty()) {
+      return false;
+    }
+
+    expire(now);
+    return entries.remove(entry) != null;
+  }
+
+  /* An entry created again after being deleted must be reported again */
+  synchronized void deleted(Path entry) {
+    entries.remove(entry);
+  }
+
+  private void expire(long now) {
+    Iterator<Map.Entry<Path, Long>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Path, Long> entry = it.next();
+      if (entries.size() <= MAX_SIZE && now - entry.getValue() < EXPIRY) {
+        break;
+      }
+
+      it.remove();
+    }
+  }
+}
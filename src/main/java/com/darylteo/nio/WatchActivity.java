@@ -0,0 +1,53 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Counts the events received by each natively watched directory, so that
+ * the coldest of them can give up its watch to a busier degraded directory.
+ * Counts are halved every time a directory is chosen, so that old activity
+ * does not protect a directory forever.
+ * </p>
+ */
+final class WatchActivity {
+  private final Map<Path, Integer> counts = new HashMap<>();
+
+  synchronized void record(Path dir) {
+    Integer count = counts.get(dir);
+    counts.put(dir, count == null ? 1 : count + 1);
+  }
+
+  synchronized void forget(Path dir) {
+    counts.remove(dir);
+  }
+
+  /**
+   * @param dirs the watched directories to choose from
+   * @param heat the activity of the directory that would take the watch
+   * @return the least active of dirs, if it is less active than heat, or null
+   */
+  synchronized Path coldest(Collection<Path> dirs, int heat) {
+    Path coldest = null;
+    int min = heat;
+
+    for (Path dir : dirs) {
+      Integer count = counts.get(dir);
+      int c = count == null ? 0 : count;
+
+      if (c < min) {
+        coldest = dir;
+        min = c;
+      }
+    }
+
+    for (Map.Entry<Path, Integer> entry : counts.entrySet()) {
+      entry.setValue(entry.getValue() / 2);
+    }
+
+    return coldest;
+  }
+}
@@ -0,0 +1,22 @@
+package com.darylteo.nio;
+
+/**
+ * Decides which directories are given a native watch when a
+ * {@link AbstractDirectoryWatchService} runs out of its watch budget. All
+ * other directories are scanned for changes periodically instead.
+ *
+ * @see AbstractDirectoryWatchService#setWatchLimit
+ */
+public enum WatchPriority {
+  /**
+   * Directories closer to the base of a DirectoryWatcher are watched first.
+   */
+  SHALLOWEST_FIRST,
+
+  /**
+   * Directories producing the most changes are watched first. Scanned
+   * directories that keep changing are swapped with the least active watched
+   * directories of the same DirectoryWatcher.
+   */
+  HOTTEST_FIRST
+}
@@ -0,0 +1,152 @@
+package com.darylteo.nio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * Subclass this class in order to observe the internals of an
+ * {@link AbstractDirectoryWatchService}, for example to record them as
+ * custom events of a profiler such as Java Flight Recorder, where they can be
+ * correlated with garbage collection and I/O.
+ * </p>
+ * <pre>
+ * factory.setMonitor(new WatchServiceMonitor() {
+ *   public void keyProcessed(Path dir, int events, long duration) {
+ *     KeyProcessedEvent event = new KeyProcessedEvent(); // a jdk.jfr.Event
+ *     // ...
+ *     event.commit();
+ *   }
+ * });
+ * </pre>
+ * <p>
+ * Nothing is measured while no monitor is set. Methods are called on the
+ * thread doing the work, so they should return quickly. Durations are in
+ * nanoseconds.
+ * </p>
+ *
+ * @see AbstractDirectoryWatchService#setMonitor
+ */
+public abstract class WatchServiceMonitor {
+  /**
+   * Called after all events of a WatchKey have been handled, or handed to the
+   * dispatch threads of a {@link ThreadPoolDirectoryWatchService}.
+   *
+   * @param dir      the directory of the key
+   * @param events   the number of events, not counting overflows
+   * @param duration the time taken to handle them
+   */
+  public void keyProcessed(Path dir, int events, long duration) {
+  }
+
+  /**
+   * Called when the WatchService has dropped events for a directory because
+   * they were not retrieved in time.
+   *
+   * @param dir the directory of the key
+   */
+  public void overflow(Path dir) {
+  }
+
+  /**
+   * Called when handling an event has failed with an exception that was not
+   * thrown by a subscriber, such as one thrown by an {@link AttributeFilter}.
+   * The event is dropped, and the remaining events for the directory are
+   * still handled.
+   *
+   * @param dir       the directory of the key
+   * @param context   the name of the entry, relative to the directory, or
+   *                  null if the failure is not tied to a single entry
+   * @param exception the exception thrown
+   */
+  public void eventFailed(Path dir, Path context, RuntimeException exception) {
+  }
+
+  /**
+   * Called when the thread receiving events from the WatchService has failed
+   * with an unexpected exception or error. The key being handled is reset,
+   * and the thread carries on with the next one.
+   *
+   * @param exception the exception thrown
+   */
+  public void watchThreadFailed(Throwable exception) {
+  }
+
+  /**
+   * Called when events could not be written to the file of a journal. The
+   * events are dropped from the file, but can still be read while they are
+   * held in memory.
+   *
+   * @param watcher   the watcher of the journal
+   * @param exception the exception thrown
+   * @see DirectoryWatcher#enableJournal
+   */
+  public void journalWriteFailed(DirectoryWatcher watcher, IOException exception) {
+  }
+
+  /**
+   * Called after a DirectoryWatcher has walked its tree to register the
+   * directories in it.
+   *
+   * @param watcher     the watcher
+   * @param directories the number of directories registered
+   * @param duration    the time taken by the walk
+   */
+  public void treeRegistered(DirectoryWatcher watcher, int directories, long duration) {
+  }
+
+  /**
+   * Called when a subscriber has taken longer than the threshold set with
+   * {@link AbstractDirectoryWatchService#setSlowSubscriberThreshold} to
+   * handle an event.
+   *
+   * @param subscriber the subscriber
+   * @param event      the event, or the first of a batch of initial events
+   * @param duration   the time taken by the subscriber
+   */
+  public void slowSubscriber(DirectoryWatcherSubscriber subscriber, ChangeEvent event, long duration) {
+  }
+
+  /**
+   * Called when a subscriber has thrown an exception while handling an event.
+   * The event is still delivered to the remaining subscribers.
+   *
+   * @param subscriber the subscriber, or null if delivery failed outside of
+   *                   any subscriber
+   * @param event      the event, or the first of a batch of initial events
+   * @param exception  the exception thrown
+   */
+  public void subscriberFailed(DirectoryWatcherSubscriber subscriber, ChangeEvent event, RuntimeException exception) {
+  }
+
+  /**
+   * Called when a subscriber has exceeded the budget it was subscribed with
+   * too many times in a row, and will receive events on a thread of its own
+   * from now on.
+   *
+   * @param subscriber the subscriber
+   * @see DirectoryWatcher#subscribe(DirectoryWatcherSubscriber, long, java.util.concurrent.TimeUnit)
+   */
+  public void subscriberQuarantined(DirectoryWatcherSubscriber subscriber) {
+  }
+
+  /**
+   * Called when a quarantined subscriber has fallen so far behind that events
+   * for it are being dropped.
+   *
+   * @param subscriber the subscriber
+   */
+  public void subscriberPaused(DirectoryWatcherSubscriber subscriber) {
+  }
+
+  /**
+   * Called when a paused subscriber has caught up, and receives events
+   * again. Since it has missed events, it may need to rescan the tree, or
+   * resubscribe from the journal.
+   *
+   * @param subscriber the subscriber
+   * @param dropped    the number of events it missed
+   */
+  public void subscriberResumed(DirectoryWatcherSubscriber subscriber, long dropped) {
+  }
+}
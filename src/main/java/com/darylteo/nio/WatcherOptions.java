@@ -0,0 +1,49 @@
+package com.darylteo.nio;
+
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * Options a DirectoryWatcher is created with, set by the factory methods of
+ * AbstractDirectoryWatchService. Options that are not set keep their
+ * defaults: the platform separator, an unlimited depth, and no file name,
+ * snapshot file or initial events.
+ * </p>
+ */
+final class WatcherOptions {
+  String separator;
+  int maxDepth = Integer.MAX_VALUE;
+  Path fileName;
+  Path snapshotFile;
+  boolean initialEvents;
+
+  WatcherOptions separator(String separator) {
+    this.separator = separator;
+    return this;
+  }
+
+  WatcherOptions maxDepth(int maxDepth) {
+    if (maxDepth < 0) {
+      throw new IllegalArgumentException("maxDepth must not be negative");
+    }
+
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  /* Only the entry with this name, directly within the watched path, is reported */
+  WatcherOptions fileName(Path fileName) {
+    this.fileName = fileName;
+    return this;
+  }
+
+  WatcherOptions snapshotFile(Path snapshotFile) {
+    this.snapshotFile = snapshotFile;
+    return this;
+  }
+
+  WatcherOptions initialEvents(boolean initialEvents) {
+    this.initialEvents = initialEvents;
+    return this;
+  }
+}
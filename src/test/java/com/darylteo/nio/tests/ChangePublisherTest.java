@@ -0,0 +1,193 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.ChangeKind;
+import com.darylteo.nio.ChangeOverflowException;
+import com.darylteo.nio.ChangePublisher;
+import com.darylteo.nio.ChangeSubscriber;
+import com.darylteo.nio.ChangeSubscription;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangePublisherTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  private final List<ChangeEvent> received = new ArrayList<>();
+  private ChangeSubscription subscription;
+  private final CountDownLatch completed = new CountDownLatch(1);
+  private final CountDownLatch errors = new CountDownLatch(1);
+  private volatile Throwable error;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("publisher_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testDemand() throws Exception {
+    ChangePublisher publisher = watcher.newPublisher(100, false);
+    publisher.subscribe(new RecordingSubscriber());
+
+    CountDownLatch handled = deletedLatch("c");
+    subscription.request(1);
+
+    Files.createFile(root.resolve("a"));
+    Files.createFile(root.resolve("c"));
+    Files.delete(root.resolve("c"));
+    assertTrue(handled.await(10, TimeUnit.SECONDS));
+
+    assertEquals(1, receivedCount());
+
+    subscription.request(Long.MAX_VALUE);
+    synchronized (received) {
+      assertTrue(received.size() >= 3);
+      assertEquals(Paths.get("c"), received.get(received.size() - 1).getPath());
+      assertEquals(ChangeKind.DELETED, received.get(received.size() - 1).getKind());
+    }
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    ChangePublisher publisher = watcher.newPublisher(100, true);
+    publisher.subscribe(new RecordingSubscriber());
+
+    CountDownLatch handled = deletedLatch("b");
+
+    Files.createFile(root.resolve("a"));
+    Files.write(root.resolve("a"), "Hello World!".getBytes());
+    Files.createFile(root.resolve("b"));
+    Files.delete(root.resolve("b"));
+    assertTrue(handled.await(10, TimeUnit.SECONDS));
+
+    subscription.request(Long.MAX_VALUE);
+
+    synchronized (received) {
+      assertEquals(1, received.size());
+      assertEquals(Paths.get("a"), received.get(0).getPath());
+      assertEquals(ChangeKind.CREATED, received.get(0).getKind());
+    }
+  }
+
+  @Test
+  public void testOverflow() throws Exception {
+    ChangePublisher publisher = watcher.newPublisher(1, false);
+    publisher.subscribe(new RecordingSubscriber());
+
+    CountDownLatch handled = deletedLatch("b");
+
+    /* Delivery carries on past a full buffer, and the subscriber is told */
+    Files.createFile(root.resolve("a"));
+    Files.createFile(root.resolve("b"));
+    Files.delete(root.resolve("b"));
+    assertTrue(handled.await(10, TimeUnit.SECONDS));
+    assertTrue(errors.await(1, TimeUnit.SECONDS));
+    assertTrue(error instanceof ChangeOverflowException);
+
+    subscription.request(Long.MAX_VALUE);
+    assertEquals(0, receivedCount());
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+    watcher.newPublisher(1, false).subscribe(new RecordingSubscriber());
+
+    factory.close();
+    assertTrue(completed.await(1, TimeUnit.SECONDS));
+  }
+
+  /* Subscribed after the publisher, so it sees each event after the publisher does */
+  private CountDownLatch deletedLatch(final String name) {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get(name))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    return latch;
+  }
+
+  private int receivedCount() {
+    synchronized (received) {
+      return received.size();
+    }
+  }
+
+  private class RecordingSubscriber implements ChangeSubscriber {
+    @Override
+    public void onSubscribe(ChangeSubscription subscription) {
+      ChangePublisherTest.this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(ChangeEvent event) {
+      synchronized (received) {
+        received.add(event);
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      ChangePublisherTest.this.error = error;
+      errors.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed.countDown();
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,121 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the filter decisions cached per directory stay correct as the
+ * filters change and the cache fills up.
+ */
+public class DirectoryFilterCacheTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("filter_cache_test");
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    Files.delete(root);
+  }
+
+  @Test
+  public void testDirectoryDecision() {
+    watcher.include("foo/*.json");
+    watcher.exclude("foo/skip*");
+
+    /* The decision for foo is made once, and applied to every entry within it */
+    assertTrue(watcher.shouldTrack("foo/a.json"));
+    assertTrue(watcher.shouldTrack("foo/b.json"));
+    assertFalse(watcher.shouldTrack("foo/a.txt"));
+    assertFalse(watcher.shouldTrack("foo/skip.json"));
+    assertFalse(watcher.shouldTrack("foo/bar/a.json"));
+    assertFalse(watcher.shouldTrack("bar/a.json"));
+
+    /* and gives the same answers when asked again */
+    assertTrue(watcher.shouldTrack("foo/a.json"));
+    assertFalse(watcher.shouldTrack("foo/skip.json"));
+  }
+
+  @Test
+  public void testNameDecision() {
+    watcher.include("src/*/*Test.java");
+    watcher.include("**/lib/a*.jar");
+
+    /* The directory part is decided once, and only names are matched within it */
+    assertTrue(watcher.shouldTrack("src/main/FooTest.java"));
+    assertFalse(watcher.shouldTrack("src/main/Foo.java"));
+    assertFalse(watcher.shouldTrack("src/FooTest.java"));
+    assertFalse(watcher.shouldTrack("src/main/x/FooTest.java"));
+
+    assertTrue(watcher.shouldTrack("x/y/lib/api.jar"));
+    assertTrue(watcher.shouldTrack("x/lib/a.jar"));
+    assertFalse(watcher.shouldTrack("x/lib/b.jar"));
+    assertTrue(watcher.shouldTrack("lib/a.jar"));
+  }
+
+  @Test
+  public void testIncludeInvalidates() {
+    watcher.include("foo/*.json");
+
+    assertTrue(watcher.shouldTrack("foo/a.json"));
+    assertFalse(watcher.shouldTrack("foo/a.txt"));
+    assertFalse(watcher.shouldTrack("bar/a.txt"));
+
+    watcher.include("**/*.txt");
+
+    assertTrue(watcher.shouldTrack("foo/a.json"));
+    assertTrue(watcher.shouldTrack("foo/a.txt"));
+    assertTrue(watcher.shouldTrack("bar/a.txt"));
+  }
+
+  @Test
+  public void testExcludeInvalidates() {
+    assertTrue(watcher.shouldTrack("foo/a.json"));
+    assertTrue(watcher.shouldTrack("bar/a.json"));
+
+    watcher.exclude("foo/**");
+
+    assertFalse(watcher.shouldTrack("foo/a.json"));
+    assertTrue(watcher.shouldTrack("bar/a.json"));
+  }
+
+  @Test
+  public void testCacheLimit() {
+    watcher.include("dir0/**");
+
+    /* More directories than the cache holds */
+    for (int i = 0; i < 10500; i++) {
+      assertEquals(i == 0, watcher.shouldTrack("dir" + i + "/file"));
+    }
+
+    /* Decisions made again after the cache was cleared are still correct */
+    assertTrue(watcher.shouldTrack("dir0/file"));
+    assertFalse(watcher.shouldTrack("dir1/file"));
+
+    watcher.exclude("dir0/skip");
+
+    assertTrue(watcher.shouldTrack("dir0/file"));
+    assertFalse(watcher.shouldTrack("dir0/skip"));
+  }
+}
@@ -0,0 +1,117 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeSet;
+import com.darylteo.nio.DirectorySettledSubscriber;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectorySettledSubscriberTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("settled_test");
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    Files.delete(root);
+  }
+
+  @Test
+  public void testNetChanges() throws InterruptedException {
+    final AtomicReference<ChangeSet> result = new AtomicReference<>();
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    DirectorySettledSubscriber subscriber = new DirectorySettledSubscriber(100, 1000, TimeUnit.MILLISECONDS) {
+      @Override
+      public void changesSettled(DirectoryWatcher watcher, ChangeSet changes) {
+        result.set(changes);
+        latch.countDown();
+      }
+    };
+
+    subscriber.entryCreated(watcher, Paths.get("a"));
+    subscriber.entryModified(watcher, Paths.get("a"));
+    subscriber.entryCreated(watcher, Paths.get("b"));
+    subscriber.entryDeleted(watcher, Paths.get("b"));
+    subscriber.entryModified(watcher, Paths.get("c"));
+    subscriber.entryModified(watcher, Paths.get("c"));
+    subscriber.entryDeleted(watcher, Paths.get("d"));
+    subscriber.entryCreated(watcher, Paths.get("d"));
+    subscriber.entryDeleted(watcher, Paths.get("e"));
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+    ChangeSet changes = result.get();
+    assertEquals(4, changes.size());
+    assertTrue(changes.getCreated().contains(Paths.get("a")));
+    assertTrue(changes.getModified().contains(Paths.get("c")));
+    assertTrue(changes.getModified().contains(Paths.get("d")));
+    assertTrue(changes.getDeleted().contains(Paths.get("e")));
+  }
+
+  @Test
+  public void testMaxLatency() throws InterruptedException {
+    final AtomicInteger triggers = new AtomicInteger();
+
+    DirectorySettledSubscriber subscriber = new DirectorySettledSubscriber(200, 400, TimeUnit.MILLISECONDS) {
+      @Override
+      public void changesSettled(DirectoryWatcher watcher, ChangeSet changes) {
+        triggers.incrementAndGet();
+      }
+    };
+
+    /* Never quiet for long enough, so only the maximum latency can trigger */
+    long end = System.currentTimeMillis() + 1000;
+    int i = 0;
+    while (System.currentTimeMillis() < end) {
+      subscriber.entryModified(watcher, Paths.get("file" + i++));
+      Thread.sleep(50);
+    }
+
+    assertTrue("Window was never triggered during a continuous burst", triggers.get() >= 1);
+  }
+
+  @Test
+  public void testFlush() {
+    final AtomicInteger triggers = new AtomicInteger();
+
+    DirectorySettledSubscriber subscriber = new DirectorySettledSubscriber(1, 1, TimeUnit.HOURS) {
+      @Override
+      public void changesSettled(DirectoryWatcher watcher, ChangeSet changes) {
+        assertEquals(1, changes.getCreated().size());
+        triggers.incrementAndGet();
+      }
+    };
+
+    subscriber.entryCreated(watcher, Paths.get("file"));
+    subscriber.flush();
+    subscriber.flush();
+
+    assertEquals(1, triggers.get());
+  }
+}
@@ -0,0 +1,154 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.AttributeFilters;
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.ChangeKind;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherAttributesTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("attributes_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testSharedAttributes() throws Exception {
+    final BasicFileAttributes[] seen = new BasicFileAttributes[2];
+    final CountDownLatch latch = new CountDownLatch(2);
+
+    for (int i = 0; i < seen.length; i++) {
+      final int index = i;
+
+      watcher.subscribe(new DirectoryWatcherSubscriber() {
+        @Override
+        public void eventReceived(ChangeEvent event) {
+          if (event.getKind() == ChangeKind.CREATED && event.getPath().equals(Paths.get("dir"))) {
+            seen[index] = event.getAttributes();
+            latch.countDown();
+          }
+        }
+      });
+    }
+
+    Files.createDirectory(root.resolve("dir"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertNotNull(seen[0]);
+    assertTrue(seen[0].isDirectory());
+    assertSame(seen[0], seen[1]);
+  }
+
+  @Test
+  public void testDeletedEntry() throws Exception {
+    final ChangeEvent[] deleted = new ChangeEvent[1];
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    Files.write(root.resolve("file"), "Hello World!".getBytes());
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        if (event.getKind() == ChangeKind.DELETED) {
+          deleted[0] = event;
+          latch.countDown();
+        }
+      }
+    });
+
+    Files.delete(root.resolve("file"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertEquals(Paths.get("file"), deleted[0].getPath());
+    assertNull(deleted[0].getAttributes());
+  }
+
+  @Test
+  public void testAttributeFilters() throws Exception {
+    final Set<Path> reported = Collections.synchronizedSet(new HashSet<Path>());
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.include(AttributeFilters.minSize(1));
+    watcher.exclude(AttributeFilters.hidden());
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        reported.add(entry);
+      }
+
+      @Override
+      public void entryModified(DirectoryWatcher watcher, Path entry) {
+        reported.add(entry);
+      }
+
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        latch.countDown();
+      }
+    });
+
+    Files.createFile(root.resolve("empty"));
+    Files.write(root.resolve(".hidden"), "Hello World!".getBytes());
+    Files.write(root.resolve("data"), "Hello World!".getBytes());
+
+    /* Deletions are not subject to attribute filters */
+    Files.delete(root.resolve("empty"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertEquals(Collections.singleton(Paths.get("data")), reported);
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
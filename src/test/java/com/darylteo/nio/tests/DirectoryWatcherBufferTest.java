@@ -0,0 +1,126 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectoryWatcherBufferTest {
+
+  private static final int FILES = 200;
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("buffer_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testStalledSubscriber() throws Exception {
+    watcher.enableJournal(FILES * 4);
+    watcher.enableBuffering(10);
+
+    final CountDownLatch stall = new CountDownLatch(1);
+    final List<Long> sequences = new ArrayList<>();
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        try {
+          stall.await();
+        } catch (InterruptedException e) {
+        }
+
+        synchronized (sequences) {
+          sequences.add(event.getSequence());
+        }
+      }
+    });
+
+    for (int i = 0; i < FILES; i++) {
+      Files.createFile(root.resolve("file" + i));
+    }
+
+    /* Wait for every event to be handled while the subscriber is stalled */
+    long deadline = System.currentTimeMillis() + 10000;
+    while (watcher.getJournal().getLastSequence() < FILES) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Events were not handled while the subscriber was stalled");
+      }
+      Thread.sleep(50);
+    }
+
+    assertTrue(watcher.getSpilledCount() > 0);
+    stall.countDown();
+
+    long last = watcher.getJournal().getLastSequence();
+    deadline = System.currentTimeMillis() + 10000;
+    while (watcher.getBacklog() > 0 || sequenceCount(sequences) < last) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Buffered events were not delivered");
+      }
+      Thread.sleep(50);
+    }
+
+    synchronized (sequences) {
+      for (int i = 0; i < sequences.size(); i++) {
+        assertEquals(i + 1, (long) sequences.get(i));
+      }
+    }
+    assertEquals(0, watcher.getSpilledCount());
+  }
+
+  private int sequenceCount(List<Long> sequences) {
+    synchronized (sequences) {
+      return sequences.size();
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,136 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryChangedSubscriber;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherDepthTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("depth_test");
+    Files.createDirectories(root.resolve("a/b/c"));
+    Files.createFile(root.resolve("config"));
+
+    factory = new ThreadPoolDirectoryWatchService();
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testMaxDepth() throws IOException, InterruptedException {
+    DirectoryWatcher watcher = factory.newWatcher(root, 1);
+    assertEquals(2, watcher.getWatchCount());
+
+    final Set<Path> created = Collections.synchronizedSet(new HashSet<Path>());
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        created.add(entry);
+        if (entry.equals(Paths.get("a/x"))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    Files.createDirectories(root.resolve("a/x/y"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    /* a/x is visible from a, but is too deep to be watched itself */
+    Thread.sleep(500);
+    assertFalse(created.contains(Paths.get("a/x/y")));
+    assertEquals(2, watcher.getWatchCount());
+  }
+
+  @Test
+  public void testFileWatcher() throws IOException, InterruptedException {
+    DirectoryWatcher watcher = factory.newFileWatcher(root.resolve("config"));
+    assertEquals(1, watcher.getWatchCount());
+
+    assertTrue(watcher.shouldTrack(Paths.get("config")));
+    assertFalse(watcher.shouldTrack(Paths.get("config.bak")));
+    assertFalse(watcher.shouldTrack(Paths.get("a/config")));
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryChangedSubscriber() {
+      @Override
+      public void directoryChanged(DirectoryWatcher watcher, Path entry) {
+        assertEquals(Paths.get("config"), entry);
+        latch.countDown();
+      }
+    });
+
+    Files.write(root.resolve("other"), "Hello World!".getBytes());
+    Files.write(root.resolve("config"), "Hello World!".getBytes());
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFileWatcherCreated() throws IOException, InterruptedException {
+    DirectoryWatcher watcher = factory.newFileWatcher(root.resolve("config"));
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        assertEquals(Paths.get("config"), entry);
+        latch.countDown();
+      }
+    });
+
+    /* An empty file is only ever created, never modified */
+    Files.delete(root.resolve("config"));
+    Files.createFile(root.resolve("config"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
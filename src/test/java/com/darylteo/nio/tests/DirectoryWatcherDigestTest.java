@@ -0,0 +1,117 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherDigestTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("digest_test");
+    for (String tree : new String[]{"one", "two"}) {
+      Files.createDirectories(root.resolve(tree + "/a/b"));
+      Files.createDirectories(root.resolve(tree + "/c"));
+      Files.write(root.resolve(tree + "/a/b/file"), "Hello World!".getBytes());
+      Files.write(root.resolve(tree + "/c/file"), "Hello World!".getBytes());
+
+      for (String file : new String[]{"a/b/file", "c/file"}) {
+        Files.setLastModifiedTime(root.resolve(tree).resolve(file), FileTime.fromMillis(1000000));
+      }
+    }
+
+    factory = new ThreadPoolDirectoryWatchService();
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testChangedSince() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    DirectoryWatcher watcher = factory.newWatcher(root.resolve("one"));
+    watcher.enableDigests();
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryModified(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("a/b/file"))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    long version = watcher.getVersion();
+    long digest = watcher.digest(Paths.get("a"));
+
+    Files.write(root.resolve("one/a/b/file"), "Hello World! Again".getBytes());
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertTrue(watcher.changedSince(Paths.get("a"), version));
+    assertTrue(watcher.changedSince(Paths.get("a/b"), version));
+    assertTrue(watcher.changedSince(Paths.get(""), version));
+    assertFalse(watcher.changedSince(Paths.get("c"), version));
+    assertTrue(digest != watcher.digest(Paths.get("a")));
+  }
+
+  @Test
+  public void testDiffDigests() throws Exception {
+    DirectoryWatcher one = factory.newWatcher(root.resolve("one"));
+    DirectoryWatcher two = factory.newWatcher(root.resolve("two"));
+
+    one.enableDigests();
+    two.enableDigests();
+
+    assertEquals(one.digest(Paths.get("")), two.digest(Paths.get("")));
+    assertTrue(one.diffDigests(two).isEmpty());
+
+    Files.setLastModifiedTime(root.resolve("two/c/file"), FileTime.fromMillis(2000000));
+    two = factory.newWatcher(root.resolve("two"));
+    two.enableDigests();
+
+    assertEquals(Collections.singletonList(Paths.get("c/file")), one.diffDigests(two));
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -14,8 +14,8 @@ import static org.junit.Assert.assertTrue;
 
 public class DirectoryWatcherFilterTest {
 
-  private ThreadPoolDirectoryWatchService factory;
-  private DirectoryWatcher watcher;
+  protected ThreadPoolDirectoryWatchService factory;
+  protected DirectoryWatcher watcher;
 
   @Before
   public void before() throws IOException {
@@ -195,6 +195,33 @@ public class DirectoryWatcherFilterTest {
     assertTrue(watcher.shouldTrack(Paths.get("foo/bar/file.json")));
   }
 
+  @Test
+  public void testIncludes15() throws InterruptedException, IOException {
+    watcher.include("**/*.json");
+    watcher.include("**/*.xml");
+    watcher.include("*.log");
+
+    assertFalse(watcher.shouldTrack(Paths.get("file")));
+    assertTrue(watcher.shouldTrack(Paths.get("file.json")));
+    assertTrue(watcher.shouldTrack(Paths.get("foo/file.xml")));
+    assertTrue(watcher.shouldTrack(Paths.get("file.log")));
+    assertFalse(watcher.shouldTrack(Paths.get("foo/file.log")));
+    assertFalse(watcher.shouldTrack(Paths.get("foo.json/file")));
+  }
+
+  @Test
+  public void testIncludes16() throws InterruptedException, IOException {
+    watcher.include("**/*.tar.gz");
+    watcher.include("foo/bar/**");
+
+    assertTrue(watcher.shouldTrack(Paths.get("file.tar.gz")));
+    assertTrue(watcher.shouldTrack(Paths.get("foo/file.tar.gz")));
+    assertFalse(watcher.shouldTrack(Paths.get("file.gz")));
+    assertFalse(watcher.shouldTrack(Paths.get("foo/bar")));
+    assertTrue(watcher.shouldTrack(Paths.get("foo/bar/file")));
+    assertFalse(watcher.shouldTrack(Paths.get("foo/barfile")));
+  }
+
   @Test
   public void testExcludes1() throws InterruptedException, IOException {
     watcher.exclude("**");
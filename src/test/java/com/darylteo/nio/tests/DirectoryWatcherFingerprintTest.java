@@ -0,0 +1,105 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherFingerprintTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("fingerprint_test");
+    Files.write(root.resolve("data"), "Hello World!".getBytes());
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+    watcher.enableFingerprints(1000);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        events.add("created " + entry);
+      }
+
+      @Override
+      public void entryModified(DirectoryWatcher watcher, Path entry) {
+        events.add("modified " + entry);
+      }
+    });
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testTouch() throws Exception {
+    Path data = root.resolve("data");
+
+    /* The first modification is delivered, and records the size */
+    Files.setLastModifiedTime(data, FileTime.fromMillis(System.currentTimeMillis() - 180000));
+    assertEquals("modified " + Paths.get("data"), poll());
+
+    /* The next cannot be decided by size, so is delivered and records the content */
+    Files.setLastModifiedTime(data, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+    assertEquals("modified " + Paths.get("data"), poll());
+
+    Files.setLastModifiedTime(data, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+    Files.createFile(root.resolve("marker"));
+    assertEquals("created " + Paths.get("marker"), poll());
+    assertTrue(events.isEmpty());
+    assertTrue(watcher.getSuppressedCount() > 0);
+
+    /* Same size, different content */
+    Files.write(data, "Hello World?".getBytes());
+    assertEquals("modified " + Paths.get("data"), poll());
+  }
+
+  private String poll() throws InterruptedException {
+    return events.poll(10, TimeUnit.SECONDS);
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
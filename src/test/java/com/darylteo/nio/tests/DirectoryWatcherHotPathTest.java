@@ -0,0 +1,106 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.HotPath;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherHotPathTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("hot_path_test");
+    Files.createDirectories(root.resolve("noisy"));
+    Files.createDirectories(root.resolve("quiet"));
+
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.setHotPathTracking(2, 1, TimeUnit.HOURS);
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testHottestPaths() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("quiet/last"))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    Files.write(root.resolve("quiet/file"), "Hello World!".getBytes());
+    for (int i = 0; i < 50; i++) {
+      Files.write(root.resolve("noisy/log"), "Hello World!\n".getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    Files.write(root.resolve("quiet/last"), "Hello World!".getBytes());
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    List<HotPath> paths = watcher.getHottestPaths(1);
+    assertEquals(1, paths.size());
+    assertEquals(Paths.get("noisy/log"), paths.get(0).getPath());
+    assertTrue(paths.get(0).getCount() >= 2);
+
+    List<HotPath> directories = watcher.getHottestDirectories(2);
+    assertEquals(Paths.get("noisy"), directories.get(0).getPath());
+
+    assertEquals(root.resolve("noisy/log"), factory.getHottestPaths(1).get(0).getPath());
+    assertEquals(root.resolve("noisy"), factory.getHottestDirectories(1).get(0).getPath());
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    factory.setHotPathTracking(0, 0, TimeUnit.SECONDS);
+
+    assertTrue(watcher.getHottestPaths(10).isEmpty());
+    assertTrue(factory.getHottestDirectories(10).isEmpty());
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
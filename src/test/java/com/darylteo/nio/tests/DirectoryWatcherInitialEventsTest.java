@@ -0,0 +1,149 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.ChangeKind;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherInitialEventsTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("initial_test");
+    Files.createDirectories(root.resolve("a/b"));
+    Files.write(root.resolve("file.json"), "Hello World!".getBytes());
+    Files.write(root.resolve("a/file.txt"), "Hello World!".getBytes());
+    Files.write(root.resolve("a/b/file.json"), "Hello World!".getBytes());
+
+    factory = new ThreadPoolDirectoryWatchService();
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testInitialEvents() throws Exception {
+    final List<ChangeEvent> initial = Collections.synchronizedList(new ArrayList<ChangeEvent>());
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    DirectoryWatcher watcher = factory.newWatcher(root, true);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        if (event.isInitial()) {
+          initial.add(event);
+        } else if (event.getKind() == ChangeKind.CREATED && event.getPath().equals(Paths.get("a/b/new"))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    assertEquals(0, watcher.getWatchCount());
+    watcher.start();
+    assertEquals(3, watcher.getWatchCount());
+
+    Set<Path> paths = new HashSet<>();
+    for (ChangeEvent event : initial) {
+      assertEquals(ChangeKind.CREATED, event.getKind());
+      assertTrue(paths.add(event.getPath()));
+    }
+
+    assertEquals(new HashSet<>(Arrays.asList(
+        Paths.get("a"),
+        Paths.get("a/b"),
+        Paths.get("file.json"),
+        Paths.get("a/file.txt"),
+        Paths.get("a/b/file.json")
+    )), paths);
+
+    // directories come before their contents
+    assertTrue(indexOf(initial, "a") < indexOf(initial, "a/b"));
+    assertTrue(indexOf(initial, "a/b") < indexOf(initial, "a/b/file.json"));
+
+    Files.createFile(root.resolve("a/b/new"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testInitialBatches() throws Exception {
+    final List<List<ChangeEvent>> batches = Collections.synchronizedList(new ArrayList<List<ChangeEvent>>());
+
+    DirectoryWatcher watcher = factory.newWatcher(root, true);
+    watcher.include("**/*.json");
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void initialEventsReceived(List<ChangeEvent> events) {
+        batches.add(events);
+      }
+    });
+    watcher.start();
+
+    Set<Path> paths = new HashSet<>();
+    for (List<ChangeEvent> batch : batches) {
+      assertFalse(batch.isEmpty());
+      for (ChangeEvent event : batch) {
+        paths.add(event.getPath());
+      }
+    }
+
+    assertEquals(new HashSet<>(Arrays.asList(Paths.get("file.json"), Paths.get("a/b/file.json"))), paths);
+  }
+
+  private int indexOf(List<ChangeEvent> events, String path) {
+    for (int i = 0; i < events.size(); i++) {
+      if (events.get(i).getPath().equals(Paths.get(path))) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
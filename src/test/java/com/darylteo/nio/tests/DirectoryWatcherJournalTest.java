@@ -0,0 +1,207 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectoryWatcherJournalTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+  private Path journalFile;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("journal_test");
+    journalFile = Files.createTempFile("journal_test", ".journal");
+    Files.delete(journalFile);
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+    Files.deleteIfExists(journalFile);
+  }
+
+  @Test
+  public void testCatchUpThenFollow() throws Exception {
+    watcher.enableJournal(1000);
+
+    Files.createFile(root.resolve("a"));
+    Files.createFile(root.resolve("b"));
+    awaitSequence(2);
+
+    final List<Long> sequences = new ArrayList<>();
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        synchronized (sequences) {
+          sequences.add(event.getSequence());
+        }
+
+        if (event.getPath().equals(Paths.get("c"))) {
+          latch.countDown();
+        }
+      }
+    }, 1);
+
+    Files.createFile(root.resolve("c"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    synchronized (sequences) {
+      for (int i = 0; i < sequences.size(); i++) {
+        assertEquals(i + 1, (long) sequences.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testEvictedSequence() throws Exception {
+    watcher.enableJournal(2);
+
+    for (int i = 0; i < 5; i++) {
+      Files.createFile(root.resolve("file" + i));
+    }
+    awaitSequence(5);
+
+    try {
+      watcher.subscribe(new DirectoryWatcherSubscriber() {
+      }, 1);
+      fail("Evicted events were replayed");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testSpillFile() throws Exception {
+    watcher.enableJournal(2, journalFile);
+
+    for (int i = 0; i < 5; i++) {
+      Files.createFile(root.resolve("file" + i));
+    }
+    awaitSequence(5);
+
+    /* Older events are read back from the file */
+    long last = watcher.getJournal().getLastSequence();
+    List<ChangeEvent> events = watcher.getJournal().read(1, 1000);
+    assertEquals(last, events.size());
+    for (int i = 0; i < events.size(); i++) {
+      assertEquals(i + 1, events.get(i).getSequence());
+    }
+
+    /* Sequence numbers carry on after a restart */
+    factory.close();
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+    watcher.enableJournal(2, journalFile);
+
+    assertEquals(last, watcher.getJournal().getLastSequence());
+    assertEquals(1, watcher.getJournal().getFirstSequence());
+
+    /* Events from before the restart are replayed from the file */
+    events = watcher.getJournal().read(1, 1000);
+    assertEquals(last, events.size());
+    for (int i = 0; i < events.size(); i++) {
+      assertEquals(i + 1, events.get(i).getSequence());
+      assertEquals(Paths.get("file" + i), events.get(i).getPath());
+    }
+    assertEquals(Paths.get("file4"), watcher.getJournal().read(last, 1).get(0).getPath());
+
+    final List<ChangeEvent> replayed = new ArrayList<>();
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        replayed.add(event);
+      }
+    }, 1);
+    assertEquals(last, replayed.size());
+  }
+
+  @Test
+  public void testSpillFileLimit() throws Exception {
+    watcher.enableJournal(2, journalFile, 200);
+
+    for (int i = 0; i < 30; i++) {
+      Files.createFile(root.resolve("file" + i));
+    }
+    awaitSequence(30);
+
+    /* The oldest events have been dropped from the file, once it is written */
+    long deadline = System.currentTimeMillis() + 10000;
+    while (watcher.getJournal().getFirstSequence() == 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+
+    long first = watcher.getJournal().getFirstSequence();
+    long last = watcher.getJournal().getLastSequence();
+    assertTrue(Files.size(journalFile) <= 200);
+    assertTrue(first > 1);
+
+    List<ChangeEvent> events = watcher.getJournal().read(first, 1000);
+    assertEquals(last - first + 1, events.size());
+    for (int i = 0; i < events.size(); i++) {
+      assertEquals(first + i, events.get(i).getSequence());
+    }
+
+    try {
+      watcher.getJournal().read(1, 1000);
+      fail("Dropped events were read");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  private void awaitSequence(long sequence) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (watcher.getJournal().getLastSequence() < sequence) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Events were not journaled");
+      }
+      Thread.sleep(50);
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
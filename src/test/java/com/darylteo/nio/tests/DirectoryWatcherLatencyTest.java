@@ -0,0 +1,132 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.LatencyHistogram;
+import com.darylteo.nio.LatencyStage;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectoryWatcherLatencyTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("latency_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testStages() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.enableLatencyTracking();
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("file"))) {
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+          }
+          latch.countDown();
+        }
+      }
+    });
+
+    Files.write(root.resolve("file"), "Hello World!".getBytes());
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    // the total is recorded after the last subscriber returns
+    long deadline = System.currentTimeMillis() + 5000;
+    while (watcher.getLatency(LatencyStage.TOTAL).getCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    LatencyHistogram subscriber = watcher.getLatency(LatencyStage.SUBSCRIBER);
+    assertTrue(subscriber.getCount() >= 1);
+    assertTrue(subscriber.getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+
+    LatencyHistogram total = watcher.getLatency(LatencyStage.TOTAL);
+    assertTrue(total.getCount() >= 1);
+    assertTrue(total.getValueAtPercentile(100) >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(watcher.getLatency(LatencyStage.DISPATCH).getCount() >= 1);
+    assertTrue(watcher.getLatency(LatencyStage.FILTER).getCount() >= 1);
+
+    // not buffered
+    assertEquals(0, watcher.getLatency(LatencyStage.QUEUE).getCount());
+  }
+
+  @Test
+  public void testQueue() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    watcher.enableLatencyTracking();
+    watcher.enableBuffering(10);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        latch.countDown();
+      }
+    });
+
+    Files.write(root.resolve("file"), "Hello World!".getBytes());
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertTrue(watcher.getLatency(LatencyStage.QUEUE).getCount() >= 1);
+  }
+
+  @Test
+  public void testNotEnabled() {
+    try {
+      watcher.getLatency(LatencyStage.TOTAL);
+      fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,167 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.WatchPriority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherLimitTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("limit_test").toRealPath();
+    Files.createDirectories(root.resolve("a/b"));
+    Files.createDirectories(root.resolve("c"));
+
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.setWatchLimit(2);
+    factory.setDegradedScanInterval(200, TimeUnit.MILLISECONDS);
+
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testShallowestFirst() {
+    Set<Path> degraded = watcher.getDegradedPaths();
+
+    /* The root and one of a or c are watched, the deepest directory is not */
+    assertEquals(2, factory.getWatchCount());
+    assertEquals(2, degraded.size());
+    assertTrue(degraded.contains(root.resolve("a/b")));
+    assertFalse(degraded.contains(root));
+    assertEquals(degraded, factory.getDegradedPaths());
+  }
+
+  @Test
+  public void testDegradedEvents() throws IOException, InterruptedException {
+    final CountDownLatch created = new CountDownLatch(2);
+    final CountDownLatch deleted = new CountDownLatch(1);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("c/file")) || entry.equals(Paths.get("a/b/file"))) {
+          created.countDown();
+        }
+      }
+
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("c/file"))) {
+          deleted.countDown();
+        }
+      }
+    });
+
+    Files.createFile(root.resolve("c/file"));
+    Files.createFile(root.resolve("a/b/file"));
+    assertTrue("Creation in degraded directories was not reported", created.await(10, TimeUnit.SECONDS));
+
+    Files.delete(root.resolve("c/file"));
+    assertTrue("Deletion in degraded directory was not reported", deleted.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testPromotion() throws IOException, InterruptedException {
+    factory.setWatchLimit(10);
+
+    long end = System.currentTimeMillis() + 10000;
+    while (!watcher.getDegradedPaths().isEmpty() && System.currentTimeMillis() < end) {
+      Thread.sleep(50);
+    }
+
+    assertTrue(watcher.getDegradedPaths().isEmpty());
+    assertEquals(4, factory.getWatchCount());
+  }
+
+  @Test
+  public void testDemotionKeepsSharedWatch() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+
+    root = Files.createTempDirectory("limit_test").toRealPath();
+    Files.createDirectories(root.resolve("c"));
+    Files.createDirectories(root.resolve("x/hot"));
+
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.setWatchLimit(4);
+    factory.setWatchPriority(WatchPriority.HOTTEST_FIRST);
+    factory.setDegradedScanInterval(200, TimeUnit.MILLISECONDS);
+
+    final CountDownLatch created = new CountDownLatch(1);
+    DirectoryWatcher other = factory.newWatcher(root.resolve("c"));
+    other.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("file"))) {
+          created.countDown();
+        }
+      }
+    });
+
+    // the root, c and x are watched, x/hot is not
+    watcher = factory.newWatcher(root);
+    assertEquals(Collections.singleton(root.resolve("x/hot")), watcher.getDegradedPaths());
+
+    // c is the only watched directory without activity, so it is demoted
+    // once x/hot becomes busy
+    Files.createFile(root.resolve("root_file"));
+    Files.createFile(root.resolve("x/file"));
+    long end = System.currentTimeMillis() + 10000;
+    for (int i = 0; !watcher.getDegradedPaths().contains(root.resolve("c")) && System.currentTimeMillis() < end; i++) {
+      Files.write(root.resolve("x/hot/file" + (i % 10)), "Hello World!".getBytes());
+      Thread.sleep(20);
+    }
+    assertTrue(watcher.getDegradedPaths().contains(root.resolve("c")));
+
+    Files.createFile(root.resolve("c/file"));
+    assertTrue("Watch of the other watcher was cancelled", created.await(2, TimeUnit.SECONDS));
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,209 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherSnapshotTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+  private Path snapshot;
+
+  private final Set<Path> created = Collections.synchronizedSet(new HashSet<Path>());
+  private final Set<Path> modified = Collections.synchronizedSet(new HashSet<Path>());
+  private final Set<Path> deleted = Collections.synchronizedSet(new HashSet<Path>());
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("snapshot_test");
+    snapshot = Files.createTempFile("snapshot_test", ".snapshot");
+    Files.delete(snapshot);
+
+    Files.createDirectories(root.resolve("dir"));
+    Files.write(root.resolve("a"), "a".getBytes());
+    Files.write(root.resolve("b"), "b".getBytes());
+    Files.write(root.resolve("dir/c"), "c".getBytes());
+  }
+
+  @After
+  public void after() throws Exception {
+    if (factory != null) {
+      factory.close();
+    }
+
+    deleteFileTree(root);
+    Files.deleteIfExists(snapshot);
+  }
+
+  @Test
+  public void testOfflineChanges() throws Exception {
+    /* First run: nothing to compare against */
+    factory = new ThreadPoolDirectoryWatchService();
+    DirectoryWatcher watcher = factory.newSnapshotWatcher(root, snapshot);
+    watcher.subscribe(new RecordingSubscriber());
+    watcher.start();
+
+    assertTrue(created.isEmpty() && modified.isEmpty() && deleted.isEmpty());
+
+    factory.close();
+    factory = null;
+    assertTrue(Files.exists(snapshot));
+
+    /* Offline changes */
+    Files.write(root.resolve("a"), "changed".getBytes());
+    Files.delete(root.resolve("b"));
+    Files.createDirectories(root.resolve("dir/sub"));
+    Files.write(root.resolve("dir/sub/d"), "d".getBytes());
+
+    /* Second run */
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newSnapshotWatcher(root, snapshot);
+    watcher.subscribe(new RecordingSubscriber());
+
+    assertTrue("Events were delivered before start", created.isEmpty());
+    watcher.start();
+
+    assertTrue(created.contains(Paths.get("dir/sub")));
+    assertTrue(created.contains(Paths.get("dir/sub/d")));
+    assertTrue(modified.contains(Paths.get("a")));
+    assertFalse(modified.contains(Paths.get("dir/c")));
+    assertEquals(Collections.singleton(Paths.get("b")), deleted);
+  }
+
+  @Test
+  public void testCorruptSnapshot() throws Exception {
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.newSnapshotWatcher(root, snapshot).start();
+    factory.close();
+    factory = null;
+
+    /* A negative length for the root path */
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}), 4);
+    }
+
+    /* Treated as a first run */
+    factory = new ThreadPoolDirectoryWatchService();
+    DirectoryWatcher watcher = factory.newSnapshotWatcher(root, snapshot);
+    watcher.subscribe(new RecordingSubscriber());
+    watcher.start();
+
+    assertTrue(created.isEmpty() && modified.isEmpty() && deleted.isEmpty());
+  }
+
+  @Test
+  public void testLiveEventsAfterOfflineChanges() throws Exception {
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.newSnapshotWatcher(root, snapshot).start();
+    factory.close();
+
+    Files.delete(root.resolve("a"));
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    factory = new ThreadPoolDirectoryWatchService();
+    DirectoryWatcher watcher = factory.newSnapshotWatcher(root, snapshot);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        /* the offline deletion must already have been delivered */
+        assertTrue(deleted.contains(Paths.get("a")));
+        latch.countDown();
+      }
+
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        deleted.add(entry);
+      }
+    });
+
+    Files.createFile(root.resolve("e"));
+    Thread.sleep(500);
+    watcher.start();
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testHeldEventsOverflow() throws Exception {
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.newSnapshotWatcher(root, snapshot).start();
+    factory.close();
+
+    Files.delete(root.resolve("b"));
+
+    factory = new ThreadPoolDirectoryWatchService();
+    DirectoryWatcher watcher = factory.newSnapshotWatcher(root, snapshot);
+    watcher.subscribe(new RecordingSubscriber());
+
+    /* More live events than are held back before start() */
+    for (int i = 0; i < 10100; i++) {
+      Files.createFile(root.resolve("file" + i));
+    }
+    Thread.sleep(2000);
+    watcher.start();
+
+    assertEquals(Collections.singleton(Paths.get("b")), deleted);
+    assertEquals(10100, created.size());
+    assertTrue(created.contains(Paths.get("file0")));
+    assertTrue(created.contains(Paths.get("file10099")));
+  }
+
+  private class RecordingSubscriber extends DirectoryWatcherSubscriber {
+    @Override
+    public void entryCreated(DirectoryWatcher watcher, Path entry) {
+      created.add(entry);
+    }
+
+    @Override
+    public void entryModified(DirectoryWatcher watcher, Path entry) {
+      modified.add(entry);
+    }
+
+    @Override
+    public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+      deleted.add(entry);
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
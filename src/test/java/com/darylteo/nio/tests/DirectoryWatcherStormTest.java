@@ -0,0 +1,179 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryWatcherStormTest {
+
+  private static final int FILE_COUNT = 500;
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  private final Set<Path> created = Collections.synchronizedSet(new HashSet<Path>());
+  private final Set<Path> deleted = Collections.synchronizedSet(new HashSet<Path>());
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("storm_test");
+    Files.createDirectories(root.resolve("existing"));
+    for (int i = 0; i < FILE_COUNT; i++) {
+      Files.createFile(root.resolve("existing/file" + i));
+    }
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+    watcher.setStormThreshold(50, 500, TimeUnit.MILLISECONDS);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        created.add(entry);
+      }
+
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        deleted.add(entry);
+      }
+    });
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testCreateStorm() throws InterruptedException, IOException {
+    Files.createDirectories(root.resolve("storm"));
+    Thread.sleep(500);
+
+    Set<Path> expected = new HashSet<>();
+    for (int i = 0; i < FILE_COUNT; i++) {
+      Files.createFile(root.resolve("storm/file" + i));
+      expected.add(Paths.get("storm", "file" + i));
+    }
+
+    assertTrue("Storm was not detected", waitFor(new Condition() {
+      public boolean met() {
+        return !watcher.getStormPaths().isEmpty();
+      }
+    }));
+
+    assertTrue("Storm did not settle", waitFor(new Condition() {
+      public boolean met() {
+        return watcher.getStormPaths().isEmpty();
+      }
+    }));
+
+    created.remove(Paths.get("storm"));
+    assertEquals(expected, new HashSet<>(created));
+  }
+
+  @Test
+  public void testDeleteStorm() throws InterruptedException, IOException {
+    Set<Path> expected = new HashSet<>();
+    for (int i = 0; i < FILE_COUNT; i++) {
+      Files.delete(root.resolve("existing/file" + i));
+      expected.add(Paths.get("existing", "file" + i));
+    }
+
+    assertTrue("Storm did not settle", waitFor(new Condition() {
+      public boolean met() {
+        return deleted.size() >= FILE_COUNT && watcher.getStormPaths().isEmpty();
+      }
+    }));
+
+    assertEquals(expected, new HashSet<>(deleted));
+  }
+
+  @Test
+  public void testDeepDeleteStorm() throws InterruptedException, IOException {
+    // few entries per directory, so that no single directory crosses the threshold
+    for (int i = 0; i < 8; i++) {
+      for (int j = 0; j < 8; j++) {
+        Path dir = Files.createDirectories(root.resolve("deep/a" + i + "/b" + j));
+        for (int k = 0; k < 3; k++) {
+          Files.createFile(dir.resolve("file" + k));
+        }
+      }
+    }
+
+    assertTrue("Creation did not settle", waitFor(new Condition() {
+      public boolean met() {
+        return created.contains(Paths.get("deep/a7/b7/file2")) && watcher.getStormPaths().isEmpty();
+      }
+    }));
+
+    deleteFileTree(root.resolve("deep"));
+
+    assertTrue("Storm was not detected", waitFor(new Condition() {
+      public boolean met() {
+        return watcher.getStormPaths().contains(root.resolve("deep"));
+      }
+    }));
+
+    assertTrue("Storm did not settle", waitFor(new Condition() {
+      public boolean met() {
+        return deleted.contains(Paths.get("deep")) && watcher.getStormPaths().isEmpty();
+      }
+    }));
+  }
+
+  private interface Condition {
+    boolean met();
+  }
+
+  private boolean waitFor(Condition condition) throws InterruptedException {
+    long end = System.currentTimeMillis() + 10000;
+
+    while (System.currentTimeMillis() < end) {
+      if (condition.met()) {
+        return true;
+      }
+
+      Thread.sleep(10);
+    }
+
+    return false;
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,77 @@
+package com.darylteo.nio.tests;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+
+/**
+ * Measures the cost of DirectoryWatcher.shouldTrack for common filters,
+ * against the regular expressions the same filters compile to.
+ */
+public class FilterBenchmark {
+  private static final int WARMUP = 5;
+  private static final int ROUNDS = 10;
+  private static final int ITERATIONS = 1000000;
+
+  private static final String[] FILTERS = { "**/*.json", "*.log", "logs/**" };
+  private static final Pattern[] PATTERNS = {
+      Pattern.compile("^.*?[^/]*?\\.json$"),
+      Pattern.compile("^[^/]*?\\.log$"),
+      Pattern.compile("^logs/.*?$")
+  };
+
+  private static final String[] PATHS = {
+      "src/main/resources/config.json",
+      "server.log",
+      "logs/2014/01/server.log",
+      "src/main/java/com/darylteo/nio/DirectoryWatcher.java",
+      "README.md"
+  };
+
+  public static void main(String[] args) throws Exception {
+    ThreadPoolDirectoryWatchService factory = new ThreadPoolDirectoryWatchService();
+    Path root = Files.createTempDirectory("filter_benchmark");
+    DirectoryWatcher watcher = factory.newWatcher(root, "/");
+
+    for (String filter : FILTERS) {
+      watcher.include(filter);
+    }
+
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      boolean measure = round >= WARMUP;
+
+      long start = System.nanoTime();
+      int matched = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        if (watcher.shouldTrack(PATHS[i % PATHS.length])) {
+          matched++;
+        }
+      }
+      long filters = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      int regexMatched = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+        String path = PATHS[i % PATHS.length];
+        for (Pattern pattern : PATTERNS) {
+          if (pattern.matcher(path).matches()) {
+            regexMatched++;
+            break;
+          }
+        }
+      }
+      long regex = System.nanoTime() - start;
+
+      if (measure) {
+        System.out.printf("shouldTrack: %6.1f ns/op   regex: %6.1f ns/op   (%d/%d)%n",
+            (double) filters / ITERATIONS, (double) regex / ITERATIONS, matched, regexMatched);
+      }
+    }
+
+    factory.close();
+    Files.delete(root);
+  }
+}
@@ -0,0 +1,172 @@
+package com.darylteo.nio.tests;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Produces file system churn under a directory, keeping track of every path
+ * it creates so that the events reported for them can be checked.
+ */
+public class LoadGenerator {
+  private final Path root;
+  private final Random random;
+  private final byte[] data = new byte[256];
+
+  /* Relative paths of every entry created, including those since deleted or renamed */
+  private final Set<Path> created = new HashSet<>();
+  private long operations = 0;
+
+  public LoadGenerator(Path root, long seed) {
+    this.root = root;
+    this.random = new Random(seed);
+    this.random.nextBytes(data);
+  }
+
+  public Set<Path> getCreated() {
+    return created;
+  }
+
+  /**
+   * @return the number of file system operations made
+   */
+  public long getOperations() {
+    return operations;
+  }
+
+  /**
+   * Creates a tree of directories, depth levels deep with width directories
+   * in each, and the given number of files in every directory.
+   *
+   * @return the relative path of the top of the tree
+   */
+  public Path createTree(String name, int depth, int width, int files) throws IOException {
+    Path top = root.resolve(name);
+    createTree(top, depth, width, files);
+    return root.relativize(top);
+  }
+
+  private void createTree(Path dir, int depth, int width, int files) throws IOException {
+    createDirectory(dir);
+
+    for (int i = 0; i < files; i++) {
+      write(dir.resolve("file" + i), false);
+    }
+
+    if (depth > 1) {
+      for (int i = 0; i < width; i++) {
+        createTree(dir.resolve("dir" + i), depth - 1, width, files);
+      }
+    }
+  }
+
+  /**
+   * Creates files in a single directory, and then appends to random files
+   * among them as fast as possible.
+   */
+  public void writeStorm(String name, int files, int writes) throws IOException {
+    Path dir = root.resolve(name);
+    createDirectory(dir);
+
+    List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < files; i++) {
+      Path file = dir.resolve("file" + i);
+      write(file, false);
+      paths.add(file);
+    }
+
+    for (int i = 0; i < writes; i++) {
+      write(paths.get(random.nextInt(paths.size())), true);
+    }
+  }
+
+  /**
+   * Creates files in a single directory and renames each of them.
+   */
+  public void renameStorm(String name, int files) throws IOException {
+    Path dir = root.resolve(name);
+    createDirectory(dir);
+
+    for (int i = 0; i < files; i++) {
+      write(dir.resolve("file" + i), false);
+    }
+
+    for (int i = 0; i < files; i++) {
+      Path target = dir.resolve("renamed" + i);
+      Files.move(dir.resolve("file" + i), target);
+      created.add(root.relativize(target));
+      operations++;
+    }
+  }
+
+  /**
+   * Deletes a tree, deepest entries first, like rm -rf.
+   */
+  public void deleteTree(Path relative) throws IOException {
+    Files.walkFileTree(root.resolve(relative), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        operations++;
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        operations++;
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * @return the relative paths of every entry currently under the root
+   */
+  public Set<Path> existing() throws IOException {
+    final Set<Path> paths = new HashSet<>();
+
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (!dir.equals(root)) {
+          paths.add(root.relativize(dir));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        paths.add(root.relativize(file));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    return paths;
+  }
+
+  private void createDirectory(Path dir) throws IOException {
+    Files.createDirectory(dir);
+    created.add(root.relativize(dir));
+    operations++;
+  }
+
+  private void write(Path file, boolean append) throws IOException {
+    if (append) {
+      Files.write(file, data, StandardOpenOption.APPEND);
+    } else {
+      Files.write(file, data);
+      created.add(root.relativize(file));
+    }
+    operations++;
+  }
+}
@@ -0,0 +1,213 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.DispatchOrdering;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.WatchServiceMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stress test for per-path ordering with multiple dispatch threads.
+ */
+public class OrderedDispatchTest {
+
+  private static final int THREADS = 4;
+  private static final int DIRECTORIES = 8;
+  private static final int FILES = 50;
+  private static final int ROUNDS = 3;
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+
+  private final Map<Path, List<String>> events = new HashMap<>();
+  private final AtomicInteger overflows = new AtomicInteger();
+  private CountDownLatch latch;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("ordered_test");
+    for (int d = 0; d < DIRECTORIES; d++) {
+      Files.createDirectories(root.resolve("dir" + d));
+    }
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testDirectoryOrdering() throws Exception {
+    runStress(DispatchOrdering.DIRECTORY);
+  }
+
+  @Test
+  public void testWatcherOrdering() throws Exception {
+    runStress(DispatchOrdering.WATCHER);
+  }
+
+  private void runStress(DispatchOrdering ordering) throws Exception {
+    factory = new ThreadPoolDirectoryWatchService(THREADS, ordering);
+    factory.setMonitor(new WatchServiceMonitor() {
+      @Override
+      public void overflow(Path dir) {
+        overflows.incrementAndGet();
+      }
+    });
+    DirectoryWatcher watcher = factory.newWatcher(root);
+
+    latch = new CountDownLatch(DIRECTORIES * FILES * ROUNDS);
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        record(entry, "C");
+      }
+
+      @Override
+      public void entryModified(DirectoryWatcher watcher, Path entry) {
+        record(entry, "M");
+      }
+
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        record(entry, "D");
+        latch.countDown();
+      }
+    });
+
+    List<Thread> writers = new ArrayList<>();
+    for (int d = 0; d < DIRECTORIES; d++) {
+      final Path dir = root.resolve("dir" + d);
+
+      Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int r = 0; r < ROUNDS; r++) {
+              for (int f = 0; f < FILES; f++) {
+                Path file = dir.resolve("file" + f);
+                Files.write(file, "Hello World!".getBytes());
+                Files.delete(file);
+              }
+            }
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      });
+
+      writers.add(writer);
+      writer.start();
+    }
+
+    for (Thread writer : writers) {
+      writer.join();
+    }
+
+    long end = System.currentTimeMillis() + 30000;
+    while (!latch.await(100, TimeUnit.MILLISECONDS) && overflows.get() == 0 && System.currentTimeMillis() < end) {
+    }
+
+    if (overflows.get() > 0) {
+      // the kernel dropped events, so neither the counts nor the sequences
+      // of the affected paths can be checked
+      System.out.println("Skipped: " + overflows.get() + " overflows");
+      return;
+    }
+
+    assertTrue("Not all deletions were received", latch.getCount() == 0);
+
+    synchronized (events) {
+      assertEquals(DIRECTORIES * FILES, events.size());
+
+      for (Map.Entry<Path, List<String>> entry : events.entrySet()) {
+        assertValidSequence(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private void record(Path entry, String kind) {
+    synchronized (events) {
+      List<String> list = events.get(entry);
+      if (list == null) {
+        list = new ArrayList<>();
+        events.put(entry, list);
+      }
+
+      list.add(kind);
+    }
+  }
+
+  /* Every deletion must follow a creation, and no two creations may occur without a deletion in between */
+  private void assertValidSequence(Path path, List<String> sequence) {
+    boolean exists = false;
+    int deletes = 0;
+
+    for (String kind : sequence) {
+      switch (kind) {
+        case "C":
+          if (exists) {
+            fail(path + " created twice: " + sequence);
+          }
+          exists = true;
+          break;
+        case "M":
+          if (!exists) {
+            fail(path + " modified while deleted: " + sequence);
+          }
+          break;
+        case "D":
+          if (!exists) {
+            fail(path + " deleted before created: " + sequence);
+          }
+          exists = false;
+          deletes++;
+          break;
+      }
+    }
+
+    assertEquals(path.toString(), ROUNDS, deletes);
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,156 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.ChangeKind;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.TraceReplayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelBatchTest {
+  private static final int FILES = 500;
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("parallel_batch_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    factory.setParallelBatches(4, 16);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testOrderPerEntry() throws Exception {
+    final Map<Path, List<ChangeKind>> kinds = new ConcurrentHashMap<>();
+    final CountDownLatch latch = new CountDownLatch(FILES);
+
+    DirectoryWatcher watcher = factory.newWatcher(root);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        List<ChangeKind> list = kinds.get(event.getPath());
+        if (list == null) {
+          kinds.put(event.getPath(), list = new ArrayList<>());
+        }
+        // events for the same entry are handled by the same thread
+        list.add(event.getKind());
+
+        if (event.getKind() == ChangeKind.DELETED) {
+          latch.countDown();
+        }
+      }
+    });
+
+    for (int i = 0; i < FILES; i++) {
+      Files.write(root.resolve("file" + i), "Hello World!".getBytes());
+    }
+    for (int i = 0; i < FILES; i++) {
+      Files.delete(root.resolve("file" + i));
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    for (int i = 0; i < FILES; i++) {
+      List<ChangeKind> list = kinds.get(Paths.get("file" + i));
+      assertEquals(ChangeKind.CREATED, list.get(0));
+      assertEquals(ChangeKind.DELETED, list.get(list.size() - 1));
+    }
+  }
+
+  @Test
+  public void testRecordingOrder() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(FILES);
+    Path trace = Files.createTempFile("parallel_batch_test", ".trace");
+
+    DirectoryWatcher watcher = factory.newWatcher(root);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        latch.countDown();
+      }
+    });
+
+    factory.startRecording(trace);
+    for (int i = 0; i < FILES; i++) {
+      Files.write(root.resolve("file" + i), "Hello World!".getBytes());
+      Files.delete(root.resolve("file" + i));
+    }
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    factory.stopRecording();
+
+    final List<Path> paths = new ArrayList<>();
+    DirectoryWatcher target = factory.newWatcher(root);
+    target.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        paths.add(event.getPath());
+      }
+    });
+    new TraceReplayer(trace).replay(target);
+    Files.delete(trace);
+
+    /* The trace keeps the order events were received in, although they were handled in parallel */
+    int last = 0;
+    for (Path path : paths) {
+      int index = Integer.parseInt(path.toString().substring("file".length()));
+      assertTrue(index >= last);
+      last = index;
+    }
+    assertEquals(FILES - 1, last);
+  }
+
+  @Test
+  public void testDispatchLanes() throws Exception {
+    try (ThreadPoolDirectoryWatchService lanes = new ThreadPoolDirectoryWatchService(2)) {
+      lanes.setParallelBatches(4, 16);
+      fail("Parallel batches were combined with dispatch lanes");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
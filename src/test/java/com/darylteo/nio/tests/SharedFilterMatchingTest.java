@@ -0,0 +1,62 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the filter tests against filters shared across the service, alongside
+ * other watchers whose filters must not interfere.
+ */
+public class SharedFilterMatchingTest extends DirectoryWatcherFilterTest {
+
+  private Path nestedPath = Paths.get("shared_filter_test");
+  private DirectoryWatcher nested;
+
+  @Override
+  @Before
+  public void before() throws IOException {
+    super.before();
+
+    factory.setSharedFilterMatching(true);
+
+    Files.createDirectories(nestedPath);
+    nested = factory.newWatcher(nestedPath);
+    nested.exclude("**");
+    factory.newWatcher(Paths.get("")).include("**/*.xml");
+  }
+
+  @Override
+  @After
+  public void after() throws Exception {
+    super.after();
+    Files.deleteIfExists(nestedPath);
+  }
+
+  @Test
+  public void testIndependentWatchers() {
+    watcher.include("foo/**");
+
+    assertTrue(factory.isSharedFilterMatching());
+    assertFalse(nested.shouldTrack(Paths.get("foo/file")));
+    assertTrue(watcher.shouldTrack(Paths.get("foo/file")));
+    assertFalse(watcher.shouldTrack(Paths.get("shared_filter_test/foo/file")));
+  }
+
+  @Test
+  public void testQuestionMarkFallback() {
+    watcher.include("fi?e");
+
+    assertTrue(watcher.shouldTrack(Paths.get("file")));
+    assertFalse(watcher.shouldTrack(Paths.get("files")));
+  }
+}
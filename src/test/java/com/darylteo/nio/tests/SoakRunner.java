@@ -0,0 +1,220 @@
+package com.darylteo.nio.tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.LatencyHistogram;
+import com.darylteo.nio.LatencyStage;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.WatchServiceMonitor;
+
+/**
+ * <p>
+ * Runs rounds of churn from a {@link LoadGenerator} against a single
+ * DirectoryWatcher, and checks the events it reports against what was done.
+ * Each round creates a deep tree, a write storm and a rename storm, waits for
+ * the events to settle, and then deletes all of it.
+ * </p>
+ * <p>
+ * A subscriber keeps the set of entries it believes to exist. Every round
+ * reports the entries that were created but never reported, creations
+ * reported twice, entries the subscriber still believes to exist after
+ * everything was deleted, overflows, latency and heap usage, so that leaks
+ * and losses show up over a long run.
+ * </p>
+ * <pre>
+ * java com.darylteo.nio.tests.SoakRunner [minutes] [scale]
+ * </pre>
+ */
+public class SoakRunner implements AutoCloseable {
+  private static final long QUIET = TimeUnit.SECONDS.toNanos(1);
+  private static final long SETTLE_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+  private final Path root;
+  private final ThreadPoolDirectoryWatchService factory;
+  private final DirectoryWatcher watcher;
+  private final View view = new View();
+  private final AtomicLong overflows = new AtomicLong();
+
+  public SoakRunner(Path root) throws IOException {
+    this.root = root;
+    this.factory = new ThreadPoolDirectoryWatchService();
+
+    factory.setMonitor(new WatchServiceMonitor() {
+      @Override
+      public void overflow(Path dir) {
+        overflows.incrementAndGet();
+      }
+    });
+
+    this.watcher = factory.newWatcher(root);
+    watcher.enableLatencyTracking();
+    watcher.subscribe(view);
+  }
+
+  public Round run(int round, int scale) throws IOException, InterruptedException {
+    LoadGenerator generator = new LoadGenerator(root, round);
+    String prefix = "round" + round + "-";
+    long events = view.events.get();
+    long start = System.nanoTime();
+
+    Path tree = generator.createTree(prefix + "tree", 4, 4, scale);
+    generator.writeStorm(prefix + "writes", 50 * scale, 500 * scale);
+    generator.renameStorm(prefix + "renames", 50 * scale);
+    settle();
+
+    int missed = 0;
+    for (Path path : generator.getCreated()) {
+      if (!view.seen(path)) {
+        missed++;
+      }
+    }
+
+    generator.deleteTree(tree);
+    generator.deleteTree(Paths.get(prefix + "writes"));
+    generator.deleteTree(Paths.get(prefix + "renames"));
+    settle();
+
+    Set<Path> divergent = view.live();
+    divergent.removeAll(generator.existing());
+    view.forget(generator.getCreated());
+
+    long duration = System.nanoTime() - start;
+    System.gc();
+    Runtime runtime = Runtime.getRuntime();
+
+    return new Round(round, generator.getOperations(), view.events.get() - events, missed, view.duplicates.getAndSet(0),
+        divergent.size(), overflows.getAndSet(0), duration, watcher.getLatency(LatencyStage.TOTAL),
+        runtime.totalMemory() - runtime.freeMemory());
+  }
+
+  /* Waits until no events have been received for a while */
+  private void settle() throws InterruptedException {
+    long deadline = System.nanoTime() + SETTLE_TIMEOUT;
+
+    while (System.nanoTime() < deadline && System.nanoTime() - view.last.get() < QUIET) {
+      Thread.sleep(100);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      factory.close();
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    long minutes = args.length > 0 ? Long.parseLong(args[0]) : 60;
+    int scale = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+    Path root = Files.createTempDirectory("soak");
+    long end = System.nanoTime() + TimeUnit.MINUTES.toNanos(minutes);
+
+    try (SoakRunner runner = new SoakRunner(root)) {
+      for (int round = 0; System.nanoTime() < end; round++) {
+        System.out.println(runner.run(round, scale));
+      }
+    }
+
+    Files.delete(root);
+  }
+
+  public static class Round {
+    final int round;
+    final long operations;
+    final long events;
+    final int missed;
+    final long duplicates;
+    final int divergent;
+    final long overflows;
+    final long duration;
+    final LatencyHistogram latency;
+    final long heap;
+
+    Round(int round, long operations, long events, int missed, long duplicates, int divergent, long overflows,
+          long duration, LatencyHistogram latency, long heap) {
+      this.round = round;
+      this.operations = operations;
+      this.events = events;
+      this.missed = missed;
+      this.duplicates = duplicates;
+      this.divergent = divergent;
+      this.overflows = overflows;
+      this.duration = duration;
+      this.latency = latency;
+      this.heap = heap;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("round %d: %d ops, %d events in %d ms, missed=%d duplicates=%d divergent=%d overflows=%d "
+              + "latency p50=%dus p99=%dus max=%dus heap=%dKB",
+          round, operations, events, TimeUnit.NANOSECONDS.toMillis(duration), missed, duplicates, divergent, overflows,
+          latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000, latency.getMax() / 1000,
+          heap / 1024);
+    }
+  }
+
+  /* The entries the subscriber believes to exist */
+  private static class View extends DirectoryWatcherSubscriber {
+    private final Set<Path> live = new HashSet<>();
+    private final Set<Path> seen = new HashSet<>();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong last = new AtomicLong(System.nanoTime());
+
+    @Override
+    public synchronized void eventReceived(ChangeEvent event) {
+      events.incrementAndGet();
+      last.set(System.nanoTime());
+
+      Path path = event.getPath();
+      switch (event.getKind()) {
+        case CREATED:
+          seen.add(path);
+          if (!live.add(path)) {
+            duplicates.incrementAndGet();
+          }
+          break;
+        case DELETED:
+          // deleting a directory removes everything below it
+          for (Iterator<Path> it = live.iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(path)) {
+              it.remove();
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    synchronized boolean seen(Path path) {
+      return seen.contains(path);
+    }
+
+    synchronized Set<Path> live() {
+      return new HashSet<>(live);
+    }
+
+    /* Keeps memory flat across rounds */
+    synchronized void forget(Set<Path> paths) {
+      seen.removeAll(paths);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.darylteo.nio.tests;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SoakTest {
+
+  private SoakRunner runner;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("soak_test");
+    runner = new SoakRunner(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    runner.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testShortSoak() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      SoakRunner.Round round = runner.run(i, 1);
+      System.out.println(round);
+
+      assertTrue(round.events > 0);
+      assertEquals(0, round.duplicates);
+
+      // events dropped by the WatchService may leave entries unreported
+      if (round.overflows == 0) {
+        assertEquals(0, round.missed);
+        assertEquals(0, round.divergent);
+      }
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,197 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.AttributeFilter;
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.WatchServiceMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriberIsolationTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("isolation_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testFailingSubscriber() throws Exception {
+    final CountDownLatch failed = new CountDownLatch(1);
+    final CountDownLatch second = new CountDownLatch(1);
+    final ChangeEvent[] failure = new ChangeEvent[1];
+
+    factory.setMonitor(new WatchServiceMonitor() {
+      @Override
+      public void subscriberFailed(DirectoryWatcherSubscriber subscriber, ChangeEvent event, RuntimeException exception) {
+        failure[0] = event;
+        failed.countDown();
+      }
+    });
+
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        throw new IllegalStateException("failed");
+      }
+    });
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("second"))) {
+          second.countDown();
+        }
+      }
+    });
+
+    Files.createFile(root.resolve("first"));
+    assertTrue(failed.await(10, TimeUnit.SECONDS));
+    assertEquals(Paths.get("first"), failure[0].getPath());
+
+    // the service is still handling events, and the other subscriber receives them
+    Files.createFile(root.resolve("second"));
+    assertTrue(second.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFailingEvent() throws Exception {
+    final CountDownLatch failed = new CountDownLatch(1);
+    final CountDownLatch second = new CountDownLatch(1);
+    final Path[] failure = new Path[1];
+
+    factory.setMonitor(new WatchServiceMonitor() {
+      @Override
+      public void eventFailed(Path dir, Path context, RuntimeException exception) {
+        failure[0] = context;
+        failed.countDown();
+      }
+    });
+
+    watcher.include(new AttributeFilter() {
+      @Override
+      public boolean accept(ChangeEvent event) {
+        if (event.getPath().equals(Paths.get("first"))) {
+          throw new IllegalStateException("failed");
+        }
+        return true;
+      }
+    });
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("second"))) {
+          second.countDown();
+        }
+      }
+    });
+
+    Files.createFile(root.resolve("first"));
+    assertTrue(failed.await(10, TimeUnit.SECONDS));
+    assertEquals(Paths.get("first"), failure[0]);
+
+    // the failure is reported, and later events are still handled
+    Files.createFile(root.resolve("second"));
+    assertTrue(second.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testQuarantine() throws Exception {
+    final CountDownLatch quarantined = new CountDownLatch(1);
+    final CountDownLatch fast = new CountDownLatch(1);
+    final DirectoryWatcherSubscriber[] reported = new DirectoryWatcherSubscriber[1];
+    final CountDownLatch release = new CountDownLatch(1);
+
+    factory.setMonitor(new WatchServiceMonitor() {
+      @Override
+      public void subscriberQuarantined(DirectoryWatcherSubscriber subscriber) {
+        reported[0] = subscriber;
+        quarantined.countDown();
+      }
+    });
+
+    DirectoryWatcherSubscriber slow = new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        try {
+          if (quarantined.getCount() > 0) {
+            Thread.sleep(20);
+          } else {
+            // blocks until the end of the test once it is on its own thread
+            release.await(10, TimeUnit.SECONDS);
+          }
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+
+    watcher.subscribe(slow, 1, TimeUnit.MILLISECONDS);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("last"))) {
+          fast.countDown();
+        }
+      }
+    });
+
+    for (int i = 0; i < 3; i++) {
+      Files.createFile(root.resolve("file" + i));
+    }
+    assertTrue(quarantined.await(10, TimeUnit.SECONDS));
+    assertSame(slow, reported[0]);
+
+    // the blocked subscriber no longer holds up the other one
+    Files.createFile(root.resolve("blocked"));
+    Files.createFile(root.resolve("last"));
+    assertTrue(fast.await(5, TimeUnit.SECONDS));
+
+    release.countDown();
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
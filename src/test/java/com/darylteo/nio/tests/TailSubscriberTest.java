@@ -0,0 +1,200 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.TailSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TailSubscriberTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private DirectoryWatcher watcher;
+  private Path root;
+  private Tail tail;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("tail_test");
+
+    factory = new ThreadPoolDirectoryWatchService();
+    watcher = factory.newWatcher(root);
+
+    tail = new Tail();
+    watcher.subscribe(tail);
+  }
+
+  @After
+  public void after() throws Exception {
+    tail.close();
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testAppend() throws Exception {
+    Path log = root.resolve("app.log");
+
+    Files.write(log, "one\n".getBytes(StandardCharsets.UTF_8));
+    assertTrue(tail.await("one\n"));
+
+    Files.write(log, "two\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Files.write(log, "three\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    assertTrue(tail.await("one\ntwo\nthree\n"));
+  }
+
+  @Test
+  public void testTruncate() throws Exception {
+    Path log = root.resolve("app.log");
+
+    Files.write(log, "one\ntwo\n".getBytes(StandardCharsets.UTF_8));
+    assertTrue(tail.await("one\ntwo\n"));
+
+    Files.write(log, "x\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+    assertTrue(tail.await("one\ntwo\nx\n"));
+    assertTrue(tail.truncated.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRotate() throws Exception {
+    Path log = root.resolve("app.log");
+    Path next = root.resolve("next.tmp");
+
+    Files.write(log, "old\n".getBytes(StandardCharsets.UTF_8));
+    assertTrue(tail.await("old\n"));
+
+    Files.write(next, "new\n".getBytes(StandardCharsets.UTF_8));
+    Files.move(next, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    assertTrue(tail.rotated.await(10, TimeUnit.SECONDS));
+    assertTrue(tail.await("old\nnew\n"));
+  }
+
+  @Test
+  public void testExistingFile() throws Exception {
+    Path log = root.resolve("app.log");
+
+    Files.write(log, "old\n".getBytes(StandardCharsets.UTF_8));
+    assertTrue(tail.await("old\n"));
+
+    /* The first append to a file that existed when subscribing is not lost */
+    try (Tail late = new Tail()) {
+      watcher.subscribe(late);
+
+      Files.write(log, "new\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+      assertTrue(late.await("new\n"));
+    }
+  }
+
+  @Test
+  public void testLargeAppend() throws Exception {
+    Path log = root.resolve("app.log");
+
+    /* Larger than the buffer it is read through */
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 200000) {
+      large.append("line ").append(large.length()).append('\n');
+    }
+
+    Files.write(log, large.toString().getBytes(StandardCharsets.UTF_8));
+    assertTrue(tail.await(large.toString()));
+  }
+
+  @Test
+  public void testMaxOpenFiles() throws Exception {
+    Path log = root.resolve("app.log");
+    Path other = root.resolve("other.log");
+
+    /* Following another file closes the channel, which is reopened where it left off */
+    try (Tail single = new Tail(1)) {
+      watcher.subscribe(single);
+
+      Files.write(log, "one\n".getBytes(StandardCharsets.UTF_8));
+      assertTrue(single.await("one\n"));
+
+      Files.write(other, "other\n".getBytes(StandardCharsets.UTF_8));
+      Files.write(log, "two\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+      assertTrue(single.await("one\ntwo\n"));
+    }
+  }
+
+  private static class Tail extends TailSubscriber {
+    private final StringBuffer received = new StringBuffer();
+    private final CountDownLatch truncated = new CountDownLatch(1);
+    private final CountDownLatch rotated = new CountDownLatch(1);
+
+    Tail() {
+    }
+
+    Tail(int maxOpenFiles) {
+      super(maxOpenFiles);
+    }
+
+    @Override
+    public void bytesAppended(DirectoryWatcher watcher, Path file, ByteBuffer data) {
+      if (file.equals(Paths.get("app.log"))) {
+        received.append(StandardCharsets.UTF_8.decode(data));
+      }
+    }
+
+    @Override
+    public void fileTruncated(DirectoryWatcher watcher, Path file) {
+      truncated.countDown();
+    }
+
+    @Override
+    public void fileRotated(DirectoryWatcher watcher, Path file) {
+      rotated.countDown();
+    }
+
+    boolean await(String expected) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+      while (System.nanoTime() < deadline) {
+        if (received.toString().equals(expected)) {
+          return true;
+        }
+        Thread.sleep(50);
+      }
+
+      System.out.println("Received: " + received);
+      return false;
+    }
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
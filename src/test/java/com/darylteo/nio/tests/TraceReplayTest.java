@@ -0,0 +1,149 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.ChangeKind;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ReplayResult;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.TraceReplayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceReplayTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+  private Path recorded;
+  private Path replayed;
+  private Path trace;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("trace_test");
+    recorded = Files.createDirectories(root.resolve("recorded"));
+    replayed = Files.createDirectories(root.resolve("replayed"));
+    trace = root.resolve("events.trace");
+
+    factory = new ThreadPoolDirectoryWatchService();
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testRecordAndReplay() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    DirectoryWatcher watcher = factory.newWatcher(recorded);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryDeleted(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("file.txt"))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    factory.startRecording(trace);
+    Files.write(recorded.resolve("file.txt"), "Hello World!".getBytes());
+    Files.write(recorded.resolve("file.log"), "Hello World!".getBytes());
+    Files.delete(recorded.resolve("file.txt"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    factory.stopRecording();
+
+    final List<ChangeEvent> events = new CopyOnWriteArrayList<>();
+    DirectoryWatcher target = factory.newWatcher(replayed);
+    target.include("*.txt");
+    target.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void eventReceived(ChangeEvent event) {
+        events.add(event);
+      }
+    });
+
+    TraceReplayer replayer = new TraceReplayer(trace);
+    replayer.setRebase(recorded, replayed);
+    ReplayResult result = replayer.replay(target);
+
+    assertTrue(result.getEvents() >= 3);
+    assertEquals(result.getEvents(), result.getLatency().getCount());
+
+    assertEquals(ChangeKind.CREATED, events.get(0).getKind());
+    assertEquals(Paths.get("file.txt"), events.get(0).getPath());
+    assertEquals(ChangeKind.DELETED, events.get(events.size() - 1).getKind());
+    for (ChangeEvent event : events) {
+      assertEquals(Paths.get("file.txt"), event.getPath());
+    }
+
+    // nothing is written to the replayed tree
+    assertFalse(Files.exists(replayed.resolve("file.txt")));
+  }
+
+  @Test
+  public void testOriginalTiming() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    DirectoryWatcher watcher = factory.newWatcher(recorded);
+    watcher.subscribe(new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        if (entry.equals(Paths.get("second"))) {
+          latch.countDown();
+        }
+      }
+    });
+
+    factory.startRecording(trace);
+    Files.createFile(recorded.resolve("first"));
+    Thread.sleep(300);
+    Files.createFile(recorded.resolve("second"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    factory.stopRecording();
+
+    TraceReplayer replayer = new TraceReplayer(trace);
+    replayer.setOriginalTiming(true);
+    ReplayResult result = replayer.replay(watcher);
+
+    assertTrue(result.getEvents() >= 2);
+    assertTrue(result.getDuration() >= TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
@@ -0,0 +1,118 @@
+package com.darylteo.nio.tests;
+
+import com.darylteo.nio.ChangeEvent;
+import com.darylteo.nio.DirectoryWatcher;
+import com.darylteo.nio.DirectoryWatcherSubscriber;
+import com.darylteo.nio.ThreadPoolDirectoryWatchService;
+import com.darylteo.nio.WatchServiceMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WatchServiceMonitorTest {
+
+  private ThreadPoolDirectoryWatchService factory;
+  private Path root;
+
+  @Before
+  public void before() throws IOException {
+    System.out.println("\nRunning Test");
+
+    root = Files.createTempDirectory("monitor_test");
+    Files.createDirectories(root.resolve("a/b"));
+
+    factory = new ThreadPoolDirectoryWatchService();
+  }
+
+  @After
+  public void after() throws Exception {
+    factory.close();
+    deleteFileTree(root);
+  }
+
+  @Test
+  public void testMonitor() throws Exception {
+    final AtomicInteger directories = new AtomicInteger();
+    final AtomicInteger events = new AtomicInteger();
+    final ChangeEvent[] slow = new ChangeEvent[1];
+    final DirectoryWatcherSubscriber[] slowSubscriber = new DirectoryWatcherSubscriber[1];
+    final CountDownLatch latch = new CountDownLatch(1);
+    final CountDownLatch processed = new CountDownLatch(1);
+
+    factory.setSlowSubscriberThreshold(10, TimeUnit.MILLISECONDS);
+    factory.setMonitor(new WatchServiceMonitor() {
+      @Override
+      public void keyProcessed(Path dir, int count, long duration) {
+        events.addAndGet(count);
+        processed.countDown();
+      }
+
+      @Override
+      public void treeRegistered(DirectoryWatcher watcher, int count, long duration) {
+        directories.set(count);
+      }
+
+      @Override
+      public void slowSubscriber(DirectoryWatcherSubscriber subscriber, ChangeEvent event, long duration) {
+        slowSubscriber[0] = subscriber;
+        slow[0] = event;
+        latch.countDown();
+      }
+    });
+
+    DirectoryWatcher watcher = factory.newWatcher(root);
+    assertEquals(3, directories.get());
+
+    DirectoryWatcherSubscriber subscriber = new DirectoryWatcherSubscriber() {
+      @Override
+      public void entryCreated(DirectoryWatcher watcher, Path entry) {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    watcher.subscribe(subscriber);
+
+    Files.createFile(root.resolve("a/file"));
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    assertSame(subscriber, slowSubscriber[0]);
+    assertEquals(Paths.get("a/file"), slow[0].getPath());
+
+    // keys are reported once their events have been handled, after the subscriber returns
+    assertTrue(processed.await(10, TimeUnit.SECONDS));
+    assertTrue(events.get() > 0);
+  }
+
+  private void deleteFileTree(Path path) throws IOException {
+    Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}